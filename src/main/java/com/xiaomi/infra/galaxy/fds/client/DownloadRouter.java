@@ -0,0 +1,189 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Chooses between the CDN and the origin for each download, whichever is
+ * currently expected to deliver the content first. The time to first byte
+ * and the throughput of each endpoint are tracked with exponentially
+ * weighted moving averages, so that old samples fade away. A failed request
+ * counts as a slow answer. A small share of the downloads goes to the
+ * endpoint which looks slower, to notice when it gets faster again.
+ */
+class DownloadRouter {
+
+  // Weight of a new sample in the moving averages
+  private static final double ALPHA = 0.2;
+
+  private static final double PROBE_RATIO = 0.05;
+
+  // A failure weighs at least as much as this many average answers
+  private static final double FAILURE_PENALTY_FACTOR = 4;
+
+  // Shorter transfers measure the latency rather than the throughput
+  private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 64 * 1024;
+
+  private final Endpoint cdn = new Endpoint();
+  private final Endpoint origin = new Endpoint();
+  private final Random random;
+
+  // Average length of the downloads, for those of unknown length
+  private double averageLength = -1;
+
+  DownloadRouter() {
+    this(new Random());
+  }
+
+  DownloadRouter(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Returns whether the next download should go to the CDN.
+   *
+   * @param length The length of the download, negative if unknown
+   */
+  synchronized boolean chooseCdn(long length) {
+    // Each endpoint is tried before it is compared
+    if (cdn.firstByteNanos < 0) {
+      return true;
+    }
+    if (origin.firstByteNanos < 0) {
+      return false;
+    }
+    double expectedLength = length >= 0 ? length : averageLength;
+    // An endpoint whose throughput is not measured yet is assumed to be as
+    // fast as the other one, rather than to transfer in no time
+    double cdnBytesPerNano = cdn.bytesPerNano > 0 ? cdn.bytesPerNano :
+        origin.bytesPerNano;
+    double originBytesPerNano = origin.bytesPerNano > 0 ?
+        origin.bytesPerNano : cdn.bytesPerNano;
+    boolean cdnFaster =
+        cdn.estimateNanos(expectedLength, cdnBytesPerNano) <=
+        origin.estimateNanos(expectedLength, originBytesPerNano);
+    if (random.nextDouble() < PROBE_RATIO) {
+      return !cdnFaster;
+    }
+    return cdnFaster;
+  }
+
+  /**
+   * Records the time from sending a request to receiving the headers of a
+   * response with content.
+   */
+  synchronized void recordFirstByte(boolean useCdn, long nanos) {
+    Endpoint endpoint = useCdn ? cdn : origin;
+    endpoint.firstByteNanos = average(endpoint.firstByteNanos, nanos);
+  }
+
+  /**
+   * Records a request which failed or got a server error after the
+   * specified time. The sample is the time spent, or a multiple of the
+   * average time to first byte if larger, so that a failing endpoint is
+   * avoided until it answers again.
+   */
+  synchronized void recordFailure(boolean useCdn, long nanos) {
+    Endpoint endpoint = useCdn ? cdn : origin;
+    double reference = endpoint.firstByteNanos < 0 ? nanos :
+        endpoint.firstByteNanos;
+    endpoint.firstByteNanos = average(endpoint.firstByteNanos,
+        Math.max(nanos, FAILURE_PENALTY_FACTOR * reference));
+  }
+
+  /**
+   * Records the transfer of the content of a response, the time is the time
+   * spent waiting for the content.
+   */
+  synchronized void recordTransfer(boolean useCdn, long bytes, long nanos) {
+    averageLength = average(averageLength, bytes);
+    if (bytes >= MIN_THROUGHPUT_SAMPLE_BYTES && nanos > 0) {
+      Endpoint endpoint = useCdn ? cdn : origin;
+      endpoint.bytesPerNano = average(endpoint.bytesPerNano,
+          (double) bytes / nanos);
+    }
+  }
+
+  /**
+   * Wraps the content of a response so that its transfer is recorded when
+   * it is fully read or closed.
+   */
+  InputStream meter(InputStream content, boolean useCdn) {
+    return new MeteredInputStream(content, useCdn);
+  }
+
+  private static double average(double average, double sample) {
+    return average < 0 ? sample : average + ALPHA * (sample - average);
+  }
+
+  private static class Endpoint {
+
+    private double firstByteNanos = -1;
+    private double bytesPerNano = -1;
+
+    double estimateNanos(double length, double bytesPerNano) {
+      if (length <= 0 || bytesPerNano <= 0) {
+        return firstByteNanos;
+      }
+      return firstByteNanos + length / bytesPerNano;
+    }
+  }
+
+  /**
+   * Stream measuring the time spent in the reads of the content, the time
+   * the reader spends between reads does not slow down the endpoint.
+   */
+  private class MeteredInputStream extends FilterInputStream {
+
+    private final boolean useCdn;
+    private long bytes;
+    private long transferNanos;
+    private boolean recorded;
+
+    MeteredInputStream(InputStream in, boolean useCdn) {
+      super(in);
+      this.useCdn = useCdn;
+    }
+
+    @Override
+    public int read() throws IOException {
+      long startTime = System.nanoTime();
+      int b = super.read();
+      transferNanos += System.nanoTime() - startTime;
+      if (b >= 0) {
+        bytes++;
+      } else {
+        record();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      long startTime = System.nanoTime();
+      int read = super.read(b, off, len);
+      transferNanos += System.nanoTime() - startTime;
+      if (read > 0) {
+        bytes += read;
+      } else if (read < 0) {
+        record();
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      record();
+      super.close();
+    }
+
+    private void record() {
+      if (!recorded) {
+        recorded = true;
+        recordTransfer(useCdn, bytes, transferNanos);
+      }
+    }
+  }
+}
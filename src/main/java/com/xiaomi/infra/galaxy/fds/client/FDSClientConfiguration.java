@@ -35,12 +35,70 @@ public class FDSClientConfiguration {
    */
   public static final int DEFAULT_MAX_BATCH_DELETE_SIZE = 1000;
 
+  /**
+   * part size used by multipart uploads
+   */
+  public static final long DEFAULT_UPLOAD_PART_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * objects not larger than this are uploaded with a single put request
+   */
+  public static final long DEFAULT_MULTIPART_UPLOAD_THRESHOLD =
+      4 * DEFAULT_UPLOAD_PART_SIZE;
+
+  /**
+   * max concurrent part transfers of a transfer manager
+   */
+  public static final int DEFAULT_MAX_TRANSFER_THREADS = 8;
+
+  /**
+   * number of part buffers used to upload streams of unknown length
+   */
+  public static final int DEFAULT_UPLOAD_BUFFER_NUMBER = 8;
+
+  /**
+   * size of the byte ranges fetched concurrently by parallel downloads
+   */
+  public static final long DEFAULT_DOWNLOAD_PART_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * size of the blocks fetched ahead of the reader by read-ahead streams
+   */
+  public static final int DEFAULT_READ_AHEAD_BLOCK_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * number of blocks a read-ahead stream keeps in flight
+   */
+  public static final int DEFAULT_READ_AHEAD_WINDOW = 4;
+
+  /**
+   * size of the blocks fetched by random access channels
+   */
+  public static final int DEFAULT_RANDOM_ACCESS_BLOCK_SIZE = 1024 * 1024;
+
+  /**
+   * number of blocks cached by a random access channel
+   */
+  public static final int DEFAULT_RANDOM_ACCESS_CACHE_BLOCKS = 16;
+
+  /**
+   * max gap between two ranges merged into one request by vectored reads
+   */
+  public static final long DEFAULT_RANGE_COALESCE_GAP = 128 * 1024;
+
+  /**
+   * number of reconnections of an object stream, zero disables them
+   */
+  public static final int DEFAULT_OBJECT_READ_RETRIES = 0;
+
   private String regionName;
   private String endpoint;
   private boolean enableHttps;
   private boolean enableCdnForUpload;
   private boolean enableCdnForDownload;
+  private boolean enableAdaptiveDownloadRouting;
   private boolean enableMd5Calculate;
+  private boolean enableMd5Verify;
 
   private boolean enableUnitTestMode;
   private String baseUriForUnitTest;
@@ -51,13 +109,26 @@ public class FDSClientConfiguration {
   private int socketTimeoutMs = DEFAULT_SOCKET_TIMEOUT_MS;
   private int maxConnection = DEFAULT_MAX_CONNECTIONS;
   private int batchDeleteSize = DEFAULT_MAX_BATCH_DELETE_SIZE;
+  private long uploadPartSize = DEFAULT_UPLOAD_PART_SIZE;
+  private long multipartUploadThreshold = DEFAULT_MULTIPART_UPLOAD_THRESHOLD;
+  private int maxTransferThreads = DEFAULT_MAX_TRANSFER_THREADS;
+  private int uploadBufferNumber = DEFAULT_UPLOAD_BUFFER_NUMBER;
+  private long downloadPartSize = DEFAULT_DOWNLOAD_PART_SIZE;
+  private int readAheadBlockSize = DEFAULT_READ_AHEAD_BLOCK_SIZE;
+  private int readAheadWindow = DEFAULT_READ_AHEAD_WINDOW;
+  private int randomAccessBlockSize = DEFAULT_RANDOM_ACCESS_BLOCK_SIZE;
+  private int randomAccessCacheBlocks = DEFAULT_RANDOM_ACCESS_CACHE_BLOCKS;
+  private long rangeCoalesceGap = DEFAULT_RANGE_COALESCE_GAP;
+  private int objectReadRetries = DEFAULT_OBJECT_READ_RETRIES;
 
   public FDSClientConfiguration() {
     enableHttps = true;
     regionName = "cnbj0";
     enableCdnForUpload = false;
     enableCdnForDownload = true;
+    enableAdaptiveDownloadRouting = false;
     enableMd5Calculate = false;
+    enableMd5Verify = false;
 
     enableUnitTestMode = false;
     baseUriForUnitTest = "";
@@ -105,6 +176,21 @@ public class FDSClientConfiguration {
     this.enableCdnForDownload = enableCdnForDownload;
   }
 
+  public boolean isAdaptiveDownloadRoutingEnabled() {
+    return enableAdaptiveDownloadRouting;
+  }
+
+  /**
+   * Enables the choice between the CDN and the origin for each download,
+   * based on the time to first byte and the throughput recently observed on
+   * each of them. Overrides {@link #isCdnEnabledForDownload()} for object
+   * reads, has no effect when an endpoint is set.
+   */
+  public void enableAdaptiveDownloadRouting(
+      boolean enableAdaptiveDownloadRouting) {
+    this.enableAdaptiveDownloadRouting = enableAdaptiveDownloadRouting;
+  }
+
   public boolean isMd5CalculateEnabled() {
     return enableMd5Calculate;
   }
@@ -113,6 +199,20 @@ public class FDSClientConfiguration {
     this.enableMd5Calculate = enableMd5Calculate;
   }
 
+  public boolean isMd5VerifyEnabled() {
+    return enableMd5Verify;
+  }
+
+  /**
+   * Enables the check of downloaded objects against their content MD5. The
+   * digest is computed while the content is read, a mismatch fails the read
+   * which reaches the end of the object. Objects without a MD5 content
+   * digest and partial reads are not checked.
+   */
+  public void setEnableMd5Verify(boolean enableMd5Verify) {
+    this.enableMd5Verify = enableMd5Verify;
+  }
+
   public void enableMetrics() {
     enableMetrics = true;
   }
@@ -286,4 +386,254 @@ public class FDSClientConfiguration {
   public int getMaxBatchDeleteSize() {
     return this.batchDeleteSize;
   }
+
+  /**
+   * Returns the size of each part sent by multipart uploads.
+   *
+   * @return The part size in bytes
+   */
+  public long getUploadPartSize() {
+    return uploadPartSize;
+  }
+
+  /**
+   * Sets the size of each part sent by multipart uploads. The last part of
+   * an object may be smaller.
+   *
+   * @param uploadPartSize The part size in bytes, must be positive
+   */
+  public void setUploadPartSize(long uploadPartSize) {
+    Preconditions.checkArgument(uploadPartSize > 0,
+        "part size should be positive, got " + uploadPartSize);
+    this.uploadPartSize = uploadPartSize;
+  }
+
+  /**
+   * Returns the object size above which uploads switch from a single put
+   * request to a multipart upload.
+   *
+   * @return The multipart upload threshold in bytes
+   */
+  public long getMultipartUploadThreshold() {
+    return multipartUploadThreshold;
+  }
+
+  /**
+   * Sets the object size above which uploads switch from a single put
+   * request to a multipart upload.
+   *
+   * @param multipartUploadThreshold The threshold in bytes, must be positive
+   */
+  public void setMultipartUploadThreshold(long multipartUploadThreshold) {
+    Preconditions.checkArgument(multipartUploadThreshold > 0,
+        "threshold should be positive, got " + multipartUploadThreshold);
+    this.multipartUploadThreshold = multipartUploadThreshold;
+  }
+
+  /**
+   * Returns the max number of parts a transfer manager sends or receives
+   * at the same time.
+   *
+   * @return The max number of transfer threads
+   */
+  public int getMaxTransferThreads() {
+    return maxTransferThreads;
+  }
+
+  /**
+   * Sets the max number of parts a transfer manager sends or receives at
+   * the same time. Each thread holds one http connection, so the value
+   * should not be larger than the max connections of the client.
+   *
+   * @param maxTransferThreads The max number of transfer threads
+   */
+  public void setMaxTransferThreads(int maxTransferThreads) {
+    Preconditions.checkArgument(maxTransferThreads > 0,
+        "thread number should be positive, got " + maxTransferThreads);
+    this.maxTransferThreads = maxTransferThreads;
+  }
+
+  /**
+   * Returns the number of part buffers a transfer manager uses to upload
+   * streams of unknown length.
+   *
+   * @return The number of upload buffers
+   */
+  public int getUploadBufferNumber() {
+    return uploadBufferNumber;
+  }
+
+  /**
+   * Sets the number of part buffers a transfer manager uses to upload
+   * streams of unknown length. The buffers are shared by all stream uploads
+   * of the transfer manager, which hold at most uploadBufferNumber *
+   * uploadPartSize bytes in memory.
+   *
+   * @param uploadBufferNumber The number of upload buffers
+   */
+  public void setUploadBufferNumber(int uploadBufferNumber) {
+    Preconditions.checkArgument(uploadBufferNumber > 0,
+        "buffer number should be positive, got " + uploadBufferNumber);
+    this.uploadBufferNumber = uploadBufferNumber;
+  }
+
+  /**
+   * Returns the size of the byte ranges a transfer manager fetches
+   * concurrently when downloading an object.
+   *
+   * @return The download part size in bytes
+   */
+  public long getDownloadPartSize() {
+    return downloadPartSize;
+  }
+
+  /**
+   * Sets the size of the byte ranges a transfer manager fetches
+   * concurrently when downloading an object. Objects not larger than one
+   * part are downloaded with a single request.
+   *
+   * @param downloadPartSize The part size in bytes, must be positive
+   */
+  public void setDownloadPartSize(long downloadPartSize) {
+    Preconditions.checkArgument(downloadPartSize > 0,
+        "part size should be positive, got " + downloadPartSize);
+    this.downloadPartSize = downloadPartSize;
+  }
+
+  /**
+   * Returns the size of the blocks a read-ahead stream fetches with ranged
+   * requests.
+   *
+   * @return The read-ahead block size in bytes
+   */
+  public int getReadAheadBlockSize() {
+    return readAheadBlockSize;
+  }
+
+  /**
+   * Sets the size of the blocks a read-ahead stream fetches with ranged
+   * requests.
+   *
+   * @param readAheadBlockSize The block size in bytes, must be positive
+   */
+  public void setReadAheadBlockSize(int readAheadBlockSize) {
+    Preconditions.checkArgument(readAheadBlockSize > 0,
+        "block size should be positive, got " + readAheadBlockSize);
+    this.readAheadBlockSize = readAheadBlockSize;
+  }
+
+  /**
+   * Returns the number of blocks a read-ahead stream keeps in flight ahead
+   * of the reader.
+   *
+   * @return The read-ahead window in blocks
+   */
+  public int getReadAheadWindow() {
+    return readAheadWindow;
+  }
+
+  /**
+   * Sets the number of blocks a read-ahead stream keeps in flight ahead of
+   * the reader. Each stream holds at most readAheadWindow + 1 blocks in
+   * memory.
+   *
+   * @param readAheadWindow The number of blocks, must be positive
+   */
+  public void setReadAheadWindow(int readAheadWindow) {
+    Preconditions.checkArgument(readAheadWindow > 0,
+        "window should be positive, got " + readAheadWindow);
+    this.readAheadWindow = readAheadWindow;
+  }
+
+  /**
+   * Returns the size of the blocks a random access channel fetches with
+   * ranged requests.
+   *
+   * @return The block size in bytes
+   */
+  public int getRandomAccessBlockSize() {
+    return randomAccessBlockSize;
+  }
+
+  /**
+   * Sets the size of the blocks a random access channel fetches with ranged
+   * requests.
+   *
+   * @param randomAccessBlockSize The block size in bytes, must be positive
+   */
+  public void setRandomAccessBlockSize(int randomAccessBlockSize) {
+    Preconditions.checkArgument(randomAccessBlockSize > 0,
+        "block size should be positive, got " + randomAccessBlockSize);
+    this.randomAccessBlockSize = randomAccessBlockSize;
+  }
+
+  /**
+   * Returns the number of blocks a random access channel keeps in its least
+   * recently used cache.
+   *
+   * @return The number of cached blocks
+   */
+  public int getRandomAccessCacheBlocks() {
+    return randomAccessCacheBlocks;
+  }
+
+  /**
+   * Sets the number of blocks a random access channel keeps in its least
+   * recently used cache, which holds at most randomAccessCacheBlocks *
+   * randomAccessBlockSize bytes.
+   *
+   * @param randomAccessCacheBlocks The number of blocks, must be positive
+   */
+  public void setRandomAccessCacheBlocks(int randomAccessCacheBlocks) {
+    Preconditions.checkArgument(randomAccessCacheBlocks > 0,
+        "cache blocks should be positive, got " + randomAccessCacheBlocks);
+    this.randomAccessCacheBlocks = randomAccessCacheBlocks;
+  }
+
+  /**
+   * Returns the max number of unrequested bytes between two ranges which a
+   * vectored read fetches with a single request.
+   *
+   * @return The coalesce gap in bytes
+   */
+  public long getRangeCoalesceGap() {
+    return rangeCoalesceGap;
+  }
+
+  /**
+   * Sets the max number of unrequested bytes between two ranges which a
+   * vectored read fetches with a single request, the bytes of the gap are
+   * downloaded and dropped. Zero only merges adjacent or overlapping ranges.
+   *
+   * @param rangeCoalesceGap The gap in bytes, must not be negative
+   */
+  public void setRangeCoalesceGap(long rangeCoalesceGap) {
+    Preconditions.checkArgument(rangeCoalesceGap >= 0,
+        "gap should not be negative, got " + rangeCoalesceGap);
+    this.rangeCoalesceGap = rangeCoalesceGap;
+  }
+
+  /**
+   * Returns the max number of times the content stream of an object
+   * reconnects after a read error.
+   *
+   * @return The number of reconnections, zero if disabled
+   */
+  public int getObjectReadRetries() {
+    return objectReadRetries;
+  }
+
+  /**
+   * Sets the max number of times the content stream of an object reconnects
+   * after a read error. A stream reconnects with a ranged request starting
+   * at the first byte not read yet, and fails if the object was modified in
+   * the meantime.
+   *
+   * @param objectReadRetries The number of reconnections, zero disables them
+   */
+  public void setObjectReadRetries(int objectReadRetries) {
+    Preconditions.checkArgument(objectReadRetries >= 0,
+        "retries should not be negative, got " + objectReadRetries);
+    this.objectReadRetries = objectReadRetries;
+  }
 }
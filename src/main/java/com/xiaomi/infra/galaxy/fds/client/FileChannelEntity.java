@@ -0,0 +1,116 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Request entity backed by a region of a local file. The region is read
+ * with positional reads of a {@link FileChannel} into large pooled buffers
+ * which are written straight to the connection, so no intermediate stream
+ * buffers are involved. The content length is known up front and the
+ * entity is repeatable, which lets failed requests be retried.
+ */
+class FileChannelEntity extends AbstractHttpEntity {
+
+  static final int BUFFER_SIZE = 256 * 1024;
+
+  private static final int MAX_POOLED_BUFFERS = 32;
+
+  private static final BlockingQueue<byte[]> BUFFER_POOL =
+      new ArrayBlockingQueue<byte[]>(MAX_POOLED_BUFFERS);
+
+  private final File file;
+  private final long offset;
+  private final long length;
+
+  FileChannelEntity(File file, ContentType contentType) {
+    this(file, 0, file.length(), contentType);
+  }
+
+  FileChannelEntity(File file, long offset, long length,
+      ContentType contentType) {
+    Preconditions.checkNotNull(file);
+    Preconditions.checkArgument(offset >= 0 && length >= 0,
+        "invalid file region, offset=" + offset + ", length=" + length);
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    if (contentType != null) {
+      setContentType(contentType.toString());
+    }
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return length;
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    stream.getChannel().position(offset);
+    return ByteStreams.limit(stream, length);
+  }
+
+  @Override
+  public void writeTo(OutputStream outstream) throws IOException {
+    Preconditions.checkNotNull(outstream);
+    FileInputStream stream = new FileInputStream(file);
+    byte[] buffer = borrowBuffer();
+    try {
+      FileChannel channel = stream.getChannel();
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+      long position = offset;
+      long remaining = length;
+      while (remaining > 0) {
+        byteBuffer.clear();
+        if (remaining < byteBuffer.capacity()) {
+          byteBuffer.limit((int) remaining);
+        }
+        int read = channel.read(byteBuffer, position);
+        if (read < 0) {
+          throw new IOException("file " + file.getName() +
+              " truncated during upload, " + remaining + " bytes missing");
+        }
+        outstream.write(buffer, 0, read);
+        position += read;
+        remaining -= read;
+      }
+      outstream.flush();
+    } finally {
+      returnBuffer(buffer);
+      stream.close();
+    }
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  static byte[] borrowBuffer() {
+    byte[] buffer = BUFFER_POOL.poll();
+    return buffer != null ? buffer : new byte[BUFFER_SIZE];
+  }
+
+  static void returnBuffer(byte[] buffer) {
+    BUFFER_POOL.offer(buffer);
+  }
+}
@@ -0,0 +1,427 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.xiaomi.infra.galaxy.fds.SubResource;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSBucket;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
+import com.xiaomi.infra.galaxy.fds.model.AccessControlList;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+import com.xiaomi.infra.galaxy.fds.model.HttpMethod;
+import com.xiaomi.infra.galaxy.fds.result.InitMultipartUploadResult;
+import com.xiaomi.infra.galaxy.fds.result.PutObjectResult;
+import com.xiaomi.infra.galaxy.fds.result.QuotaPolicy;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResultList;
+
+/**
+ * A {@link GalaxyFDS} forwarding all its calls to another one. Subclasses
+ * override the calls they decorate, such as caching or retrying, and keep
+ * the behavior of all the others.
+ */
+public abstract class ForwardingGalaxyFDS implements GalaxyFDS {
+
+  /**
+   * Returns the client the calls are forwarded to.
+   */
+  protected abstract GalaxyFDS delegate();
+
+  @Override
+  public List<FDSBucket> listBuckets() throws GalaxyFDSClientException {
+    return delegate().listBuckets();
+  }
+
+  @Override
+  public List<FDSBucket> listAuthorizedBuckets()
+      throws GalaxyFDSClientException {
+    return delegate().listAuthorizedBuckets();
+  }
+
+  @Override
+  public void createBucket(String bucketName) throws GalaxyFDSClientException {
+    delegate().createBucket(bucketName);
+  }
+
+  @Override
+  public void createBucketUnderOrg(String org, String bucketName)
+      throws GalaxyFDSClientException {
+    delegate().createBucketUnderOrg(org, bucketName);
+  }
+
+  @Override
+  public void deleteBucket(String bucketName) throws GalaxyFDSClientException {
+    delegate().deleteBucket(bucketName);
+  }
+
+  @Override
+  public void getBucket(String bucketName) throws GalaxyFDSClientException {
+    delegate().getBucket(bucketName);
+  }
+
+  @Override
+  public boolean doesBucketExist(String bucketName)
+      throws GalaxyFDSClientException {
+    return delegate().doesBucketExist(bucketName);
+  }
+
+  @Override
+  public AccessControlList getBucketAcl(String bucketName)
+      throws GalaxyFDSClientException {
+    return delegate().getBucketAcl(bucketName);
+  }
+
+  @Override
+  public void setBucketAcl(String bucketName, AccessControlList acl)
+      throws GalaxyFDSClientException {
+    delegate().setBucketAcl(bucketName, acl);
+  }
+
+  @Override
+  public QuotaPolicy getBucketQuota(String bucketName)
+      throws GalaxyFDSClientException {
+    return delegate().getBucketQuota(bucketName);
+  }
+
+  @Override
+  public void setBucketQuota(String bucketName, QuotaPolicy quotaPolicy)
+      throws GalaxyFDSClientException {
+    delegate().setBucketQuota(bucketName, quotaPolicy);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName)
+      throws GalaxyFDSClientException {
+    return delegate().listObjects(bucketName);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix)
+      throws GalaxyFDSClientException {
+    return delegate().listObjects(bucketName, prefix);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter) throws GalaxyFDSClientException {
+    return delegate().listObjects(bucketName, prefix, delimiter);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter, int maxKeys) throws GalaxyFDSClientException {
+    return delegate().listObjects(bucketName, prefix, delimiter, maxKeys);
+  }
+
+  @Override
+  public FDSObjectListing listTrashObjects(String prefix,
+      String delimiter) throws GalaxyFDSClientException {
+    return delegate().listTrashObjects(prefix, delimiter);
+  }
+
+  @Override
+  public FDSObjectListing listNextBatchOfObjects(
+      FDSObjectListing previousObjectListing) throws GalaxyFDSClientException {
+    return delegate().listNextBatchOfObjects(previousObjectListing);
+  }
+
+  @Override
+  public FDSObjectListing visitObjects(String bucketName, String prefix,
+      String delimiter, FDSObjectFilter filter, FDSObjectVisitor visitor)
+      throws GalaxyFDSClientException {
+    return delegate().visitObjects(bucketName, prefix, delimiter, filter,
+        visitor);
+  }
+
+  @Override
+  public FDSObjectListing visitNextBatchOfObjects(
+      FDSObjectListing previousObjectListing, FDSObjectFilter filter,
+      FDSObjectVisitor visitor) throws GalaxyFDSClientException {
+    return delegate().visitNextBatchOfObjects(previousObjectListing, filter,
+        visitor);
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      File file) throws GalaxyFDSClientException {
+    return delegate().putObject(bucketName, objectName, file);
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      InputStream input, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    return delegate().putObject(bucketName, objectName, input, metadata);
+  }
+
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return delegate().openForWrite(bucketName, objectName);
+  }
+
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    return delegate().openForWrite(bucketName, objectName, metadata);
+  }
+
+  @Override
+  public PutObjectResult postObject(String bucketName, File file)
+      throws GalaxyFDSClientException {
+    return delegate().postObject(bucketName, file);
+  }
+
+  @Override
+  public PutObjectResult postObject(String bucketName, InputStream input,
+      FDSObjectMetadata metadata) throws GalaxyFDSClientException {
+    return delegate().postObject(bucketName, input, metadata);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    return delegate().getObject(bucketName, objectName);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName,
+      long pos) throws GalaxyFDSClientException {
+    return delegate().getObject(bucketName, objectName, pos);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos,
+      long length) throws GalaxyFDSClientException {
+    return delegate().getObject(bucketName, objectName, pos, length);
+  }
+
+  @Override
+  public FDSObject getObjectIfModifiedSince(String bucketName,
+      String objectName, Date ifModifiedSince) throws GalaxyFDSClientException {
+    return delegate().getObjectIfModifiedSince(bucketName, objectName,
+        ifModifiedSince);
+  }
+
+  @Override
+  public FDSObjectMetadata getObjectMetadata(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return delegate().getObjectMetadata(bucketName, objectName);
+  }
+
+  @Override
+  public AccessControlList getObjectAcl(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return delegate().getObjectAcl(bucketName, objectName);
+  }
+
+  @Override
+  public void setObjectAcl(String bucketName, String objectName,
+      AccessControlList acl) throws GalaxyFDSClientException {
+    delegate().setObjectAcl(bucketName, objectName, acl);
+  }
+
+  @Override
+  public void deleteObjectAcl(String bucketName, String objectName,
+      AccessControlList acl) throws GalaxyFDSClientException {
+    delegate().deleteObjectAcl(bucketName, objectName, acl);
+  }
+
+  @Override
+  public boolean doesObjectExist(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    return delegate().doesObjectExist(bucketName, objectName);
+  }
+
+  @Override
+  public void deleteObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    delegate().deleteObject(bucketName, objectName);
+  }
+
+  @Override
+  public List<Map<String, Object>> deleteObjects(String bucketName,
+      String prefix) throws GalaxyFDSClientException {
+    return delegate().deleteObjects(bucketName, prefix);
+  }
+
+  @Override
+  public List<Map<String, Object>> deleteObjects(String bucketName,
+      List<String> objectNameList) throws GalaxyFDSClientException {
+    return delegate().deleteObjects(bucketName, objectNameList);
+  }
+
+  @Override
+  public void restoreObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    delegate().restoreObject(bucketName, objectName);
+  }
+
+  @Override
+  public void renameObject(String bucketName, String srcObjectName,
+      String dstObjectName) throws GalaxyFDSClientException {
+    delegate().renameObject(bucketName, srcObjectName, dstObjectName);
+  }
+
+  @Override
+  public void prefetchObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    delegate().prefetchObject(bucketName, objectName);
+  }
+
+  @Override
+  public void refreshObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    delegate().refreshObject(bucketName, objectName);
+  }
+
+  @Override
+  public void putDomainMapping(String bucketName, String domainName)
+      throws GalaxyFDSClientException {
+    delegate().putDomainMapping(bucketName, domainName);
+  }
+
+  @Override
+  public List<String> listDomainMappings(String bucketName)
+      throws GalaxyFDSClientException {
+    return delegate().listDomainMappings(bucketName);
+  }
+
+  @Override
+  public void deleteDomainMapping(String bucketName, String domainName)
+      throws GalaxyFDSClientException {
+    delegate().deleteDomainMapping(bucketName, domainName);
+  }
+
+  @Override
+  public void cropImage(String bucketName, String objectName, int x, int y,
+      int w, int h) throws GalaxyFDSClientException {
+    delegate().cropImage(bucketName, objectName, x, y, w, h);
+  }
+
+  @Override
+  public void setPublic(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    delegate().setPublic(bucketName, objectName);
+  }
+
+  @Override
+  public URI generateDownloadObjectUri(String bucketName,
+      String ObjectName) throws GalaxyFDSClientException {
+    return delegate().generateDownloadObjectUri(bucketName, ObjectName);
+  }
+
+  @Override
+  public URI generatePresignedUri(String bucketName, String objectName,
+      Date expiration) throws GalaxyFDSClientException {
+    return delegate().generatePresignedUri(bucketName, objectName, expiration);
+  }
+
+  @Override
+  public URI generatePresignedCdnUri(String bucketName, String objectName,
+      Date expiration) throws GalaxyFDSClientException {
+    return delegate().generatePresignedCdnUri(bucketName, objectName,
+        expiration);
+  }
+
+  @Override
+  public URI generatePresignedUri(String bucketName, String objectName,
+      Date expiration, HttpMethod httpMethod) throws GalaxyFDSClientException {
+    return delegate().generatePresignedUri(bucketName, objectName, expiration,
+        httpMethod);
+  }
+
+  @Override
+  public URI generatePresignedCdnUri(String bucketName, String objectName,
+      Date expiration, HttpMethod httpMethod) throws GalaxyFDSClientException {
+    return delegate().generatePresignedCdnUri(bucketName, objectName,
+        expiration, httpMethod);
+  }
+
+  @Override
+  public URI generatePresignedUri(String bucketName, String objectName,
+      SubResource subResource, Date expiration, HttpMethod httpMethod)
+      throws GalaxyFDSClientException {
+    return delegate().generatePresignedUri(bucketName, objectName,
+        subResource, expiration, httpMethod);
+  }
+
+  @Override
+  public URI generatePresignedUri(String bucketName, String objectName,
+      List<String> subResources, Date expiration, HttpMethod httpMethod)
+      throws GalaxyFDSClientException {
+    return delegate().generatePresignedUri(bucketName, objectName,
+        subResources, expiration, httpMethod);
+  }
+
+  @Override
+  public URI generatePresignedUri(String bucketName, String objectName,
+      List<String> subResources, Date expiration, HttpMethod httpMethod,
+      String contentType) throws GalaxyFDSClientException {
+    return delegate().generatePresignedUri(bucketName, objectName,
+        subResources, expiration, httpMethod, contentType);
+  }
+
+  @Override
+  public URI generatePresignedCdnUri(String bucketName, String objectName,
+      SubResource subResource, Date expiration, HttpMethod httpMethod)
+      throws GalaxyFDSClientException {
+    return delegate().generatePresignedCdnUri(bucketName, objectName,
+        subResource, expiration, httpMethod);
+  }
+
+  @Override
+  public URI generatePresignedCdnUri(String bucketName, String objectName,
+      List<String> subResources, Date expiration, HttpMethod httpMethod)
+      throws GalaxyFDSClientException {
+    return delegate().generatePresignedCdnUri(bucketName, objectName,
+        subResources, expiration, httpMethod);
+  }
+
+  @Override
+  public InitMultipartUploadResult initMultipartUpload(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return delegate().initMultipartUpload(bucketName, objectName);
+  }
+
+  @Override
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, InputStream in)
+      throws GalaxyFDSClientException {
+    return delegate().uploadPart(bucketName, objectName, uploadId, partNumber,
+        in);
+  }
+
+  @Override
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, File file, long offset,
+      long length) throws GalaxyFDSClientException {
+    return delegate().uploadPart(bucketName, objectName, uploadId, partNumber,
+        file, offset, length);
+  }
+
+  @Override
+  public PutObjectResult completeMultipartUpload(String bucketName,
+      String objectName, String uploadId, FDSObjectMetadata metadata,
+      UploadPartResultList uploadPartResultList)
+      throws GalaxyFDSClientException {
+    return delegate().completeMultipartUpload(bucketName, objectName,
+        uploadId, metadata, uploadPartResultList);
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucketName, String objectName,
+      String uploadId) throws GalaxyFDSClientException {
+    delegate().abortMultipartUpload(bucketName, objectName, uploadId);
+  }
+}
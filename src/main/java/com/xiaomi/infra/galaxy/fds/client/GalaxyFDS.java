@@ -9,9 +9,12 @@ import java.util.Map;
 
 import com.xiaomi.infra.galaxy.fds.SubResource;
 import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSBucket;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
 import com.xiaomi.infra.galaxy.fds.model.AccessControlList;
 import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
 import com.xiaomi.infra.galaxy.fds.model.HttpMethod;
@@ -173,6 +176,24 @@ public interface GalaxyFDS {
   public FDSObjectListing listObjects(String bucketName, String prefix,
       String delimiter) throws GalaxyFDSClientException;
 
+  /**
+   * Returns a list of summary information about the objects in the specified
+   * fds bucket, at most the specified number of them per page. The following
+   * pages requested with {@link #listNextBatchOfObjects(FDSObjectListing)}
+   * keep the page size of the listing they continue, set its max keys to
+   * change it.
+   *
+   * @param bucketName The name of the bucket to list
+   * @param prefix     An optional parameter restricting the response to keys
+   *                   beginning with the specified prefix.
+   * @param delimiter  delimiter to separate path
+   * @param maxKeys    The max number of keys and common prefixes per page
+   * @return A listing of the objects in the specified bucket
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter, int maxKeys) throws GalaxyFDSClientException;
+
   /**
    * Returns a list of summary information about the objects in the trash.
    * @param prefix An optional parameter restricting the response to keys
@@ -197,6 +218,44 @@ public interface GalaxyFDS {
   public FDSObjectListing listNextBatchOfObjects(
       FDSObjectListing previousObjectListing) throws GalaxyFDSClientException;
 
+  /**
+   * Lists the first page of the objects in the specified fds bucket, handing
+   * each object to the visitor as the response is parsed instead of building
+   * the whole page. Objects rejected by the filter are skipped before their
+   * summaries are built.
+   *
+   * @param bucketName The name of the bucket to list
+   * @param prefix     An optional parameter restricting the response to keys
+   *                   beginning with the specified prefix.
+   * @param delimiter  delimiter to separate path
+   * @param filter     The filter of the objects, null to accept all of them
+   * @param visitor    Receives the accepted objects and the common prefixes
+   * @return The listing to continue with
+   *         {@link #visitNextBatchOfObjects(FDSObjectListing, FDSObjectFilter,
+   *         FDSObjectVisitor)}, without objects nor common prefixes
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObjectListing visitObjects(String bucketName, String prefix,
+      String delimiter, FDSObjectFilter filter, FDSObjectVisitor visitor)
+      throws GalaxyFDSClientException;
+
+  /**
+   * Lists the page following a truncated listing, handing each object to the
+   * visitor as the response is parsed.
+   *
+   * @param previousObjectListing The previous truncated ObjectListing
+   * @param filter                The filter of the objects, null to accept
+   *                              all of them
+   * @param visitor               Receives the accepted objects and the common
+   *                              prefixes
+   * @return The listing to continue with, without objects nor common
+   *         prefixes, or null if the previous one is complete
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObjectListing visitNextBatchOfObjects(
+      FDSObjectListing previousObjectListing, FDSObjectFilter filter,
+      FDSObjectVisitor visitor) throws GalaxyFDSClientException;
+
   /**
    * Uploads the specified file to galaxy fds with the specified object name
    * under the specified bucket.
@@ -228,6 +287,36 @@ public interface GalaxyFDS {
       InputStream input, FDSObjectMetadata metadata)
       throws GalaxyFDSClientException;
 
+  /**
+   * Opens a stream writing an object without additional metadata, see
+   * {@link #openForWrite(String, String, FDSObjectMetadata)}.
+   */
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName) throws GalaxyFDSClientException;
+
+  /**
+   * Opens a stream writing an object to galaxy fds with the specified object
+   * name under the specified bucket. Full parts of the written data are
+   * uploaded in the background with a multipart upload, and the object is
+   * created when the stream is closed. Small objects are uploaded with a
+   * single put request on close.
+   *
+   * The streams of a client share its upload threads and its
+   * {@link FDSClientConfiguration#getUploadBufferNumber()} part buffers, an
+   * open stream holds one of the buffers until it is closed or aborted.
+   *
+   * @param bucketName The name of the bucket to put the object
+   * @param objectName The name of the object to put
+   * @param metadata   Additional metadata instructing fds how to handle the
+   *                   uploaded data, may be null
+   * @return The stream to write the data of the object to
+   * @throws GalaxyFDSClientException if as many streams as part buffers are
+   *                                   already open
+   */
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException;
+
   /**
    * Uploads the specified file to a galaxy fds bucket, an unique object name
    * will be returned after successfully uploading.
@@ -281,6 +370,39 @@ public interface GalaxyFDS {
   public FDSObject getObject(String bucketName, String objectName, long pos)
       throws GalaxyFDSClientException;
 
+  /**
+   * Gets a byte range of the object stored in galaxy fds with the specified
+   * name under the specified bucket.
+   *
+   * @param bucketName The name of the bucket where the object stores
+   * @param objectName The name of the object to get
+   * @param pos        The position to start read
+   * @param length     The number of bytes to read, the range is truncated
+   *                   at the end of the object; a negative length reads to
+   *                   the end of the object
+   * @return The object stored in galaxy fds under the specifed bucket, whose
+   *         content holds the requested range
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObject getObject(String bucketName, String objectName, long pos,
+      long length) throws GalaxyFDSClientException;
+
+  /**
+   * Gets the object stored in galaxy fds with the specified name under the
+   * specified bucket, only if it has been modified since the specified time.
+   *
+   * @param bucketName      The name of the bucket where the object stores
+   * @param objectName      The name of the object to get
+   * @param ifModifiedSince The last modified time of the copy held by the
+   *                        caller
+   * @return The object stored in galaxy fds under the specifed bucket, or
+   *         null if the object has not been modified since
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObject getObjectIfModifiedSince(String bucketName,
+      String objectName, Date ifModifiedSince)
+      throws GalaxyFDSClientException;
+
   /**
    * Gets the meta information of object with the specified name under the
    * specified bucket.
@@ -644,6 +766,24 @@ public interface GalaxyFDS {
       String uploadId, int partNumber, InputStream in)
       throws GalaxyFDSClientException;
 
+  /**
+   * Upload a part whose content is a region of a local file. The region is
+   * served from a read-only memory mapping of the file, so concurrent parts
+   * of the same file share the page cache.
+   * @param bucketName
+   * @param objectName
+   * @param uploadId
+   * @param partNumber The part number of this part.
+   * @param file       The file containing the part
+   * @param offset     The offset of the part in the file
+   * @param length     The length of the part
+   * @return A UploadPartResult which contains the part's ETag.
+   * @throws GalaxyFDSClientException
+   */
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, File file, long offset, long length)
+      throws GalaxyFDSClientException;
+
   /**
    * Complete the multipart upload.
    * @param bucketName
@@ -25,16 +25,20 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.net.ssl.SSLContext;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.LinkedListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
@@ -45,6 +49,7 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
@@ -77,15 +82,21 @@ import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
 import com.xiaomi.infra.galaxy.fds.client.filter.FDSClientLogFilter;
 import com.xiaomi.infra.galaxy.fds.client.filter.MetricsRequestFilter;
 import com.xiaomi.infra.galaxy.fds.client.filter.MetricsResponseFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
 import com.xiaomi.infra.galaxy.fds.client.metrics.ClientMetrics;
 import com.xiaomi.infra.galaxy.fds.client.metrics.MetricsCollector;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSBucket;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSMd5InputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSMd5VerifyingInputStream;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectInputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.ResilientFDSObjectInputStream;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
 import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
 import com.xiaomi.infra.galaxy.fds.client.model.Owner;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
+import com.xiaomi.infra.galaxy.fds.client.transfer.PartBufferPool;
 import com.xiaomi.infra.galaxy.fds.model.AccessControlList;
 import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
 import com.xiaomi.infra.galaxy.fds.model.HttpMethod;
@@ -111,7 +122,13 @@ public class GalaxyFDSClient implements GalaxyFDS {
   private final String clientId = UUID.randomUUID().toString().substring(0, 8);
   private HttpClient httpClient;
   private FDSClientLogFilter logFilter = new FDSClientLogFilter();
+  private final DownloadRouter downloadRouter = new DownloadRouter();
   private PoolingHttpClientConnectionManager connectionManager;
+  // Upload threads and part buffers shared by the streams of openForWrite,
+  // created by the first one
+  private ExecutorService uploadExecutor;
+  private PartBufferPool uploadBufferPool;
+  private boolean uploadShutdown;
 
   // TODO(wuzesheng) Make the authenticator configurable and let the
   // authenticator supply sign algorithm and generate signature
@@ -554,10 +571,30 @@ public class GalaxyFDSClient implements GalaxyFDS {
   @Override
   public FDSObjectListing listObjects(String bucketName, String prefix,
       String delimiter) throws GalaxyFDSClientException {
+    return doListObjects(bucketName, prefix, delimiter, null);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter, int maxKeys) throws GalaxyFDSClientException {
+    Preconditions.checkArgument(maxKeys > 0,
+        "max keys should be positive, got " + maxKeys);
+    return doListObjects(bucketName, prefix, delimiter, maxKeys);
+  }
+
+  /**
+   * Lists the first page of objects, the server chooses the page size when
+   * max keys is null.
+   */
+  private FDSObjectListing doListObjects(String bucketName, String prefix,
+      String delimiter, Integer maxKeys) throws GalaxyFDSClientException {
     URI uri = formatUri(fdsConfig.getBaseUri(), bucketName, (SubResource[]) null);
     HashMap<String, String> params = new HashMap<String, String>();
     params.put("prefix", prefix);
     params.put("delimiter", delimiter);
+    if (maxKeys != null) {
+      params.put("maxKeys", maxKeys.toString());
+    }
     HttpUriRequest httpRequest = prepareRequestMethod(uri, HttpMethod.GET, null, null, params, null, null);
 
     HttpResponse response = executeHttpRequest(httpRequest, Action.ListObjects);
@@ -603,9 +640,82 @@ public class GalaxyFDSClient implements GalaxyFDS {
     return getObjectListing(listObjectsResult);
   }
 
+  @Override
+  public FDSObjectListing visitObjects(String bucketName, String prefix,
+      String delimiter, FDSObjectFilter filter, FDSObjectVisitor visitor)
+      throws GalaxyFDSClientException {
+    HashMap<String, String> params = new HashMap<String, String>();
+    params.put("prefix", prefix);
+    params.put("delimiter", delimiter);
+    return visitListResponse(bucketName, params, filter, visitor,
+        "visit objects under bucket [" + bucketName + "] with prefix [" +
+            prefix + "]");
+  }
+
+  @Override
+  public FDSObjectListing visitNextBatchOfObjects(
+      FDSObjectListing previousObjectListing, FDSObjectFilter filter,
+      FDSObjectVisitor visitor) throws GalaxyFDSClientException {
+    if (!previousObjectListing.isTruncated()) {
+      LOG.warn("The previous listing is complete, call of " +
+          "visitNextBatchOfObjects() will be ignored");
+      return null;
+    }
+
+    String bucketName = previousObjectListing.getBucketName();
+    String prefix = previousObjectListing.getPrefix();
+    String marker = previousObjectListing.getNextMarker();
+    HashMap<String, String> params = new HashMap<String, String>();
+    params.put("prefix", prefix);
+    params.put("delimiter", previousObjectListing.getDelimiter());
+    params.put("marker", marker);
+    params.put("maxKeys", Integer.toString(previousObjectListing.getMaxKeys()));
+    return visitListResponse(bucketName, params, filter, visitor,
+        "visit next batch of objects under bucket [" + bucketName + "]" +
+            " with prefix [" + prefix + "], marker [" + marker + "]");
+  }
+
+  /**
+   * Sends a list objects request and parses its response as a stream, see
+   * {@link StreamingListingParser}.
+   */
+  private FDSObjectListing visitListResponse(String bucketName,
+      HashMap<String, String> params, FDSObjectFilter filter,
+      FDSObjectVisitor visitor, String purposeStr)
+      throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(visitor);
+    URI uri = formatUri(fdsConfig.getBaseUri(), bucketName, (SubResource[]) null);
+    HttpUriRequest httpRequest = prepareRequestMethod(uri, HttpMethod.GET, null, null, params, null, null);
+
+    HttpResponse response = executeHttpRequest(httpRequest, Action.ListObjects);
+    int statusCode = response.getStatusLine().getStatusCode();
+    try {
+      if (statusCode != HttpStatus.SC_OK) {
+        String errorMsg = formatErrorMsg(purposeStr, response);
+        LOG.error(errorMsg);
+        throw new GalaxyFDSClientException(errorMsg);
+      }
+      Reader reader = new InputStreamReader(response.getEntity().getContent());
+      return StreamingListingParser.parse(reader, bucketName, filter, visitor);
+    } catch (IOException e) {
+      String errorMsg = formatErrorMsg("read response entity", e);
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg, e);
+    } finally {
+      closeResponseEntity(response);
+    }
+  }
+
   @Override
   public PutObjectResult putObject(String bucketName, String objectName,
       File file) throws GalaxyFDSClientException {
+    if (!fdsConfig.isMd5CalculateEnabled()) {
+      checkFileExists(file);
+      ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
+      return putObject(bucketName, objectName,
+          new FileChannelEntity(file, contentType), contentType, null);
+    }
+
     FileInputStream stream = null;
     try {
       stream = new FileInputStream(file);
@@ -637,9 +747,16 @@ public class GalaxyFDSClient implements GalaxyFDS {
         throw new GalaxyFDSClientException("Cannot init md5", e);
       }
     }
+    InputStreamEntity requestEntity = getInputStreamRequestEntity(input, contentType, contentLength);
+    return putObject(bucketName, objectName, requestEntity, contentType,
+        metadata);
+  }
+
+  private PutObjectResult putObject(String bucketName, String objectName,
+      HttpEntity requestEntity, ContentType contentType,
+      FDSObjectMetadata metadata) throws GalaxyFDSClientException {
     URI uri = formatUri(fdsConfig.getUploadBaseUri(), bucketName + "/"
         + objectName, (SubResource[]) null);
-    InputStreamEntity requestEntity = getInputStreamRequestEntity(input, contentType, contentLength);
 
     HttpUriRequest httpRequest = prepareRequestMethod(uri,
         HttpMethod.PUT, contentType, metadata, null, null, requestEntity);
@@ -659,6 +776,55 @@ public class GalaxyFDSClient implements GalaxyFDS {
     return putObject(bucketName, objectName, input, -1, metadata);
   }
 
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return openForWrite(bucketName, objectName, null);
+  }
+
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    synchronized (this) {
+      if (uploadShutdown) {
+        throw new GalaxyFDSClientException("fail to open object [" +
+            objectName + "] of bucket [" + bucketName + "] for write, " +
+            "client shut down");
+      }
+      if (uploadExecutor == null) {
+        uploadExecutor = Executors.newFixedThreadPool(
+            fdsConfig.getMaxTransferThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("fds-object-output-stream-%d")
+                .setDaemon(true)
+                .build());
+        uploadBufferPool = new PartBufferPool(
+            (int) Math.min(fdsConfig.getUploadPartSize(), Integer.MAX_VALUE),
+            fdsConfig.getUploadBufferNumber());
+      }
+    }
+    try {
+      return new FDSObjectOutputStream(this, bucketName, objectName, metadata,
+          uploadExecutor, uploadBufferPool);
+    } catch (IllegalStateException e) {
+      throw new GalaxyFDSClientException("fail to open object [" +
+          objectName + "] of bucket [" + bucketName + "] for write", e);
+    }
+  }
+
+  /**
+   * Shuts down the threads uploading the parts of the streams opened by
+   * {@link #openForWrite(String, String, FDSObjectMetadata)}. The parts
+   * already submitted are still uploaded, but no stream can be opened once
+   * the client is shut down. The other calls are not affected.
+   */
+  public synchronized void shutdown() {
+    uploadShutdown = true;
+    if (uploadExecutor != null) {
+      uploadExecutor.shutdown();
+    }
+  }
+
   private PutObjectResult postObject(String bucketName, InputStream input,
       long contentLen, FDSObjectMetadata metadata) throws GalaxyFDSClientException {
     ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
@@ -676,9 +842,15 @@ public class GalaxyFDSClient implements GalaxyFDS {
         throw new GalaxyFDSClientException("Cannot init md5", e);
       }
     }
+    InputStreamEntity requestEntity = getInputStreamRequestEntity(input, contentType, contentLen);
+    return postObject(bucketName, requestEntity, contentType, metadata);
+  }
+
+  private PutObjectResult postObject(String bucketName,
+      HttpEntity requestEntity, ContentType contentType,
+      FDSObjectMetadata metadata) throws GalaxyFDSClientException {
     URI uri = formatUri(fdsConfig.getUploadBaseUri(), bucketName + "/",
         (SubResource[]) null);
-    InputStreamEntity requestEntity = getInputStreamRequestEntity(input, contentType, contentLen);
     HttpUriRequest httpRequest = prepareRequestMethod(uri,
         HttpMethod.POST, contentType, metadata, null, null, requestEntity);
 
@@ -693,6 +865,13 @@ public class GalaxyFDSClient implements GalaxyFDS {
   @Override
   public PutObjectResult postObject(String bucketName, File file)
       throws GalaxyFDSClientException {
+    if (!fdsConfig.isMd5CalculateEnabled()) {
+      checkFileExists(file);
+      ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
+      return postObject(bucketName, new FileChannelEntity(file, contentType),
+          contentType, null);
+    }
+
     FileInputStream stream = null;
     try {
       stream = new FileInputStream(file);
@@ -722,41 +901,117 @@ public class GalaxyFDSClient implements GalaxyFDS {
   @Override
   public FDSObject getObject(String bucketName, String objectName, long pos)
       throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, pos, -1);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos,
+      long length) throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, pos, length, null, true);
+  }
+
+  @Override
+  public FDSObject getObjectIfModifiedSince(String bucketName,
+      String objectName, Date ifModifiedSince)
+      throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(ifModifiedSince);
+    return getObject(bucketName, objectName, 0, -1, ifModifiedSince, true);
+  }
+
+  /**
+   * Returns null if a modification time is specified and the object has not
+   * been modified since. A resilient request wraps the content in a stream
+   * which reconnects on read errors when enabled by the configuration.
+   */
+  private FDSObject getObject(String bucketName, String objectName, long pos,
+      long length, Date ifModifiedSince, boolean resilient)
+      throws GalaxyFDSClientException {
     if (pos < 0) {
       String errorMsg = "get object " + objectName + " from bucket "
           + bucketName + " failed, reason=invalid seek position:" + pos;
       LOG.error(errorMsg);
       throw new GalaxyFDSClientException(errorMsg);
     }
-    URI uri = formatUri(fdsConfig.getDownloadBaseUri(), bucketName + "/"
+    if (length == 0) {
+      String errorMsg = "get object " + objectName + " from bucket "
+          + bucketName + " failed, reason=empty range at position:" + pos;
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg);
+    }
+    boolean routed = fdsConfig.isAdaptiveDownloadRoutingEnabled() &&
+        !fdsConfig.getCdnBaseUri().equals(fdsConfig.getBaseUri());
+    boolean useCdn = routed ? downloadRouter.chooseCdn(length) :
+        fdsConfig.isCdnEnabledForDownload();
+    URI uri = formatUri(fdsConfig.buildBaseUri(useCdn), bucketName + "/"
         + objectName, (SubResource[]) null);
     Map<String, List<Object>> headers = new HashMap<String, List<Object>>();
-    if (pos > 0) {
+    if (pos > 0 || length > 0) {
       List<Object> objects = new ArrayList<Object>();
-      objects.add("bytes=" + pos + "-");
+      objects.add("bytes=" + pos + "-" + (length > 0 ? pos + length - 1 : ""));
       headers.put(Common.RANGE, objects);
     }
+    if (ifModifiedSince != null) {
+      List<Object> objects = new ArrayList<Object>();
+      objects.add(DateUtils.formatDate(ifModifiedSince));
+      headers.put(HttpHeaders.IF_MODIFIED_SINCE, objects);
+    }
     HttpUriRequest httpRequest = prepareRequestMethod(uri, HttpMethod.GET, null, null, null, headers, null);
 
-    HttpResponse response = executeHttpRequest(httpRequest, Action.GetObject);
+    long startTime = System.nanoTime();
+    HttpResponse response;
+    try {
+      response = executeHttpRequest(httpRequest, Action.GetObject);
+    } catch (GalaxyFDSClientException e) {
+      if (routed) {
+        downloadRouter.recordFailure(useCdn, System.nanoTime() - startTime);
+      }
+      throw e;
+    }
+    if (routed) {
+      // Only content answers measure the endpoint, errors of the endpoint
+      // count as slow answers and client errors do not count
+      int statusCode = response.getStatusLine().getStatusCode();
+      long nanos = System.nanoTime() - startTime;
+      if (statusCode == HttpStatus.SC_OK ||
+          statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+        downloadRouter.recordFirstByte(useCdn, nanos);
+      } else if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+        downloadRouter.recordFailure(useCdn, nanos);
+      }
+    }
 
     HttpEntity httpEntity = response.getEntity();
     FDSObject rtnObject = null;
     try {
       int statusCode = response.getStatusLine().getStatusCode();
-      if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+      if (statusCode == HttpStatus.SC_NOT_MODIFIED && ifModifiedSince != null) {
+        return null;
+      } else if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
         FDSObjectSummary summary = new FDSObjectSummary();
         summary.setBucketName(bucketName);
         summary.setObjectName(objectName);
         summary.setSize(httpEntity.getContentLength());
 
         FDSObjectInputStream stream = new FDSObjectInputStream(httpEntity);
+        if (routed) {
+          stream = new FDSObjectInputStream(downloadRouter.meter(stream,
+              useCdn));
+        }
         rtnObject = new FDSObject();
         rtnObject.setObjectSummary(summary);
         rtnObject.setObjectContent(stream);
         rtnObject.setObjectMetadata(FDSObjectMetadata.parseObjectMetadata(
             headerArray2MultiValuedMap(response.getAllHeaders())));
 
+        if (resilient && fdsConfig.getObjectReadRetries() > 0) {
+          rtnObject.setObjectContent(newResilientStream(rtnObject, bucketName,
+              objectName, pos));
+        }
+        if (resilient && pos == 0 && length < 0 &&
+            fdsConfig.isMd5VerifyEnabled()) {
+          rtnObject.setObjectContent(newVerifyingStream(rtnObject,
+              objectName));
+        }
         return rtnObject;
       } else {
         String errorMsg = formatErrorMsg("get object [" + objectName + "] from bucket [" + bucketName + "]", response);
@@ -774,6 +1029,35 @@ public class GalaxyFDSClient implements GalaxyFDS {
     }
   }
 
+  /**
+   * Wraps the content of a whole object in a stream checking its content MD5,
+   * objects without a MD5 content digest are returned as is.
+   */
+  private FDSObjectInputStream newVerifyingStream(FDSObject object,
+      String objectName) {
+    byte[] md5 = FDSMd5VerifyingInputStream.decodeContentMd5(
+        object.getObjectMetadata().getContentMD5());
+    if (md5 == null) {
+      LOG.debug("object [" + objectName + "] has no MD5 digest, skip check");
+      return object.getObjectContent();
+    }
+    return new FDSObjectInputStream(new FDSMd5VerifyingInputStream(
+        object.getObjectContent(), md5, objectName));
+  }
+
+  private FDSObjectInputStream newResilientStream(FDSObject object,
+      final String bucketName, final String objectName, long pos) {
+    return new ResilientFDSObjectInputStream(object, objectName, pos,
+        fdsConfig.getObjectReadRetries()) {
+      @Override
+      protected FDSObject reopen(long position, long length)
+          throws GalaxyFDSClientException {
+        return getObject(bucketName, objectName, position, length, null,
+            false);
+      }
+    };
+  }
+
   @Override
   public FDSObjectMetadata getObjectMetadata(String bucketName,
       String objectName) throws GalaxyFDSClientException {
@@ -1257,13 +1541,40 @@ public class GalaxyFDSClient implements GalaxyFDS {
   public UploadPartResult uploadPart(String bucketName, String objectName,
       String uploadId, int partNumber, InputStream in)
       throws GalaxyFDSClientException {
+    ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
+    InputStreamEntity requestEntity = getInputStreamRequestEntity(in, contentType);
+    return uploadPart(bucketName, objectName, uploadId, partNumber,
+        requestEntity, contentType);
+  }
+
+  @Override
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, File file, long offset, long length)
+      throws GalaxyFDSClientException {
+    checkFileExists(file);
+    ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
+    HttpEntity requestEntity;
+    try {
+      requestEntity = MappedByteBufferEntity.map(file, offset, length,
+          contentType);
+    } catch (IOException e) {
+      String errorMsg = formatErrorMsg("map part [" + partNumber +
+          "] of file [" + file.getName() + "]", e);
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg, e);
+    }
+    return uploadPart(bucketName, objectName, uploadId, partNumber,
+        requestEntity, contentType);
+  }
+
+  private UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, HttpEntity requestEntity,
+      ContentType contentType) throws GalaxyFDSClientException {
     URI uri = formatUri(fdsConfig.getBaseUri(), bucketName + "/" + objectName,
         null);
-    ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
     HashMap<String, String> params = new HashMap<String, String>();
     params.put("uploadId", uploadId);
     params.put("partNumber", String.valueOf(partNumber));
-    InputStreamEntity requestEntity = getInputStreamRequestEntity(in, contentType);
     HttpUriRequest httpRequest = prepareRequestMethod(uri,
         HttpMethod.PUT, contentType, null, params, null, requestEntity);
 
@@ -1284,11 +1595,13 @@ public class GalaxyFDSClient implements GalaxyFDS {
       UploadPartResultList uploadPartResultList) throws GalaxyFDSClientException {
     URI uri = formatUri(fdsConfig.getBaseUri(), bucketName + "/" + objectName,
         null);
-    ContentType contentType = ContentType.APPLICATION_OCTET_STREAM;
+    ContentType contentType = ContentType.APPLICATION_JSON;
     HashMap<String, String> params = new HashMap<String, String>();
     params.put("uploadId", uploadId);
+    StringEntity requestEntity = getJsonStringEntity(uploadPartResultList,
+        contentType);
     HttpUriRequest httpRequest = prepareRequestMethod(uri,
-        HttpMethod.PUT, contentType, metadata, params, null, null);
+        HttpMethod.PUT, contentType, metadata, params, null, requestEntity);
 
     HttpResponse response = executeHttpRequest(httpRequest,
         Action.CompleteMultiPartUpload);
@@ -1521,6 +1834,14 @@ public class GalaxyFDSClient implements GalaxyFDS {
     return msg;
   }
 
+  private void checkFileExists(File file) throws GalaxyFDSClientException {
+    if (!file.isFile()) {
+      String errorMsg = "File not found, file=" + file.getName();
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg);
+    }
+  }
+
   void closeInputStream(InputStream inputStream) throws GalaxyFDSClientException {
     if (inputStream != null) {
       try {
@@ -0,0 +1,124 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Request entity serving a region of a local file from a read-only memory
+ * mapping. Concurrent parts of the same file are served from the shared page
+ * cache, bytes are copied once from the mapping into the connection buffer.
+ */
+class MappedByteBufferEntity extends AbstractHttpEntity {
+
+  private final ByteBuffer buffer;
+
+  private MappedByteBufferEntity(ByteBuffer buffer, ContentType contentType) {
+    this.buffer = buffer;
+    if (contentType != null) {
+      setContentType(contentType.toString());
+    }
+  }
+
+  /**
+   * Maps the specified region of the file, the mapping stays valid after
+   * the file is closed and is released when the entity is garbage collected.
+   */
+  static MappedByteBufferEntity map(File file, long offset, long length,
+      ContentType contentType) throws IOException {
+    Preconditions.checkArgument(offset >= 0 && length >= 0,
+        "invalid file region, offset=" + offset + ", length=" + length);
+    Preconditions.checkArgument(length <= Integer.MAX_VALUE,
+        "region too large to map, length=" + length);
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (offset + length > raf.length()) {
+        throw new IOException("region [" + offset + ", " + (offset + length) +
+            ") exceeds length of file " + file.getName() + ": " + raf.length());
+      }
+      MappedByteBuffer buffer = raf.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, offset, length);
+      return new MappedByteBufferEntity(buffer, contentType);
+    } finally {
+      raf.close();
+    }
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return buffer.capacity();
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    return new ByteBufferInputStream(buffer.duplicate());
+  }
+
+  @Override
+  public void writeTo(OutputStream outstream) throws IOException {
+    Preconditions.checkNotNull(outstream);
+    ByteBuffer source = buffer.duplicate();
+    byte[] chunk = FileChannelEntity.borrowBuffer();
+    try {
+      while (source.hasRemaining()) {
+        int length = Math.min(chunk.length, source.remaining());
+        source.get(chunk, 0, length);
+        outstream.write(chunk, 0, length);
+      }
+      outstream.flush();
+    } finally {
+      FileChannelEntity.returnBuffer(chunk);
+    }
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return buffer.remaining();
+    }
+  }
+}
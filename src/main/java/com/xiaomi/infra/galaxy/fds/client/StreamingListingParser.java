@@ -0,0 +1,126 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.model.Owner;
+
+/**
+ * Parses a list objects response token by token. Each object is handed to
+ * the visitor as soon as it is read, and only if the filter accepts its
+ * name and size, so neither the whole page nor the rejected summaries are
+ * ever built. The returned listing holds what is needed to request the
+ * next page, without objects nor common prefixes.
+ */
+class StreamingListingParser {
+
+  private StreamingListingParser() {
+  }
+
+  /**
+   * @param reader     The content of the response
+   * @param bucketName The name of the listed bucket, set in the summaries
+   * @param filter     The filter of the objects, null to accept all of them
+   * @param visitor    Receives the accepted objects and the common prefixes
+   */
+  static FDSObjectListing parse(Reader reader, String bucketName,
+      FDSObjectFilter filter, FDSObjectVisitor visitor) throws IOException {
+    FDSObjectListing listing = new FDSObjectListing();
+    listing.setBucketName(bucketName);
+    JsonReader json = new JsonReader(reader);
+    json.beginObject();
+    while (json.hasNext()) {
+      String field = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else if (field.equals("name")) {
+        listing.setBucketName(json.nextString());
+      } else if (field.equals("prefix")) {
+        listing.setPrefix(json.nextString());
+      } else if (field.equals("delimiter")) {
+        listing.setDelimiter(json.nextString());
+      } else if (field.equals("marker")) {
+        listing.setMarker(json.nextString());
+      } else if (field.equals("nextMarker")) {
+        listing.setNextMarker(json.nextString());
+      } else if (field.equals("maxKeys")) {
+        listing.setMaxKeys(json.nextInt());
+      } else if (field.equals("truncated")) {
+        listing.setTruncated(json.nextBoolean());
+      } else if (field.equals("objects")) {
+        json.beginArray();
+        while (json.hasNext()) {
+          parseObject(json, bucketName, filter, visitor);
+        }
+        json.endArray();
+      } else if (field.equals("commonPrefixes")) {
+        json.beginArray();
+        while (json.hasNext()) {
+          visitor.visitCommonPrefix(json.nextString());
+        }
+        json.endArray();
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    listing.setObjectSummaries(Collections.<FDSObjectSummary>emptyList());
+    listing.setCommonPrefixes(Collections.<String>emptyList());
+    return listing;
+  }
+
+  private static void parseObject(JsonReader json, String bucketName,
+      FDSObjectFilter filter, FDSObjectVisitor visitor) throws IOException {
+    String name = null;
+    long size = 0;
+    String ownerId = null;
+    String ownerDisplayName = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      String field = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+      } else if (field.equals("name")) {
+        name = json.nextString();
+      } else if (field.equals("size")) {
+        size = json.nextLong();
+      } else if (field.equals("owner")) {
+        json.beginObject();
+        while (json.hasNext()) {
+          String ownerField = json.nextName();
+          if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+          } else if (ownerField.equals("id")) {
+            ownerId = json.nextString();
+          } else if (ownerField.equals("displayName")) {
+            ownerDisplayName = json.nextString();
+          } else {
+            json.skipValue();
+          }
+        }
+        json.endObject();
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+
+    if (filter != null && !filter.accept(name, size)) {
+      return;
+    }
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setBucketName(bucketName);
+    summary.setObjectName(name);
+    summary.setSize(size);
+    summary.setOwner(new Owner(ownerId, ownerDisplayName));
+    visitor.visitObject(summary);
+  }
+}
@@ -0,0 +1,173 @@
+package com.xiaomi.infra.galaxy.fds.client.cache;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.xiaomi.infra.galaxy.fds.client.ForwardingGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectInputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+import com.xiaomi.infra.galaxy.fds.result.PutObjectResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResultList;
+
+/**
+ * Base of the caching clients, drops the cached copy of an object whenever
+ * the object is written, deleted or renamed through this client. Changes
+ * made by other clients are not seen here.
+ *
+ * The copy is dropped once the write returns, whether it succeeds or not,
+ * so that a read which cached the previous version while the write was in
+ * progress does not outlive it.
+ */
+public abstract class AbstractCachingGalaxyFDS extends ForwardingGalaxyFDS {
+
+  /**
+   * Drops the cached copy of the specified object if any.
+   */
+  protected abstract void invalidate(String bucketName, String objectName);
+
+  /**
+   * Drops the cached copies of the objects whose names start with the
+   * specified prefix.
+   */
+  protected abstract void invalidatePrefix(String bucketName, String prefix);
+
+  /**
+   * Builds the object returned for a cached copy.
+   */
+  protected static FDSObject newCachedObject(String bucketName,
+      String objectName, Map<String, String> rawMetadata, long length,
+      InputStream content) {
+    FDSObjectMetadata metadata = new FDSObjectMetadata();
+    for (Map.Entry<String, String> header : rawMetadata.entrySet()) {
+      metadata.addHeader(header.getKey(), header.getValue());
+    }
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setBucketName(bucketName);
+    summary.setObjectName(objectName);
+    summary.setSize(length);
+
+    FDSObject object = new FDSObject();
+    object.setObjectSummary(summary);
+    object.setObjectMetadata(metadata);
+    object.setObjectContent(new FDSObjectInputStream(content));
+    return object;
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      File file) throws GalaxyFDSClientException {
+    try {
+      return super.putObject(bucketName, objectName, file);
+    } finally {
+      invalidate(bucketName, objectName);
+    }
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      InputStream input, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    try {
+      return super.putObject(bucketName, objectName, input, metadata);
+    } finally {
+      invalidate(bucketName, objectName);
+    }
+  }
+
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    return openForWrite(bucketName, objectName, null);
+  }
+
+  /**
+   * The cached copy is dropped when the returned stream is closed or
+   * aborted, the object is not changed before.
+   */
+  @Override
+  public FDSObjectOutputStream openForWrite(final String bucketName,
+      final String objectName, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    FDSObjectOutputStream output = super.openForWrite(bucketName, objectName,
+        metadata);
+    output.addCloseListener(new Runnable() {
+      @Override
+      public void run() {
+        invalidate(bucketName, objectName);
+      }
+    });
+    return output;
+  }
+
+  @Override
+  public PutObjectResult completeMultipartUpload(String bucketName,
+      String objectName, String uploadId, FDSObjectMetadata metadata,
+      UploadPartResultList uploadPartResultList)
+      throws GalaxyFDSClientException {
+    try {
+      return super.completeMultipartUpload(bucketName, objectName, uploadId,
+          metadata, uploadPartResultList);
+    } finally {
+      invalidate(bucketName, objectName);
+    }
+  }
+
+  @Override
+  public void deleteObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    try {
+      super.deleteObject(bucketName, objectName);
+    } finally {
+      invalidate(bucketName, objectName);
+    }
+  }
+
+  @Override
+  public List<Map<String, Object>> deleteObjects(String bucketName,
+      String prefix) throws GalaxyFDSClientException {
+    try {
+      return super.deleteObjects(bucketName, prefix);
+    } finally {
+      invalidatePrefix(bucketName, prefix);
+    }
+  }
+
+  @Override
+  public List<Map<String, Object>> deleteObjects(String bucketName,
+      List<String> objectNameList) throws GalaxyFDSClientException {
+    try {
+      return super.deleteObjects(bucketName, objectNameList);
+    } finally {
+      for (String objectName : objectNameList) {
+        invalidate(bucketName, objectName);
+      }
+    }
+  }
+
+  @Override
+  public void renameObject(String bucketName, String srcObjectName,
+      String dstObjectName) throws GalaxyFDSClientException {
+    try {
+      super.renameObject(bucketName, srcObjectName, dstObjectName);
+    } finally {
+      invalidate(bucketName, srcObjectName);
+      invalidate(bucketName, dstObjectName);
+    }
+  }
+
+  @Override
+  public void restoreObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    try {
+      super.restoreObject(bucketName, objectName);
+    } finally {
+      invalidate(bucketName, objectName);
+    }
+  }
+}
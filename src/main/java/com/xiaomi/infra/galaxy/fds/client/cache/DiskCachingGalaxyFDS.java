@@ -0,0 +1,360 @@
+package com.xiaomi.infra.galaxy.fds.client.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * {@link GalaxyFDS} keeping a copy of the objects it gets in a local
+ * directory. A cached object is revalidated on every
+ * {@link #getObject(String, String)} with a conditional request carrying its
+ * last modified time, so an unchanged object costs a 304 response instead of
+ * a full transfer. The cache survives restarts of the process, its size is
+ * capped and the least recently used objects are evicted first.
+ *
+ * Only whole object reads are cached, objects without a last modified time
+ * or larger than the cap go straight to the wrapped client. Writes and
+ * deletes made through this client drop the cached copy.
+ */
+public class DiskCachingGalaxyFDS extends AbstractCachingGalaxyFDS {
+
+  private static final Log LOG = LogFactory.getLog(DiskCachingGalaxyFDS.class);
+
+  private static final Gson GSON = new Gson();
+
+  private static final String DATA_SUFFIX = ".data";
+  private static final String META_SUFFIX = ".meta";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final GalaxyFDS fdsClient;
+  private final File cacheDir;
+  private final long maxCacheSize;
+
+  // Access ordered, the eldest entry is the least recently used one
+  private final LinkedHashMap<String, CacheEntry> entries =
+      new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+  private long cacheSize;
+
+  /**
+   * Creates a caching client on top of the specified one, the objects
+   * already cached in the directory are reused.
+   *
+   * @param fdsClient    The client the objects are read from
+   * @param cacheDir     The directory holding the cached objects
+   * @param maxCacheSize The max total size of the cached objects in bytes
+   */
+  public DiskCachingGalaxyFDS(GalaxyFDS fdsClient, File cacheDir,
+      long maxCacheSize) throws IOException {
+    Preconditions.checkNotNull(fdsClient);
+    Preconditions.checkArgument(maxCacheSize > 0,
+        "cache size should be positive, got " + maxCacheSize);
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new IOException("fail to create cache directory " +
+          cacheDir.getPath());
+    }
+    this.fdsClient = fdsClient;
+    this.cacheDir = cacheDir;
+    this.maxCacheSize = maxCacheSize;
+    loadEntries();
+  }
+
+  @Override
+  protected GalaxyFDS delegate() {
+    return fdsClient;
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    String key = getKey(bucketName, objectName);
+    CacheEntry entry = getEntry(key);
+    FDSObject object;
+    if (entry != null) {
+      object = fdsClient.getObjectIfModifiedSince(bucketName, objectName,
+          new Date(entry.lastModified));
+      if (object == null) {
+        FDSObject cached = openCachedObject(entry);
+        if (cached != null) {
+          return cached;
+        }
+        object = fdsClient.getObject(bucketName, objectName);
+      }
+    } else {
+      object = fdsClient.getObject(bucketName, objectName);
+    }
+
+    FDSObjectMetadata metadata = object.getObjectMetadata();
+    long length = metadata.getContentLength();
+    if (metadata.getLastModified() == null || length < 0 ||
+        length > maxCacheSize) {
+      removeEntry(key);
+      return object;
+    }
+    entry = storeObject(key, bucketName, objectName, object);
+    FDSObject cached = entry != null ? openCachedObject(entry) : null;
+    if (cached == null) {
+      // The content is consumed, fetch it again without the cache
+      return fdsClient.getObject(bucketName, objectName);
+    }
+    return cached;
+  }
+
+  @Override
+  protected void invalidate(String bucketName, String objectName) {
+    removeEntry(getKey(bucketName, objectName));
+  }
+
+  @Override
+  protected void invalidatePrefix(String bucketName, String prefix) {
+    removeEntries(bucketName, prefix);
+  }
+
+  /**
+   * Returns the total size of the cached objects in bytes.
+   */
+  public synchronized long getCacheSize() {
+    return cacheSize;
+  }
+
+  private static String getKey(String bucketName, String objectName) {
+    return Hashing.sha1().hashString(bucketName + "/" + objectName,
+        Charsets.UTF_8).toString();
+  }
+
+  private synchronized CacheEntry getEntry(String key) {
+    return entries.get(key);
+  }
+
+  private FDSObject openCachedObject(CacheEntry entry) {
+    InputStream stream;
+    try {
+      stream = new FileInputStream(new File(cacheDir, entry.key + DATA_SUFFIX));
+    } catch (IOException e) {
+      LOG.warn("cached copy of object [" + entry.objectName + "] lost", e);
+      removeEntry(entry.key);
+      return null;
+    }
+    touch(entry);
+    return newCachedObject(entry.bucketName, entry.objectName, entry.metadata,
+        entry.length, stream);
+  }
+
+  /**
+   * Writes the content of the object to the cache and consumes it.
+   *
+   * @return The new entry, or null if the object could not be cached
+   */
+  private CacheEntry storeObject(String key, String bucketName,
+      String objectName, FDSObject object) throws GalaxyFDSClientException {
+    FDSObjectMetadata metadata = object.getObjectMetadata();
+    CacheEntry entry = new CacheEntry();
+    entry.key = key;
+    entry.bucketName = bucketName;
+    entry.objectName = objectName;
+    entry.length = metadata.getContentLength();
+    entry.lastModified = metadata.getLastModified().getTime();
+    entry.metadata = new LinkedHashMap<String, String>(
+        metadata.getRawMetadata());
+
+    // Names are unique per thread so that concurrent stores do not clash
+    String tempSuffix = "." + Thread.currentThread().getId() + TEMP_SUFFIX;
+    File tempData = new File(cacheDir, key + DATA_SUFFIX + tempSuffix);
+    File tempMeta = new File(cacheDir, key + META_SUFFIX + tempSuffix);
+    InputStream input = object.getObjectContent();
+    try {
+      long written;
+      OutputStream output = new FileOutputStream(tempData);
+      try {
+        written = ByteStreams.copy(input, output);
+      } finally {
+        output.close();
+      }
+      if (written != entry.length) {
+        throw new GalaxyFDSClientException("object [" + objectName +
+            "] truncated, expect " + entry.length + " bytes, got " + written);
+      }
+      Files.write(GSON.toJson(entry), tempMeta, Charsets.UTF_8);
+    } catch (IOException e) {
+      tempData.delete();
+      tempMeta.delete();
+      throw new GalaxyFDSClientException("fail to read object [" +
+          objectName + "] from bucket [" + bucketName + "]", e);
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) {
+        LOG.warn("fail to close stream of object [" + objectName + "]", e);
+      }
+    }
+
+    synchronized (this) {
+      removeEntry(key);
+      File dataFile = new File(cacheDir, key + DATA_SUFFIX);
+      File metaFile = new File(cacheDir, key + META_SUFFIX);
+      if (!tempData.renameTo(dataFile) || !tempMeta.renameTo(metaFile)) {
+        LOG.warn("fail to cache object [" + objectName + "] in " +
+            cacheDir.getPath());
+        tempData.delete();
+        tempMeta.delete();
+        dataFile.delete();
+        return null;
+      }
+      entries.put(key, entry);
+      cacheSize += entry.length;
+      evict();
+    }
+    return entry;
+  }
+
+  private synchronized void removeEntry(String key) {
+    CacheEntry entry = entries.remove(key);
+    if (entry != null) {
+      cacheSize -= entry.length;
+    }
+    // Remove the metadata first, a data file alone is never loaded
+    new File(cacheDir, key + META_SUFFIX).delete();
+    new File(cacheDir, key + DATA_SUFFIX).delete();
+  }
+
+  private synchronized void removeEntries(String bucketName, String prefix) {
+    List<String> keys = new ArrayList<String>();
+    for (CacheEntry entry : entries.values()) {
+      if (entry.bucketName.equals(bucketName) &&
+          entry.objectName.startsWith(prefix)) {
+        keys.add(entry.key);
+      }
+    }
+    for (String key : keys) {
+      removeEntry(key);
+    }
+  }
+
+  /**
+   * Evicts the least recently used objects until the cache fits its cap.
+   */
+  private synchronized void evict() {
+    Iterator<CacheEntry> iterator = entries.values().iterator();
+    while (cacheSize > maxCacheSize && iterator.hasNext()) {
+      CacheEntry entry = iterator.next();
+      iterator.remove();
+      cacheSize -= entry.length;
+      new File(cacheDir, entry.key + META_SUFFIX).delete();
+      new File(cacheDir, entry.key + DATA_SUFFIX).delete();
+    }
+  }
+
+  /**
+   * Records the access in the modification time of the metadata file, so
+   * that the usage order survives restarts.
+   */
+  private void touch(CacheEntry entry) {
+    new File(cacheDir, entry.key + META_SUFFIX).setLastModified(
+        System.currentTimeMillis());
+  }
+
+  private void loadEntries() throws IOException {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      throw new IOException("fail to list cache directory " +
+          cacheDir.getPath());
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        long time1 = o1.lastModified();
+        long time2 = o2.lastModified();
+        return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+      }
+    });
+
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(TEMP_SUFFIX)) {
+        // Left over by a process which died while storing an object
+        file.delete();
+        continue;
+      }
+      if (!name.endsWith(META_SUFFIX)) {
+        continue;
+      }
+      CacheEntry entry = loadEntry(file);
+      File dataFile = new File(cacheDir, name.substring(0,
+          name.length() - META_SUFFIX.length()) + DATA_SUFFIX);
+      if (entry == null || dataFile.length() != entry.length) {
+        file.delete();
+        dataFile.delete();
+        continue;
+      }
+      entries.put(entry.key, entry);
+      cacheSize += entry.length;
+    }
+
+    // Data files whose metadata is missing are never served
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(DATA_SUFFIX) && !entries.containsKey(
+          name.substring(0, name.length() - DATA_SUFFIX.length()))) {
+        file.delete();
+      }
+    }
+    evict();
+    LOG.info("loaded " + entries.size() + " cached objects, " + cacheSize +
+        " bytes, from " + cacheDir.getPath());
+  }
+
+  private static CacheEntry loadEntry(File metaFile) {
+    try {
+      Reader reader = new InputStreamReader(new FileInputStream(metaFile),
+          Charsets.UTF_8);
+      try {
+        CacheEntry entry = GSON.fromJson(reader, CacheEntry.class);
+        return entry != null && entry.key != null && entry.metadata != null ?
+            entry : null;
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("ignore unreadable cache entry " + metaFile.getPath(), e);
+    } catch (JsonParseException e) {
+      LOG.warn("ignore corrupted cache entry " + metaFile.getPath(), e);
+    }
+    return null;
+  }
+
+  private static class CacheEntry {
+    private String key;
+    private String bucketName;
+    private String objectName;
+    private long length;
+    private long lastModified;
+    private Map<String, String> metadata;
+  }
+}
@@ -0,0 +1,268 @@
+package com.xiaomi.infra.galaxy.fds.client.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * {@link GalaxyFDS} caching the content of small objects in direct buffers
+ * outside of the java heap, so that hot objects are served without any
+ * request and caching does not add to the garbage collection load. The
+ * cache is bounded by the total size of the cached content, entries expire
+ * a fixed time after they are loaded and the least recently used entries
+ * are evicted first.
+ *
+ * Cached objects are not revalidated before they expire, writes and deletes
+ * made through this client drop the cached copy. A read which overlaps such
+ * a write may have fetched the previous content, so its content is only
+ * cached if no write of the object completed while it was fetched, see
+ * {@link #getGeneration(String)}. The memory of evicted
+ * entries is released when their buffers are collected, the cache size
+ * counts against -XX:MaxDirectMemorySize.
+ */
+public class OffHeapCachingGalaxyFDS extends AbstractCachingGalaxyFDS {
+
+  private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+  private static final int GENERATION_STRIPES = 64;
+
+  private final GalaxyFDS fdsClient;
+  private final int maxObjectSize;
+  private final Cache<String, CachedObject> cache;
+  // Number of invalidations of the keys of each stripe, guarded by itself
+  private final long[] generations = new long[GENERATION_STRIPES];
+
+  /**
+   * Creates a caching client on top of the specified one.
+   *
+   * @param fdsClient     The client the objects are read from
+   * @param maxCacheSize  The max total size of the cached content in bytes
+   * @param maxObjectSize The size of the largest object to cache in bytes
+   * @param ttl           The time an entry is served after it is loaded
+   * @param unit          The unit of the ttl
+   */
+  public OffHeapCachingGalaxyFDS(GalaxyFDS fdsClient, long maxCacheSize,
+      int maxObjectSize, long ttl, TimeUnit unit) {
+    Preconditions.checkNotNull(fdsClient);
+    Preconditions.checkArgument(maxObjectSize > 0 &&
+        maxObjectSize <= maxCacheSize, "invalid cache size, max cache size=" +
+        maxCacheSize + ", max object size=" + maxObjectSize);
+    this.fdsClient = fdsClient;
+    this.maxObjectSize = maxObjectSize;
+    // Guava splits the max weight between the segments of the cache, a
+    // single segment lets any object up to the max object size fit and
+    // keeps the eviction order global
+    this.cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(maxCacheSize)
+        .weigher(new Weigher<String, CachedObject>() {
+          @Override
+          public int weigh(String key, CachedObject value) {
+            return value.content.capacity();
+          }
+        })
+        .expireAfterWrite(ttl, unit)
+        .recordStats()
+        .build();
+  }
+
+  @Override
+  protected GalaxyFDS delegate() {
+    return fdsClient;
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    String key = getKey(bucketName, objectName);
+    CachedObject cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached.newObject(bucketName, objectName);
+    }
+
+    long generation = getGeneration(key);
+    FDSObject object = fdsClient.getObject(bucketName, objectName);
+    long length = object.getObjectMetadata().getContentLength();
+    if (length < 0 || length > maxObjectSize) {
+      return object;
+    }
+    cached = load(object, (int) length);
+    synchronized (generations) {
+      if (generations[getStripe(key)] == generation) {
+        cache.put(key, cached);
+      }
+    }
+    return cached.newObject(bucketName, objectName);
+  }
+
+  /**
+   * Returns the number of invalidations of the key so far. A read only
+   * caches its content if the generation of the key did not change while
+   * the content was fetched, and the check and the put are atomic with
+   * respect to invalidations. The generations are kept per stripe of keys,
+   * so that they take constant memory: an invalidation of another key of
+   * the stripe only prevents the caching of the reads in flight.
+   */
+  private long getGeneration(String key) {
+    synchronized (generations) {
+      return generations[getStripe(key)];
+    }
+  }
+
+  private static int getStripe(String key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  @Override
+  protected void invalidate(String bucketName, String objectName) {
+    String key = getKey(bucketName, objectName);
+    synchronized (generations) {
+      generations[getStripe(key)]++;
+    }
+    cache.invalidate(key);
+  }
+
+  @Override
+  protected void invalidatePrefix(String bucketName, String prefix) {
+    synchronized (generations) {
+      for (int i = 0; i < generations.length; i++) {
+        generations[i]++;
+      }
+    }
+    String keyPrefix = getKey(bucketName, prefix);
+    Iterator<String> iterator = cache.asMap().keySet().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().startsWith(keyPrefix)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the hit, miss and eviction counters of the cache.
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Returns the number of cached objects.
+   */
+  public long getCachedObjectCount() {
+    return cache.size();
+  }
+
+  private static String getKey(String bucketName, String objectName) {
+    return bucketName + "/" + objectName;
+  }
+
+  /**
+   * Copies the content of the object to a direct buffer and consumes it.
+   */
+  private static CachedObject load(FDSObject object, int length)
+      throws GalaxyFDSClientException {
+    FDSObjectMetadata metadata = object.getObjectMetadata();
+    ByteBuffer content = ByteBuffer.allocateDirect(length);
+    InputStream input = object.getObjectContent();
+    try {
+      byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(length, 1))];
+      int read;
+      while ((read = input.read(buffer, 0,
+          Math.min(buffer.length, content.remaining() + 1))) >= 0) {
+        if (read > content.remaining()) {
+          throw new GalaxyFDSClientException(
+              "object longer than its content length " + length);
+        }
+        content.put(buffer, 0, read);
+      }
+      if (content.hasRemaining()) {
+        throw new GalaxyFDSClientException("object truncated, expect " +
+            length + " bytes, got " + content.position());
+      }
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to read object content", e);
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) {
+        // The content is fully read or the error is already reported
+      }
+    }
+    content.flip();
+    return new CachedObject(content.asReadOnlyBuffer(),
+        new LinkedHashMap<String, String>(metadata.getRawMetadata()));
+  }
+
+  private static class CachedObject {
+
+    private final ByteBuffer content;
+    private final Map<String, String> metadata;
+
+    CachedObject(ByteBuffer content, Map<String, String> metadata) {
+      this.content = content;
+      this.metadata = metadata;
+    }
+
+    FDSObject newObject(String bucketName, String objectName) {
+      return newCachedObject(bucketName, objectName, metadata,
+          content.capacity(), new ByteBufferInputStream(content.duplicate()));
+    }
+  }
+
+  /**
+   * Input stream over the remaining bytes of a buffer.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return buffer.remaining();
+    }
+  }
+}
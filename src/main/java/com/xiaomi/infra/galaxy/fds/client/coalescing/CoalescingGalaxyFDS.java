@@ -0,0 +1,288 @@
+package com.xiaomi.infra.galaxy.fds.client.coalescing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.SettableFuture;
+
+import com.xiaomi.infra.galaxy.fds.client.ForwardingGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectInputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * {@link GalaxyFDS} sharing one request between the threads which read the
+ * same object at the same time. The first thread sends the request, the
+ * others wait for its answer instead of sending their own, so that a burst
+ * of reads of a hot object costs one connection. The answer is only shared
+ * with the threads which asked while the request was in flight, nothing is
+ * cached.
+ *
+ * Shared calls are {@link #getObjectMetadata(String, String)},
+ * {@link #doesObjectExist(String, String)}, and the reads of whole objects or
+ * ranges whose content is not larger than the max shared length: their
+ * content is buffered and every waiter reads its own copy. Waiters of a
+ * larger object send their own request.
+ */
+public class CoalescingGalaxyFDS extends ForwardingGalaxyFDS {
+
+  /**
+   * max length of the content shared between waiters
+   */
+  public static final int DEFAULT_MAX_SHARED_LENGTH = 1024 * 1024;
+
+  private final GalaxyFDS fdsClient;
+  private final int maxSharedLength;
+
+  private final ConcurrentMap<String, SettableFuture<FDSObjectMetadata>>
+      metadataFlights =
+      new ConcurrentHashMap<String, SettableFuture<FDSObjectMetadata>>();
+  private final ConcurrentMap<String, SettableFuture<Boolean>> existFlights =
+      new ConcurrentHashMap<String, SettableFuture<Boolean>>();
+  private final ConcurrentMap<String, SettableFuture<SharedObject>>
+      objectFlights =
+      new ConcurrentHashMap<String, SettableFuture<SharedObject>>();
+
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  public CoalescingGalaxyFDS(GalaxyFDS fdsClient) {
+    this(fdsClient, DEFAULT_MAX_SHARED_LENGTH);
+  }
+
+  /**
+   * @param fdsClient       The client the requests are sent with
+   * @param maxSharedLength The max length of the content of an object read
+   *                        shared between waiters
+   */
+  public CoalescingGalaxyFDS(GalaxyFDS fdsClient, int maxSharedLength) {
+    Preconditions.checkNotNull(fdsClient);
+    Preconditions.checkArgument(maxSharedLength >= 0,
+        "max shared length should not be negative, got " + maxSharedLength);
+    this.fdsClient = fdsClient;
+    this.maxSharedLength = maxSharedLength;
+  }
+
+  @Override
+  protected GalaxyFDS delegate() {
+    return fdsClient;
+  }
+
+  @Override
+  public FDSObjectMetadata getObjectMetadata(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    String key = bucketName + "/" + objectName;
+    SettableFuture<FDSObjectMetadata> flight = SettableFuture.create();
+    SettableFuture<FDSObjectMetadata> inFlight =
+        metadataFlights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      return copyMetadata(await(inFlight).getRawMetadata());
+    }
+    try {
+      FDSObjectMetadata metadata = fdsClient.getObjectMetadata(bucketName,
+          objectName);
+      // Waiters get their own copy, the caller may modify this one
+      flight.set(copyMetadata(metadata.getRawMetadata()));
+      return metadata;
+    } catch (GalaxyFDSClientException e) {
+      flight.setException(e);
+      throw e;
+    } catch (Throwable t) {
+      // Errors complete the flight too, the waiters would wait forever
+      flight.setException(t);
+      throw Throwables.propagate(t);
+    } finally {
+      metadataFlights.remove(key, flight);
+    }
+  }
+
+  @Override
+  public boolean doesObjectExist(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    String key = bucketName + "/" + objectName;
+    SettableFuture<Boolean> flight = SettableFuture.create();
+    SettableFuture<Boolean> inFlight = existFlights.putIfAbsent(key, flight);
+    if (inFlight != null) {
+      return await(inFlight);
+    }
+    try {
+      boolean exists = fdsClient.doesObjectExist(bucketName, objectName);
+      flight.set(exists);
+      return exists;
+    } catch (GalaxyFDSClientException e) {
+      flight.setException(e);
+      throw e;
+    } catch (Throwable t) {
+      flight.setException(t);
+      throw Throwables.propagate(t);
+    } finally {
+      existFlights.remove(key, flight);
+    }
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, 0, -1);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos)
+      throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, pos, -1);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos,
+      long length) throws GalaxyFDSClientException {
+    if (length > maxSharedLength) {
+      return fetchObject(bucketName, objectName, pos, length);
+    }
+    String key = bucketName + "/" + objectName + "@" + pos + "+" + length;
+    SettableFuture<SharedObject> flight = SettableFuture.create();
+    SettableFuture<SharedObject> inFlight = objectFlights.putIfAbsent(key,
+        flight);
+    if (inFlight != null) {
+      SharedObject shared = await(inFlight);
+      if (shared != null) {
+        return shared.newObject();
+      }
+      // Too large to be buffered, read it separately
+      return fetchObject(bucketName, objectName, pos, length);
+    }
+
+    try {
+      FDSObject object = fetchObject(bucketName, objectName, pos, length);
+      long contentLength = object.getObjectSummary() != null ?
+          object.getObjectSummary().getSize() :
+          object.getObjectMetadata().getContentLength();
+      if (contentLength < 0 || contentLength > maxSharedLength) {
+        flight.set(null);
+        return object;
+      }
+      SharedObject shared = new SharedObject(bucketName, objectName, object,
+          (int) contentLength);
+      flight.set(shared);
+      return shared.newObject();
+    } catch (GalaxyFDSClientException e) {
+      flight.setException(e);
+      throw e;
+    } catch (Throwable t) {
+      flight.setException(t);
+      throw Throwables.propagate(t);
+    } finally {
+      objectFlights.remove(key, flight);
+    }
+  }
+
+  /**
+   * Returns the number of calls which were answered by the request of
+   * another thread.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  private FDSObject fetchObject(String bucketName, String objectName,
+      long pos, long length) throws GalaxyFDSClientException {
+    if (length < 0) {
+      return pos == 0 ? fdsClient.getObject(bucketName, objectName) :
+          fdsClient.getObject(bucketName, objectName, pos);
+    }
+    return fdsClient.getObject(bucketName, objectName, pos, length);
+  }
+
+  /**
+   * Waits for the answer of the request of another thread.
+   */
+  private <T> T await(SettableFuture<T> flight)
+      throws GalaxyFDSClientException {
+    coalescedCount.incrementAndGet();
+    try {
+      return flight.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GalaxyFDSClientException("interrupted while waiting for " +
+          "a shared request", e);
+    } catch (ExecutionException e) {
+      // Each waiter gets its own exception, with its own stack trace
+      Throwable cause = e.getCause();
+      throw new GalaxyFDSClientException(cause.getMessage(), cause);
+    }
+  }
+
+  private static FDSObjectMetadata copyMetadata(
+      Map<String, String> rawMetadata) {
+    FDSObjectMetadata metadata = new FDSObjectMetadata();
+    for (Map.Entry<String, String> header : rawMetadata.entrySet()) {
+      metadata.addHeader(header.getKey(), header.getValue());
+    }
+    return metadata;
+  }
+
+  /**
+   * Buffered answer of an object read, every waiter gets its own object
+   * reading the same content.
+   */
+  private static class SharedObject {
+
+    private final String bucketName;
+    private final String objectName;
+    private final Map<String, String> metadata;
+    private final byte[] content;
+
+    /**
+     * Reads the content of the object and closes it.
+     */
+    SharedObject(String bucketName, String objectName, FDSObject object,
+        int length) throws GalaxyFDSClientException {
+      this.bucketName = bucketName;
+      this.objectName = objectName;
+      this.metadata = new LinkedHashMap<String, String>(
+          object.getObjectMetadata().getRawMetadata());
+      InputStream input = object.getObjectContent();
+      try {
+        this.content = ByteStreams.toByteArray(input);
+      } catch (IOException e) {
+        throw new GalaxyFDSClientException("fail to read object [" +
+            objectName + "] from bucket [" + bucketName + "]", e);
+      } finally {
+        try {
+          input.close();
+        } catch (IOException e) {
+          // The content is fully read or the error is already reported
+        }
+      }
+      if (content.length != length) {
+        throw new GalaxyFDSClientException("object [" + objectName +
+            "] truncated, expect " + length + " bytes, got " + content.length);
+      }
+    }
+
+    FDSObject newObject() {
+      FDSObjectSummary summary = new FDSObjectSummary();
+      summary.setBucketName(bucketName);
+      summary.setObjectName(objectName);
+      summary.setSize(content.length);
+
+      FDSObject object = new FDSObject();
+      object.setObjectSummary(summary);
+      object.setObjectMetadata(copyMetadata(metadata));
+      object.setObjectContent(new FDSObjectInputStream(
+          new ByteArrayInputStream(content)));
+      return object;
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package com.xiaomi.infra.galaxy.fds.client.hedging;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.Action;
+import com.xiaomi.infra.galaxy.fds.client.ForwardingGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * {@link GalaxyFDS} hedging small idempotent requests to cut their tail
+ * latency. A request which is still pending after a percentile of the
+ * latest latencies of its kind is sent a second time, the first answer is
+ * returned and the other one is cancelled or released when it arrives.
+ * Hedges are capped to a ratio of the hedged traffic, so that a slow server
+ * does not get twice the load.
+ *
+ * Hedged calls are {@link #getObjectMetadata(String, String)},
+ * {@link #doesObjectExist(String, String)} and ranged
+ * {@link #getObject(String, String, long, long)} of small lengths. Whole
+ * object reads are not hedged, their size is unknown until they answer and
+ * a losing response would be read to its end to release its connection.
+ *
+ * The requests are sent by a bounded pool of threads, so that the caller
+ * can return the first answer while the other request is pending. When
+ * every thread is busy, a request is sent by the caller's thread without
+ * hedge, and a hedge is not sent at all. Call {@link #shutdown()} to
+ * release the threads of this client.
+ */
+public class HedgingGalaxyFDS extends ForwardingGalaxyFDS {
+
+  private static final Log LOG = LogFactory.getLog(HedgingGalaxyFDS.class);
+
+  /**
+   * latency percentile after which a request is hedged
+   */
+  public static final double DEFAULT_DELAY_PERCENTILE = 95;
+
+  /**
+   * max number of hedges per hedged request
+   */
+  public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+  /**
+   * max length of the ranged reads which are hedged
+   */
+  public static final long DEFAULT_MAX_HEDGED_LENGTH = 1024 * 1024;
+
+  /**
+   * max number of threads sending the requests and their hedges
+   */
+  public static final int DEFAULT_MAX_THREADS = 32;
+
+  static final int LATENCY_WINDOW_SIZE = 1024;
+
+  // Unused hedges accumulate up to this number, to absorb bursts
+  private static final double MAX_HEDGE_TOKENS = 10;
+
+  private final GalaxyFDS fdsClient;
+  private final double maxHedgeRatio;
+  private final long maxHedgedLength;
+  private final Map<Action, LatencyTracker> latencyTrackers =
+      new EnumMap<Action, LatencyTracker>(Action.class);
+  private final ExecutorService executor;
+
+  private double hedgeTokens;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong hedgeCount = new AtomicLong();
+  private final AtomicLong hedgeWinCount = new AtomicLong();
+
+  public HedgingGalaxyFDS(GalaxyFDS fdsClient) {
+    this(fdsClient, DEFAULT_DELAY_PERCENTILE, DEFAULT_MAX_HEDGE_RATIO,
+        DEFAULT_MAX_HEDGED_LENGTH, DEFAULT_MAX_THREADS);
+  }
+
+  /**
+   * @param fdsClient       The client the requests are sent with
+   * @param delayPercentile The percentile of the latencies of a kind of
+   *                        request after which it is hedged, in (0, 100]
+   * @param maxHedgeRatio   The max number of hedges per hedged request, in
+   *                        [0, 1]
+   * @param maxHedgedLength The max length of the ranged reads to hedge
+   * @param maxThreads      The max number of threads sending the requests
+   *                        and their hedges
+   */
+  public HedgingGalaxyFDS(GalaxyFDS fdsClient, double delayPercentile,
+      double maxHedgeRatio, long maxHedgedLength, int maxThreads) {
+    Preconditions.checkNotNull(fdsClient);
+    Preconditions.checkArgument(maxHedgeRatio >= 0 && maxHedgeRatio <= 1,
+        "hedge ratio should be in [0, 1], got " + maxHedgeRatio);
+    Preconditions.checkArgument(maxThreads > 0,
+        "thread number should be positive, got " + maxThreads);
+    this.fdsClient = fdsClient;
+    this.maxHedgeRatio = maxHedgeRatio;
+    this.maxHedgedLength = maxHedgedLength;
+    for (Action action : new Action[] {Action.GetObjectMetadata,
+        Action.HeadObject, Action.GetObject}) {
+      latencyTrackers.put(action,
+          new LatencyTracker(delayPercentile, LATENCY_WINDOW_SIZE));
+    }
+    // No queue: a request is sent right away or by the caller's thread
+    this.executor = new ThreadPoolExecutor(0, maxThreads, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("fds-hedging-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  @Override
+  protected GalaxyFDS delegate() {
+    return fdsClient;
+  }
+
+  @Override
+  public FDSObjectMetadata getObjectMetadata(final String bucketName,
+      final String objectName) throws GalaxyFDSClientException {
+    return hedge(Action.GetObjectMetadata, new Callable<FDSObjectMetadata>() {
+      @Override
+      public FDSObjectMetadata call() throws Exception {
+        return fdsClient.getObjectMetadata(bucketName, objectName);
+      }
+    });
+  }
+
+  @Override
+  public boolean doesObjectExist(final String bucketName,
+      final String objectName) throws GalaxyFDSClientException {
+    return hedge(Action.HeadObject, new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return fdsClient.doesObjectExist(bucketName, objectName);
+      }
+    });
+  }
+
+  @Override
+  public FDSObject getObject(final String bucketName, final String objectName,
+      final long pos, final long length) throws GalaxyFDSClientException {
+    if (length <= 0 || length > maxHedgedLength) {
+      return fdsClient.getObject(bucketName, objectName, pos, length);
+    }
+    return hedge(Action.GetObject, new Callable<FDSObject>() {
+      @Override
+      public FDSObject call() throws Exception {
+        return fdsClient.getObject(bucketName, objectName, pos, length);
+      }
+    });
+  }
+
+  /**
+   * Returns the number of requests which were eligible for hedging.
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Returns the number of hedges sent.
+   */
+  public long getHedgeCount() {
+    return hedgeCount.get();
+  }
+
+  /**
+   * Returns the number of hedges which answered before the first request.
+   */
+  public long getHedgeWinCount() {
+    return hedgeWinCount.get();
+  }
+
+  /**
+   * Releases the threads of this client, requests in flight are completed.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  private <T> T hedge(Action action, Callable<T> call)
+      throws GalaxyFDSClientException {
+    requestCount.incrementAndGet();
+    depositHedgeToken();
+    LatencyTracker tracker = latencyTrackers.get(action);
+    long delayNanos = tracker.getPercentileNanos();
+
+    CompletionService<T> completionService =
+        new ExecutorCompletionService<T>(executor);
+    Attempt<T> primary = new Attempt<T>(call, tracker);
+    Attempt<T> hedge = null;
+    try {
+      primary.future = completionService.submit(primary);
+    } catch (RejectedExecutionException e) {
+      return callDirectly(primary);
+    }
+    try {
+      Future<T> first = null;
+      if (delayNanos >= 0) {
+        first = completionService.poll(delayNanos, TimeUnit.NANOSECONDS);
+        if (first == null && withdrawHedgeToken()) {
+          hedge = new Attempt<T>(call, tracker);
+          try {
+            hedge.future = completionService.submit(hedge);
+            hedgeCount.incrementAndGet();
+          } catch (RejectedExecutionException e) {
+            hedge = null;
+            refundHedgeToken();
+          }
+        }
+      }
+      if (first == null) {
+        first = completionService.take();
+      }
+
+      Attempt<T> winner = first == primary.future ? primary : hedge;
+      Attempt<T> loser = winner == primary ? hedge : primary;
+      try {
+        T result = first.get();
+        if (winner == hedge) {
+          hedgeWinCount.incrementAndGet();
+        }
+        if (loser != null) {
+          loser.abandon();
+        }
+        return result;
+      } catch (ExecutionException e) {
+        if (loser == null) {
+          throw toClientException(e);
+        }
+        // The other request may still succeed
+        try {
+          return loser.future.get();
+        } catch (ExecutionException ignored) {
+          throw toClientException(e);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      primary.abandon();
+      if (hedge != null) {
+        hedge.abandon();
+      }
+      throw new GalaxyFDSClientException("request " + action +
+          " interrupted", e);
+    }
+  }
+
+  /**
+   * Sends the request from the caller's thread, when every thread of the
+   * pool is busy.
+   */
+  private static <T> T callDirectly(Attempt<T> attempt)
+      throws GalaxyFDSClientException {
+    try {
+      return attempt.call();
+    } catch (GalaxyFDSClientException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new GalaxyFDSClientException(e);
+    }
+  }
+
+  private synchronized void depositHedgeToken() {
+    hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + maxHedgeRatio);
+  }
+
+  private synchronized boolean withdrawHedgeToken() {
+    if (hedgeTokens < 1) {
+      return false;
+    }
+    hedgeTokens--;
+    return true;
+  }
+
+  private synchronized void refundHedgeToken() {
+    hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + 1);
+  }
+
+  private static GalaxyFDSClientException toClientException(
+      ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof GalaxyFDSClientException) {
+      return (GalaxyFDSClientException) cause;
+    }
+    return new GalaxyFDSClientException(cause);
+  }
+
+  /**
+   * Releases the resources held by the answer of a losing request.
+   */
+  private static void release(Object result) {
+    if (result instanceof FDSObject) {
+      try {
+        ((FDSObject) result).getObjectContent().close();
+      } catch (IOException e) {
+        LOG.warn("fail to close losing hedged response", e);
+      }
+    }
+  }
+
+  /**
+   * One of the requests sent for a call. Whichever of the request and the
+   * caller finishes last releases the answer of a losing request.
+   */
+  private static class Attempt<T> implements Callable<T> {
+
+    private static final int RUNNING = 0;
+    private static final int ANSWERED = 1;
+    private static final int ABANDONED = 2;
+
+    private final Callable<T> call;
+    private final LatencyTracker tracker;
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private Future<T> future;
+
+    Attempt(Callable<T> call, LatencyTracker tracker) {
+      this.call = call;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public T call() throws Exception {
+      long startTime = System.nanoTime();
+      T result = call.call();
+      // Latencies of losing requests are recorded too, recording only the
+      // winners would hide the slow answers the delay is derived from
+      tracker.record(System.nanoTime() - startTime);
+      if (!state.compareAndSet(RUNNING, ANSWERED)) {
+        release(result);
+      }
+      return result;
+    }
+
+    void abandon() {
+      if (state.compareAndSet(RUNNING, ABANDONED)) {
+        future.cancel(true);
+        return;
+      }
+      try {
+        release(future.get());
+      } catch (Exception e) {
+        // The request failed, there is nothing to release
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.xiaomi.infra.galaxy.fds.client.hedging;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sliding window over the latencies of the latest requests of one kind. A
+ * percentile of the window is recomputed every few samples rather than on
+ * every read, so that reading it costs nothing on the request path.
+ */
+class LatencyTracker {
+
+  private final double percentile;
+  private final long[] samples;
+  private final int recomputeInterval;
+  private int sampleCount;
+  private int nextSample;
+  private int samplesSinceRecompute;
+  private volatile long percentileNanos = -1;
+
+  /**
+   * @param percentile The percentile to track, in (0, 100]
+   * @param windowSize The number of latest samples the percentile is
+   *                   computed over
+   */
+  LatencyTracker(double percentile, int windowSize) {
+    Preconditions.checkArgument(percentile > 0 && percentile <= 100,
+        "percentile should be in (0, 100], got " + percentile);
+    Preconditions.checkArgument(windowSize > 0,
+        "window size should be positive, got " + windowSize);
+    this.percentile = percentile;
+    this.samples = new long[windowSize];
+    this.recomputeInterval = Math.max(1, windowSize / 16);
+  }
+
+  synchronized void record(long latencyNanos) {
+    samples[nextSample] = latencyNanos;
+    nextSample = (nextSample + 1) % samples.length;
+    if (sampleCount < samples.length) {
+      sampleCount++;
+    }
+    // The percentile is only trusted once the window is full
+    if (sampleCount == samples.length &&
+        (++samplesSinceRecompute >= recomputeInterval ||
+            percentileNanos < 0)) {
+      samplesSinceRecompute = 0;
+      long[] sorted = samples.clone();
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+      percentileNanos = sorted[Math.max(0, index)];
+    }
+  }
+
+  /**
+   * Returns the tracked percentile in nanoseconds, or -1 if not enough
+   * requests were recorded yet.
+   */
+  long getPercentileNanos() {
+    return percentileNanos;
+  }
+}
@@ -0,0 +1,149 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Chooses the page size of a listing from the latest pages: the size is
+ * doubled while full pages come back well within the target latency, so
+ * that long scans need fewer round trips, and halved when a page takes
+ * longer than the target or when the heap gets full, since every page is
+ * held in memory while it is consumed.
+ *
+ * A sizer may be shared by the listings of several threads.
+ */
+public class AdaptivePageSizer {
+
+  /**
+   * page size of the first page
+   */
+  public static final int DEFAULT_INITIAL_PAGE_SIZE = 1000;
+
+  /**
+   * smallest page size
+   */
+  public static final int DEFAULT_MIN_PAGE_SIZE = 100;
+
+  /**
+   * largest page size
+   */
+  public static final int DEFAULT_MAX_PAGE_SIZE = 10000;
+
+  /**
+   * latency of a page above which the page size shrinks
+   */
+  public static final long DEFAULT_TARGET_LATENCY_MS = 1000;
+
+  /**
+   * share of the max heap above which the page size shrinks
+   */
+  public static final double DEFAULT_MAX_HEAP_USAGE = 0.8;
+
+  private static final List<MemoryPoolMXBean> HEAP_POOLS = getHeapPools();
+
+  private final int minPageSize;
+  private final int maxPageSize;
+  private final long targetLatencyNanos;
+  private final double maxHeapUsage;
+  private int pageSize;
+
+  public AdaptivePageSizer() {
+    this(DEFAULT_INITIAL_PAGE_SIZE, DEFAULT_MIN_PAGE_SIZE,
+        DEFAULT_MAX_PAGE_SIZE, DEFAULT_TARGET_LATENCY_MS,
+        DEFAULT_MAX_HEAP_USAGE);
+  }
+
+  /**
+   * @param initialPageSize The page size of the first page
+   * @param minPageSize     The smallest page size
+   * @param maxPageSize     The largest page size
+   * @param targetLatencyMs The latency of a page above which the page size
+   *                        shrinks, in milliseconds
+   * @param maxHeapUsage    The share of the max heap above which the page
+   *                        size shrinks, in (0, 1]
+   */
+  public AdaptivePageSizer(int initialPageSize, int minPageSize,
+      int maxPageSize, long targetLatencyMs, double maxHeapUsage) {
+    Preconditions.checkArgument(minPageSize > 0 && minPageSize <= maxPageSize,
+        "invalid page size range [" + minPageSize + ", " + maxPageSize + "]");
+    Preconditions.checkArgument(targetLatencyMs > 0,
+        "target latency should be positive, got " + targetLatencyMs);
+    Preconditions.checkArgument(maxHeapUsage > 0 && maxHeapUsage <= 1,
+        "max heap usage should be in (0, 1], got " + maxHeapUsage);
+    this.minPageSize = minPageSize;
+    this.maxPageSize = maxPageSize;
+    this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+    this.maxHeapUsage = maxHeapUsage;
+    this.pageSize = clamp(initialPageSize);
+  }
+
+  /**
+   * Returns the page size of the next page.
+   */
+  public synchronized int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Records the answer of a page request and adjusts the page size.
+   *
+   * @param requestedKeys The page size of the request
+   * @param returnedKeys  The number of keys and common prefixes returned
+   * @param latencyNanos  The time the request took
+   */
+  public void record(int requestedKeys, int returnedKeys, long latencyNanos) {
+    double heapUsage = getHeapUsage();
+    synchronized (this) {
+      if (latencyNanos > targetLatencyNanos || heapUsage > maxHeapUsage) {
+        pageSize = clamp(pageSize / 2);
+      } else if (latencyNanos < targetLatencyNanos / 2 &&
+          returnedKeys >= requestedKeys && requestedKeys >= pageSize) {
+        // Only a full page tells that a larger one would have been filled
+        pageSize = clamp(pageSize * 2);
+      }
+    }
+  }
+
+  /**
+   * Returns the share of the max heap still in use after the latest
+   * collections, so that garbage not collected yet does not count. Falls
+   * back to the current usage if no heap pool reports it.
+   */
+  double getHeapUsage() {
+    long used = 0;
+    boolean collected = false;
+    for (MemoryPoolMXBean pool : HEAP_POOLS) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null) {
+        used += usage.getUsed();
+        collected = true;
+      }
+    }
+    Runtime runtime = Runtime.getRuntime();
+    if (!collected) {
+      used = runtime.totalMemory() - runtime.freeMemory();
+    }
+    return (double) used / runtime.maxMemory();
+  }
+
+  private static List<MemoryPoolMXBean> getHeapPools() {
+    List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pools.add(pool);
+      }
+    }
+    return pools;
+  }
+
+  private int clamp(int size) {
+    return Math.max(minPageSize, Math.min(maxPageSize, size));
+  }
+}
@@ -0,0 +1,449 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.model.Owner;
+
+/**
+ * Compact in-memory listing of the objects of a bucket, for inventories of
+ * tens of millions of keys. Rather than one summary per object, columns are
+ * kept:
+ * <ul>
+ * <li>the names, front coded: each one is stored as the length of the
+ * prefix it shares with the previous one followed by the rest of its UTF-8
+ * bytes, in large byte arrays. The coding restarts every few names so that
+ * a name can be decoded without the ones before its block;</li>
+ * <li>the sizes, in a long array;</li>
+ * <li>the owners, as ids in a dictionary of the distinct owners.</li>
+ * </ul>
+ * A key costs the bytes of its suffix plus about 15, against several
+ * hundred as a {@link FDSObjectSummary}.
+ *
+ * Objects are appended in ascending order of the UTF-8 bytes of their
+ * names, which is the order of the listings, so that they can be searched
+ * by name. Summaries are built when read. The listing is not thread safe.
+ */
+public class CompactObjectListing implements Iterable<FDSObjectSummary>,
+    FDSObjectVisitor {
+
+  // Max number of names decoded to read one of them
+  private static final int BLOCK_SIZE = 16;
+
+  // Chunks grow from the min size to the max one, so that small listings
+  // stay small
+  private static final int MIN_CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private static final int NO_OWNER = -1;
+
+  private final String bucketName;
+
+  // Front coded names, a block never spans two chunks
+  private final List<byte[]> chunks = new ArrayList<byte[]>();
+  private int chunkPosition;
+  private byte[] lastName;
+
+  // First object and position (chunk << 32 | offset) of each block
+  private int[] blockFirstIndexes = new int[16];
+  private long[] blockPositions = new long[16];
+  private int blockCount;
+
+  private long[] sizes = new long[16];
+  private int[] ownerIds = new int[16];
+  private int count;
+
+  private final List<Owner> owners = new ArrayList<Owner>();
+  private final Map<String, Integer> ownerDictionary =
+      new HashMap<String, Integer>();
+
+  /**
+   * @param bucketName The name of the bucket the objects belong to
+   */
+  public CompactObjectListing(String bucketName) {
+    this.bucketName = Preconditions.checkNotNull(bucketName);
+  }
+
+  /**
+   * Appends an object, its name should be greater than the names already
+   * added.
+   *
+   * @param objectName The name of the object
+   * @param size       The size of the object
+   * @param owner      The owner of the object, may be null
+   */
+  public void add(String objectName, long size, Owner owner) {
+    byte[] name = objectName.getBytes(Charsets.UTF_8);
+    if (lastName != null) {
+      Preconditions.checkArgument(compare(name, 0, name.length, lastName, 0,
+          lastName.length) > 0, "object [" + objectName + "] added after " +
+          "object [" + new String(lastName, Charsets.UTF_8) + "]");
+    }
+
+    boolean blockStart = blockCount == 0 ||
+        count - blockFirstIndexes[blockCount - 1] == BLOCK_SIZE;
+    int shared = blockStart ? 0 : sharedPrefixLength(lastName, name);
+    int entryLength = entryLength(shared, name.length);
+    if (chunks.isEmpty() ||
+        chunkPosition + entryLength > chunks.get(chunks.size() - 1).length) {
+      blockStart = true;
+      shared = 0;
+      entryLength = entryLength(0, name.length);
+      int chunkSize = Math.min(MAX_CHUNK_SIZE,
+          MIN_CHUNK_SIZE << Math.min(chunks.size(), 6));
+      chunks.add(new byte[Math.max(chunkSize, entryLength)]);
+      chunkPosition = 0;
+    }
+    if (blockStart) {
+      if (blockCount == blockFirstIndexes.length) {
+        blockFirstIndexes = Arrays.copyOf(blockFirstIndexes, grow(blockCount));
+        blockPositions = Arrays.copyOf(blockPositions, grow(blockCount));
+      }
+      blockFirstIndexes[blockCount] = count;
+      blockPositions[blockCount] =
+          ((long) (chunks.size() - 1) << 32) | chunkPosition;
+      blockCount++;
+    }
+
+    byte[] chunk = chunks.get(chunks.size() - 1);
+    chunkPosition = writeVarint(chunk, chunkPosition, shared);
+    chunkPosition = writeVarint(chunk, chunkPosition, name.length - shared);
+    System.arraycopy(name, shared, chunk, chunkPosition, name.length - shared);
+    chunkPosition += name.length - shared;
+    lastName = name;
+
+    if (count == sizes.length) {
+      sizes = Arrays.copyOf(sizes, grow(count));
+      ownerIds = Arrays.copyOf(ownerIds, grow(count));
+    }
+    sizes[count] = size;
+    ownerIds[count] = internOwner(owner);
+    count++;
+  }
+
+  /**
+   * Appends an object of the bucket of this listing.
+   */
+  public void add(FDSObjectSummary summary) {
+    add(summary.getObjectName(), summary.getSize(), summary.getOwner());
+  }
+
+  @Override
+  public void visitObject(FDSObjectSummary summary) {
+    add(summary);
+  }
+
+  @Override
+  public void visitCommonPrefix(String commonPrefix) {
+    // Only objects are kept
+  }
+
+  /**
+   * Returns the number of objects.
+   */
+  public int size() {
+    return count;
+  }
+
+  public String getBucketName() {
+    return bucketName;
+  }
+
+  /**
+   * Returns the name of the object at the specified index.
+   */
+  public String getObjectName(int index) {
+    Preconditions.checkElementIndex(index, count);
+    Cursor cursor = new Cursor();
+    int block = findBlock(index);
+    cursor.seekBlock(block);
+    while (cursor.index <= index) {
+      cursor.readName();
+    }
+    return cursor.getName();
+  }
+
+  /**
+   * Returns the size of the object at the specified index.
+   */
+  public long getSize(int index) {
+    Preconditions.checkElementIndex(index, count);
+    return sizes[index];
+  }
+
+  /**
+   * Returns a copy of the owner of the object at the specified index, or
+   * null if it has none.
+   */
+  public Owner getOwner(int index) {
+    Preconditions.checkElementIndex(index, count);
+    return copyOwner(ownerIds[index]);
+  }
+
+  /**
+   * Returns the summary of the object at the specified index.
+   */
+  public FDSObjectSummary get(int index) {
+    return newSummary(getObjectName(index), index);
+  }
+
+  /**
+   * Searches an object by name.
+   *
+   * @return The index of the object, or (-(insertion point) - 1) if there is
+   *         no such object, as {@link Arrays#binarySearch(long[], long)}
+   */
+  public int indexOf(String objectName) {
+    byte[] name = objectName.getBytes(Charsets.UTF_8);
+    // Last block whose first name is not greater than the searched one, the
+    // first name of a block is stored whole
+    int low = 0;
+    int high = blockCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long position = blockPositions[middle];
+      byte[] chunk = chunks.get((int) (position >>> 32));
+      int offset = (int) position;
+      offset = skipVarint(chunk, offset);
+      int length = readVarint(chunk, offset);
+      offset = skipVarint(chunk, offset);
+      if (compare(chunk, offset, length, name, 0, name.length) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    if (high < 0) {
+      return -1;
+    }
+
+    Cursor cursor = new Cursor();
+    cursor.seekBlock(high);
+    int blockEnd = high + 1 < blockCount ? blockFirstIndexes[high + 1] : count;
+    while (cursor.index < blockEnd) {
+      int index = cursor.index;
+      cursor.readName();
+      int comparison = compare(cursor.name, 0, cursor.nameLength, name, 0,
+          name.length);
+      if (comparison == 0) {
+        return index;
+      }
+      if (comparison > 0) {
+        return -index - 1;
+      }
+    }
+    return -blockEnd - 1;
+  }
+
+  /**
+   * Releases the spare capacity, objects can still be added afterwards.
+   */
+  public void trimToSize() {
+    sizes = Arrays.copyOf(sizes, count);
+    ownerIds = Arrays.copyOf(ownerIds, count);
+    blockFirstIndexes = Arrays.copyOf(blockFirstIndexes, blockCount);
+    blockPositions = Arrays.copyOf(blockPositions, blockCount);
+    if (!chunks.isEmpty()) {
+      int last = chunks.size() - 1;
+      chunks.set(last, Arrays.copyOf(chunks.get(last), chunkPosition));
+    }
+  }
+
+  /**
+   * Iterates over the objects in name order, the names are decoded once.
+   * Objects added during the iteration are not returned.
+   */
+  @Override
+  public Iterator<FDSObjectSummary> iterator() {
+    final int end = count;
+    return new Iterator<FDSObjectSummary>() {
+      private final Cursor cursor = new Cursor();
+      private int nextBlock;
+
+      @Override
+      public boolean hasNext() {
+        return cursor.index < end;
+      }
+
+      @Override
+      public FDSObjectSummary next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (nextBlock < blockCount &&
+            cursor.index == blockFirstIndexes[nextBlock]) {
+          cursor.seekBlock(nextBlock++);
+        }
+        int index = cursor.index;
+        cursor.readName();
+        return newSummary(cursor.getName(), index);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private FDSObjectSummary newSummary(String objectName, int index) {
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setBucketName(bucketName);
+    summary.setObjectName(objectName);
+    summary.setSize(sizes[index]);
+    summary.setOwner(copyOwner(ownerIds[index]));
+    return summary;
+  }
+
+  private int internOwner(Owner owner) {
+    if (owner == null) {
+      return NO_OWNER;
+    }
+    String key = owner.getId() + "\n" + owner.getDisplayName();
+    Integer id = ownerDictionary.get(key);
+    if (id == null) {
+      id = owners.size();
+      owners.add(new Owner(owner.getId(), owner.getDisplayName()));
+      ownerDictionary.put(key, id);
+    }
+    return id;
+  }
+
+  // Owners are mutable, the dictionary ones are not handed out
+  private Owner copyOwner(int ownerId) {
+    if (ownerId == NO_OWNER) {
+      return null;
+    }
+    Owner owner = owners.get(ownerId);
+    return new Owner(owner.getId(), owner.getDisplayName());
+  }
+
+  /**
+   * Returns the last block whose first object is not after the specified
+   * one.
+   */
+  private int findBlock(int index) {
+    int block = Arrays.binarySearch(blockFirstIndexes, 0, blockCount, index);
+    return block >= 0 ? block : -block - 2;
+  }
+
+  private static int grow(int length) {
+    return length + (length >> 1) + 1;
+  }
+
+  private static int sharedPrefixLength(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    int i = 0;
+    while (i < length && a[i] == b[i]) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Compares byte sequences as unsigned bytes, the order of UTF-8 strings
+   * by code point.
+   */
+  static int compare(byte[] a, int aOffset, int aLength, byte[] b,
+      int bOffset, int bLength) {
+    int length = Math.min(aLength, bLength);
+    for (int i = 0; i < length; i++) {
+      int difference = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  private static int entryLength(int shared, int length) {
+    return varintLength(shared) + varintLength(length - shared) +
+        length - shared;
+  }
+
+  private static int varintLength(int value) {
+    int length = 1;
+    while ((value >>>= 7) != 0) {
+      length++;
+    }
+    return length;
+  }
+
+  private static int writeVarint(byte[] buffer, int offset, int value) {
+    while ((value & ~0x7f) != 0) {
+      buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[offset++] = (byte) value;
+    return offset;
+  }
+
+  private static int readVarint(byte[] buffer, int offset) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer[offset++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static int skipVarint(byte[] buffer, int offset) {
+    while ((buffer[offset++] & 0x80) != 0) {
+      // Continuation byte
+    }
+    return offset;
+  }
+
+  /**
+   * Decodes the names of a block one after the other.
+   */
+  private class Cursor {
+
+    private byte[] name = new byte[64];
+    private int nameLength;
+    private int index;
+    private byte[] chunk;
+    private int position;
+
+    void seekBlock(int block) {
+      long blockPosition = blockPositions[block];
+      chunk = chunks.get((int) (blockPosition >>> 32));
+      position = (int) blockPosition;
+      index = blockFirstIndexes[block];
+    }
+
+    /**
+     * Decodes the name of the current object and moves to the next one.
+     */
+    void readName() {
+      int shared = readVarint(chunk, position);
+      position = skipVarint(chunk, position);
+      int suffixLength = readVarint(chunk, position);
+      position = skipVarint(chunk, position);
+      if (shared + suffixLength > name.length) {
+        name = Arrays.copyOf(name, Math.max(shared + suffixLength,
+            grow(name.length)));
+      }
+      System.arraycopy(chunk, position, name, shared, suffixLength);
+      position += suffixLength;
+      nameLength = shared + suffixLength;
+      index++;
+    }
+
+    String getName() {
+      return new String(name, 0, nameLength, Charsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+/**
+ * Unchecked failure of a listing which is consumed through an iterator,
+ * where the checked client exceptions cannot be thrown. The cause is the
+ * original error.
+ */
+public class FDSListingException extends RuntimeException {
+
+  private static final long serialVersionUID = 3308611985213645081L;
+
+  public FDSListingException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,17 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+/**
+ * Selects the objects of a listing while the response is parsed, before
+ * their summaries are built. See {@link FDSObjectFilters} for the common
+ * ones.
+ */
+public interface FDSObjectFilter {
+
+  /**
+   * Returns whether the specified object is handed to the visitor.
+   *
+   * @param objectName The name of the object
+   * @param size       The size of the object in bytes
+   */
+  boolean accept(String objectName, long size);
+}
@@ -0,0 +1,84 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Common {@link FDSObjectFilter}s.
+ */
+public class FDSObjectFilters {
+
+  private FDSObjectFilters() {
+  }
+
+  /**
+   * Accepts the objects whose name ends with the specified suffix.
+   */
+  public static FDSObjectFilter nameEndsWith(final String suffix) {
+    Preconditions.checkNotNull(suffix);
+    return new FDSObjectFilter() {
+      @Override
+      public boolean accept(String objectName, long size) {
+        return objectName.endsWith(suffix);
+      }
+    };
+  }
+
+  /**
+   * Accepts the objects whose whole name matches the specified pattern.
+   */
+  public static FDSObjectFilter nameMatches(final Pattern pattern) {
+    Preconditions.checkNotNull(pattern);
+    return new FDSObjectFilter() {
+      @Override
+      public boolean accept(String objectName, long size) {
+        return pattern.matcher(objectName).matches();
+      }
+    };
+  }
+
+  /**
+   * Accepts the objects whose whole name matches the specified regular
+   * expression.
+   */
+  public static FDSObjectFilter nameMatches(String regex) {
+    return nameMatches(Pattern.compile(regex));
+  }
+
+  /**
+   * Accepts the objects whose size is in [minSize, maxSize].
+   */
+  public static FDSObjectFilter sizeBetween(final long minSize,
+      final long maxSize) {
+    Preconditions.checkArgument(minSize <= maxSize,
+        "invalid size range [" + minSize + ", " + maxSize + "]");
+    return new FDSObjectFilter() {
+      @Override
+      public boolean accept(String objectName, long size) {
+        return size >= minSize && size <= maxSize;
+      }
+    };
+  }
+
+  /**
+   * Accepts the objects accepted by all the specified filters, which are
+   * applied in order.
+   */
+  public static FDSObjectFilter and(final FDSObjectFilter... filters) {
+    for (FDSObjectFilter filter : filters) {
+      Preconditions.checkNotNull(filter);
+    }
+    return new FDSObjectFilter() {
+      @Override
+      public boolean accept(String objectName, long size) {
+        for (FDSObjectFilter filter : filters) {
+          if (!filter.accept(objectName, size)) {
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+}
@@ -0,0 +1,240 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+/**
+ * All the objects under a prefix of a bucket, listed lazily in name order.
+ * Each iterator fetches the next page in the background as soon as the
+ * current one arrives, so the consumer only waits when it is faster than
+ * the listing. The pages are fetched by a pool of
+ * {@value #MAX_PREFETCH_THREADS} threads shared by all the listings. Only
+ * the page being consumed and the one being fetched are referenced, the
+ * earlier pages can be collected. The page size is chosen
+ * by the server, fixed, or adapted to the latency of the latest pages and
+ * to the heap usage with an {@link AdaptivePageSizer}.
+ *
+ * Listing errors are thrown by the iterator as {@link FDSListingException}.
+ */
+public class FDSObjectIterable implements Iterable<FDSObjectSummary> {
+
+  /**
+   * max number of pages fetched at once by all the listings, the other
+   * fetches wait for a thread
+   */
+  static final int MAX_PREFETCH_THREADS = 8;
+
+  private static final ExecutorService PREFETCH_EXECUTOR =
+      newPrefetchExecutor();
+
+  private final GalaxyFDS fdsClient;
+  private final String bucketName;
+  private final String prefix;
+  private final int pageSize;
+  private final AdaptivePageSizer pageSizer;
+
+  /**
+   * @param fdsClient  The client the objects are listed with
+   * @param bucketName The name of the bucket to list
+   * @param prefix     The prefix of the names of the objects to list
+   */
+  public FDSObjectIterable(GalaxyFDS fdsClient, String bucketName,
+      String prefix) {
+    this(fdsClient, bucketName, prefix, -1, null);
+  }
+
+  /**
+   * @param fdsClient  The client the objects are listed with
+   * @param bucketName The name of the bucket to list
+   * @param prefix     The prefix of the names of the objects to list
+   * @param pageSize   The number of objects per page
+   */
+  public FDSObjectIterable(GalaxyFDS fdsClient, String bucketName,
+      String prefix, int pageSize) {
+    this(fdsClient, bucketName, prefix, pageSize, null);
+    Preconditions.checkArgument(pageSize > 0,
+        "page size should be positive, got " + pageSize);
+  }
+
+  /**
+   * @param fdsClient  The client the objects are listed with
+   * @param bucketName The name of the bucket to list
+   * @param prefix     The prefix of the names of the objects to list
+   * @param pageSizer  Chooses the size of each page from the latest ones
+   */
+  public FDSObjectIterable(GalaxyFDS fdsClient, String bucketName,
+      String prefix, AdaptivePageSizer pageSizer) {
+    this(fdsClient, bucketName, prefix, -1,
+        Preconditions.checkNotNull(pageSizer));
+  }
+
+  private FDSObjectIterable(GalaxyFDS fdsClient, String bucketName,
+      String prefix, int pageSize, AdaptivePageSizer pageSizer) {
+    this.fdsClient = Preconditions.checkNotNull(fdsClient);
+    this.bucketName = Preconditions.checkNotNull(bucketName);
+    this.prefix = Preconditions.checkNotNull(prefix);
+    this.pageSize = pageSize;
+    this.pageSizer = pageSizer;
+  }
+
+  /**
+   * Creates the pool shared by the listings. Its threads exit once idle,
+   * so that it holds no thread when no listing is in progress and needs no
+   * shut down.
+   */
+  private static ExecutorService newPrefetchExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PREFETCH_THREADS,
+        MAX_PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+            .setNameFormat("fds-listing-prefetch-%d")
+            .setDaemon(true)
+            .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Starts a new listing, its first page is requested right away.
+   */
+  @Override
+  public Iterator<FDSObjectSummary> iterator() {
+    return new PrefetchingIterator();
+  }
+
+  /**
+   * Requests the first page of the listing.
+   */
+  protected FDSObjectListing listFirstPage() throws GalaxyFDSClientException {
+    if (pageSizer != null) {
+      int maxKeys = pageSizer.getPageSize();
+      long startTime = System.nanoTime();
+      FDSObjectListing listing = fdsClient.listObjects(bucketName, prefix, "",
+          maxKeys);
+      recordPage(maxKeys, listing, System.nanoTime() - startTime);
+      return listing;
+    }
+    if (pageSize > 0) {
+      return fdsClient.listObjects(bucketName, prefix, "", pageSize);
+    }
+    return fdsClient.listObjects(bucketName, prefix, "");
+  }
+
+  /**
+   * Requests the page following the specified one.
+   */
+  protected FDSObjectListing listNextPage(FDSObjectListing previous)
+      throws GalaxyFDSClientException {
+    if (pageSizer == null) {
+      return fdsClient.listNextBatchOfObjects(previous);
+    }
+    int maxKeys = pageSizer.getPageSize();
+    previous.setMaxKeys(maxKeys);
+    long startTime = System.nanoTime();
+    FDSObjectListing listing = fdsClient.listNextBatchOfObjects(previous);
+    recordPage(maxKeys, listing, System.nanoTime() - startTime);
+    return listing;
+  }
+
+  private void recordPage(int maxKeys, FDSObjectListing listing,
+      long latencyNanos) {
+    int returnedKeys = 0;
+    if (listing != null && listing.getObjectSummaries() != null) {
+      returnedKeys += listing.getObjectSummaries().size();
+    }
+    if (listing != null && listing.getCommonPrefixes() != null) {
+      returnedKeys += listing.getCommonPrefixes().size();
+    }
+    pageSizer.record(maxKeys, returnedKeys, latencyNanos);
+  }
+
+  /**
+   * Copies what is needed to request the page after the specified one,
+   * without its object summaries.
+   */
+  static FDSObjectListing getContinuation(FDSObjectListing listing) {
+    FDSObjectListing continuation = new FDSObjectListing();
+    continuation.setBucketName(listing.getBucketName());
+    continuation.setPrefix(listing.getPrefix());
+    continuation.setDelimiter(listing.getDelimiter());
+    continuation.setMarker(listing.getMarker());
+    continuation.setNextMarker(listing.getNextMarker());
+    continuation.setMaxKeys(listing.getMaxKeys());
+    continuation.setTruncated(listing.isTruncated());
+    return continuation;
+  }
+
+  private class PrefetchingIterator extends AbstractIterator<FDSObjectSummary> {
+
+    private Iterator<FDSObjectSummary> page =
+        Collections.<FDSObjectSummary>emptyList().iterator();
+    private Future<FDSObjectListing> nextPage;
+
+    PrefetchingIterator() {
+      nextPage = PREFETCH_EXECUTOR.submit(new Callable<FDSObjectListing>() {
+        @Override
+        public FDSObjectListing call() throws Exception {
+          return listFirstPage();
+        }
+      });
+    }
+
+    @Override
+    protected FDSObjectSummary computeNext() {
+      while (!page.hasNext()) {
+        if (nextPage == null) {
+          return endOfData();
+        }
+        FDSObjectListing listing = await(nextPage);
+        if (listing != null && listing.isTruncated()) {
+          final FDSObjectListing continuation = getContinuation(listing);
+          nextPage = PREFETCH_EXECUTOR.submit(new Callable<FDSObjectListing>() {
+            @Override
+            public FDSObjectListing call() throws Exception {
+              return listNextPage(continuation);
+            }
+          });
+        } else {
+          nextPage = null;
+        }
+        List<FDSObjectSummary> summaries = listing != null ?
+            listing.getObjectSummaries() : null;
+        if (summaries != null) {
+          page = summaries.iterator();
+        }
+      }
+      return page.next();
+    }
+
+    private FDSObjectListing await(Future<FDSObjectListing> future) {
+      try {
+        return future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        nextPage = null;
+        throw new FDSListingException("listing of bucket [" + bucketName +
+            "] interrupted", e);
+      } catch (ExecutionException e) {
+        nextPage = null;
+        throw new FDSListingException("fail to list objects with prefix [" +
+            prefix + "] in bucket [" + bucketName + "]", e.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+/**
+ * Receives the entries of a listing page one by one, as the response is
+ * parsed.
+ */
+public interface FDSObjectVisitor {
+
+  /**
+   * Called for each object accepted by the filter of the listing.
+   */
+  void visitObject(FDSObjectSummary summary);
+
+  /**
+   * Called for each common prefix of the page.
+   */
+  void visitCommonPrefix(String commonPrefix);
+}
@@ -0,0 +1,781 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+/**
+ * All the objects under a prefix of a bucket, listed by many threads. The
+ * keyspace is split into disjoint ranges which are listed concurrently:
+ * when the keyspace is hierarchical, the common prefixes found by a listing
+ * with the "/" delimiter and the marker ranges of the objects between them;
+ * when it is flat, ranges of the first character after the prefix. A
+ * prefix whose first page holds the whole listing is not split. Only the
+ * first {@value #MAX_DISCOVERY_PAGES} pages of a hierarchical top level are
+ * walked, the keyspace after them is split as a flat one.
+ *
+ * The first character only splits keys which vary early, such as random
+ * ones. A range without delimiter which is still truncated after a page is
+ * split again on the characters following the common part of the names of
+ * the page, as long as fewer than twice as many ranges as threads are left.
+ *
+ * In ordered mode the objects are returned in name order, the ranges are
+ * listed ahead of the consumer and their pages are buffered until it
+ * reaches them. In unordered mode pages are returned as soon as any range
+ * delivers them, which keeps every thread busy.
+ *
+ * Each iterator uses its own threads, they are released when the listing
+ * is fully consumed or fails; close the iterator to release them earlier.
+ * An iterator dropped before the end of the listing, such as by a break
+ * out of a for-each loop, releases its threads once it is garbage
+ * collected. Listing errors are thrown by the iterator as
+ * {@link FDSListingException}.
+ */
+public class FDSParallelObjectIterable implements Iterable<FDSObjectSummary> {
+
+  /**
+   * page size used when listing from a marker if the server did not send
+   * one
+   */
+  static final int DEFAULT_PAGE_SIZE = 1000;
+
+  private static final String DELIMITER = "/";
+
+  // Boundaries of the ranges of a flat keyspace, in ascending order
+  private static final String SPLIT_CHARACTERS =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+  // Pages buffered per range in ordered mode, or per thread otherwise
+  private static final int BUFFERED_PAGES = 2;
+
+  /**
+   * max number of pages of the top level of a hierarchical keyspace walked
+   * to find its common prefixes
+   */
+  static final int MAX_DISCOVERY_PAGES = 4;
+
+  // Time a full queue is waited for before checking whether the iterator
+  // was closed or dropped
+  private static final long PUT_CHECK_INTERVAL_MS = 1000;
+
+  private final GalaxyFDS fdsClient;
+  private final String bucketName;
+  private final String prefix;
+  private final int parallelism;
+  private final boolean ordered;
+
+  /**
+   * @param fdsClient   The client the objects are listed with
+   * @param bucketName  The name of the bucket to list
+   * @param prefix      The prefix of the names of the objects to list
+   * @param parallelism The number of ranges listed at the same time
+   * @param ordered     Whether the objects are returned in name order
+   */
+  public FDSParallelObjectIterable(GalaxyFDS fdsClient, String bucketName,
+      String prefix, int parallelism, boolean ordered) {
+    Preconditions.checkArgument(parallelism > 0,
+        "parallelism should be positive, got " + parallelism);
+    this.fdsClient = Preconditions.checkNotNull(fdsClient);
+    this.bucketName = Preconditions.checkNotNull(bucketName);
+    this.prefix = Preconditions.checkNotNull(prefix);
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+  }
+
+  /**
+   * Starts a new listing, the keyspace is split when the first object is
+   * requested.
+   */
+  @Override
+  public ListingIterator iterator() {
+    return new ListingIterator();
+  }
+
+  /**
+   * Splits the keyspace under the prefix into ranges, in name order.
+   */
+  List<Partition> discoverPartitions() throws GalaxyFDSClientException {
+    FDSObjectListing listing = fdsClient.listObjects(bucketName, prefix,
+        DELIMITER);
+    List<String> commonPrefixes = listing.getCommonPrefixes() != null ?
+        listing.getCommonPrefixes() : Collections.<String>emptyList();
+    List<FDSObjectSummary> objects = listing.getObjectSummaries() != null ?
+        listing.getObjectSummaries() :
+        Collections.<FDSObjectSummary>emptyList();
+    if (!listing.isTruncated()) {
+      // The whole top level is known, only the common prefixes are listed
+      return mergePartitions(commonPrefixes, objects);
+    }
+    int pageSize = getPageSize(listing);
+    if (commonPrefixes.isEmpty()) {
+      // No name of the first page has a "/" after the prefix, the first
+      // page holds all the names up to its last one
+      List<Partition> partitions = new ArrayList<Partition>();
+      String afterMarker = null;
+      if (!objects.isEmpty()) {
+        partitions.add(new Partition(objects));
+        afterMarker = objects.get(objects.size() - 1).getObjectName();
+      }
+      partitions.addAll(splitFlatKeyspace(prefix, afterMarker, pageSize));
+      return partitions;
+    }
+
+    // Hierarchical keyspace: the walk of the top level only keeps the
+    // common prefixes and the last object before each of them, the objects
+    // are listed again by marker ranges
+    List<String> allPrefixes = new ArrayList<String>();
+    List<String> lastObjectNames = new ArrayList<String>();
+    String lastObjectName = null;
+    String greatestObjectName = null;
+    int walkedPages = 0;
+    while (listing != null) {
+      Set<String> pagePrefixes = new HashSet<String>();
+      if (listing.getCommonPrefixes() != null) {
+        pagePrefixes.addAll(listing.getCommonPrefixes());
+      }
+      List<String> names = new ArrayList<String>(pagePrefixes);
+      if (listing.getObjectSummaries() != null) {
+        for (FDSObjectSummary summary : listing.getObjectSummaries()) {
+          names.add(summary.getObjectName());
+        }
+      }
+      // Names of a page sort after those of the previous pages
+      Collections.sort(names);
+      for (String name : names) {
+        if (pagePrefixes.contains(name)) {
+          if (lastObjectName != null) {
+            lastObjectNames.add(lastObjectName);
+            lastObjectName = null;
+          }
+          allPrefixes.add(name);
+        } else {
+          lastObjectName = name;
+          greatestObjectName = name;
+        }
+      }
+      if (!listing.isTruncated()) {
+        listing = null;
+      } else if (++walkedPages < MAX_DISCOVERY_PAGES) {
+        listing = fdsClient.listNextBatchOfObjects(listing);
+      } else {
+        break;
+      }
+    }
+    if (lastObjectName != null) {
+      lastObjectNames.add(lastObjectName);
+    }
+    if (listing == null) {
+      return rangePartitions(prefix, allPrefixes, lastObjectNames, pageSize);
+    }
+
+    // The walk stopped early: the walked part ends with its last object,
+    // the common prefixes after it are listed with the rest of the keyspace
+    // by flat ranges, which include the names under them
+    if (greatestObjectName == null) {
+      return splitFlatKeyspace(prefix, null, pageSize);
+    }
+    List<String> walkedPrefixes = new ArrayList<String>();
+    for (String commonPrefix : allPrefixes) {
+      if (commonPrefix.compareTo(greatestObjectName) < 0) {
+        walkedPrefixes.add(commonPrefix);
+      }
+    }
+    List<Partition> partitions = rangePartitions(prefix, walkedPrefixes,
+        lastObjectNames, pageSize);
+    partitions.addAll(splitFlatKeyspace(prefix, greatestObjectName,
+        pageSize));
+    return partitions;
+  }
+
+  /**
+   * Orders the ranges of the common prefixes and the objects found between
+   * them, consecutive objects are grouped in one partition.
+   */
+  static List<Partition> mergePartitions(List<String> commonPrefixes,
+      List<FDSObjectSummary> objects) {
+    List<String> sortedPrefixes = new ArrayList<String>(commonPrefixes);
+    Collections.sort(sortedPrefixes);
+    List<FDSObjectSummary> sortedObjects =
+        new ArrayList<FDSObjectSummary>(objects);
+    Collections.sort(sortedObjects, new Comparator<FDSObjectSummary>() {
+      @Override
+      public int compare(FDSObjectSummary o1, FDSObjectSummary o2) {
+        return o1.getObjectName().compareTo(o2.getObjectName());
+      }
+    });
+
+    // Names under a prefix sort after the prefix and before any greater
+    // name which does not start with it
+    List<Partition> partitions = new ArrayList<Partition>();
+    List<FDSObjectSummary> group = new ArrayList<FDSObjectSummary>();
+    int objectIndex = 0;
+    for (String commonPrefix : sortedPrefixes) {
+      while (objectIndex < sortedObjects.size() && sortedObjects.get(
+          objectIndex).getObjectName().compareTo(commonPrefix) < 0) {
+        group.add(sortedObjects.get(objectIndex++));
+      }
+      if (!group.isEmpty()) {
+        partitions.add(new Partition(group));
+        group = new ArrayList<FDSObjectSummary>();
+      }
+      partitions.add(new Partition(commonPrefix, null, null,
+          DEFAULT_PAGE_SIZE));
+    }
+    while (objectIndex < sortedObjects.size()) {
+      group.add(sortedObjects.get(objectIndex++));
+    }
+    if (!group.isEmpty()) {
+      partitions.add(new Partition(group));
+    }
+    return partitions;
+  }
+
+  /**
+   * Orders the ranges of the common prefixes and the ranges of the objects
+   * between them. The objects between two common prefixes are listed with
+   * the "/" delimiter after the first prefix and up to the last of them.
+   *
+   * @param lastObjectNames The name of the last object before each common
+   *                        prefix which follows objects, and of the last
+   *                        object after all of them if any
+   */
+  static List<Partition> rangePartitions(String prefix,
+      List<String> commonPrefixes, List<String> lastObjectNames,
+      int pageSize) {
+    List<String> sortedPrefixes = new ArrayList<String>(commonPrefixes);
+    Collections.sort(sortedPrefixes);
+    List<String> sortedNames = new ArrayList<String>(lastObjectNames);
+    Collections.sort(sortedNames);
+
+    List<Partition> partitions = new ArrayList<Partition>();
+    String afterMarker = null;
+    int nameIndex = 0;
+    for (String commonPrefix : sortedPrefixes) {
+      if (nameIndex < sortedNames.size() &&
+          sortedNames.get(nameIndex).compareTo(commonPrefix) < 0) {
+        partitions.add(new Partition(prefix, afterMarker,
+            sortedNames.get(nameIndex++), pageSize, DELIMITER));
+      }
+      partitions.add(new Partition(commonPrefix, null, null, pageSize));
+      afterMarker = commonPrefix;
+    }
+    if (nameIndex < sortedNames.size()) {
+      partitions.add(new Partition(prefix, afterMarker,
+          sortedNames.get(nameIndex), pageSize, DELIMITER));
+    }
+    return partitions;
+  }
+
+  /**
+   * Splits a flat keyspace after the specified marker on the character
+   * following the prefix. A range starts after its lower boundary and ends
+   * with its upper one included, since listings start after a marker.
+   *
+   * @param afterMarker The name the keyspace starts after, null to split
+   *                    the whole keyspace
+   */
+  static List<Partition> splitFlatKeyspace(String prefix, String afterMarker,
+      int pageSize) {
+    List<Partition> partitions = new ArrayList<Partition>();
+    String lowerBound = afterMarker;
+    for (int i = 0; i < SPLIT_CHARACTERS.length(); i++) {
+      String upperBound = prefix + SPLIT_CHARACTERS.charAt(i);
+      if (afterMarker != null && upperBound.compareTo(afterMarker) <= 0) {
+        continue;
+      }
+      partitions.add(new Partition(prefix, lowerBound, upperBound, pageSize));
+      lowerBound = upperBound;
+    }
+    partitions.add(new Partition(prefix, lowerBound, null, pageSize));
+    return partitions;
+  }
+
+  /**
+   * Chooses the boundaries splitting the rest of a range after a truncated
+   * page. The names which follow the page likely share as long a common
+   * part as the names of the page, so the rest of the range is split on
+   * the characters which follow that common part.
+   *
+   * @param firstName   The first name of the truncated page
+   * @param afterMarker The name the rest of the range starts after
+   * @param lastName    The last name of the range, null if unbounded
+   * @param maxRanges   The max number of ranges to split the rest into
+   * @return The boundaries of the ranges in ascending order, each range
+   *         ending with its boundary included and the last one with the
+   *         last name; empty if the rest can not be split
+   */
+  static List<String> splitBoundaries(String firstName, String afterMarker,
+      String lastName, int maxRanges) {
+    int stemLength = 0;
+    int maxStemLength = Math.min(firstName.length(), afterMarker.length() - 1);
+    while (stemLength < maxStemLength &&
+        firstName.charAt(stemLength) == afterMarker.charAt(stemLength)) {
+      stemLength++;
+    }
+    String stem = afterMarker.substring(0, stemLength);
+    List<String> boundaries = new ArrayList<String>();
+    for (int i = 0; i < SPLIT_CHARACTERS.length() &&
+        boundaries.size() < maxRanges - 1; i++) {
+      String boundary = stem + SPLIT_CHARACTERS.charAt(i);
+      if (boundary.compareTo(afterMarker) <= 0) {
+        continue;
+      }
+      if (lastName != null && boundary.compareTo(lastName) >= 0) {
+        break;
+      }
+      boundaries.add(boundary);
+    }
+    return boundaries;
+  }
+
+  private static int getPageSize(FDSObjectListing listing) {
+    return listing.getMaxKeys() > 0 ? listing.getMaxKeys() : DEFAULT_PAGE_SIZE;
+  }
+
+  /**
+   * A disjoint part of the keyspace: either objects already listed, or the
+   * objects under a prefix whose names are after a marker and up to a last
+   * name. With a delimiter, only the objects without the delimiter after
+   * the prefix are part of it.
+   */
+  static class Partition {
+
+    private final List<FDSObjectSummary> objects;
+    private final String prefix;
+    private final String afterMarker;
+    private final String lastName;
+    private final int pageSize;
+    private final String delimiter;
+
+    Partition(List<FDSObjectSummary> objects) {
+      this.objects = objects;
+      this.prefix = null;
+      this.afterMarker = null;
+      this.lastName = null;
+      this.pageSize = 0;
+      this.delimiter = null;
+    }
+
+    Partition(String prefix, String afterMarker, String lastName,
+        int pageSize) {
+      this(prefix, afterMarker, lastName, pageSize, "");
+    }
+
+    Partition(String prefix, String afterMarker, String lastName,
+        int pageSize, String delimiter) {
+      this.objects = null;
+      this.prefix = prefix;
+      this.afterMarker = afterMarker;
+      this.lastName = lastName;
+      this.pageSize = pageSize;
+      this.delimiter = delimiter;
+    }
+
+    String getPrefix() {
+      return prefix;
+    }
+
+    String getDelimiter() {
+      return delimiter;
+    }
+
+    String getAfterMarker() {
+      return afterMarker;
+    }
+
+    String getLastName() {
+      return lastName;
+    }
+
+    List<FDSObjectSummary> getObjects() {
+      return objects;
+    }
+  }
+
+  /**
+   * Page of a partition, or the end or the failure of a partition. A
+   * partition which was split ends with the queues of the partitions
+   * listing the rest of its range, in name order.
+   */
+  private static class Batch {
+
+    private final List<FDSObjectSummary> summaries;
+    private final boolean end;
+    private final Throwable error;
+    private final List<BlockingQueue<Batch>> children;
+
+    Batch(List<FDSObjectSummary> summaries, boolean end, Throwable error) {
+      this(summaries, end, error, null);
+    }
+
+    Batch(List<FDSObjectSummary> summaries, boolean end, Throwable error,
+        List<BlockingQueue<Batch>> children) {
+      this.summaries = summaries;
+      this.end = end;
+      this.error = error;
+      this.children = children;
+    }
+  }
+
+  /**
+   * State of a listing shared by its iterator and its tasks. The tasks do
+   * not reference the iterator, so that a dropped iterator can be collected
+   * while they wait for room in their queues.
+   */
+  private static class ListingState {
+
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Batch> sharedQueue;
+    private final WeakReference<ListingIterator> iterator;
+    // Partitions neither ended nor split yet
+    private final AtomicInteger activePartitions = new AtomicInteger();
+    private volatile boolean closed;
+
+    ListingState(ThreadPoolExecutor executor, BlockingQueue<Batch> sharedQueue,
+        ListingIterator iterator) {
+      this.executor = executor;
+      this.sharedQueue = sharedQueue;
+      this.iterator = new WeakReference<ListingIterator>(iterator);
+    }
+
+    boolean isAbandoned() {
+      return closed || iterator.get() == null;
+    }
+  }
+
+  /**
+   * Iterator over a parallel listing, close it to stop the listing before
+   * it is fully consumed.
+   */
+  public class ListingIterator implements Iterator<FDSObjectSummary>,
+      Closeable {
+
+    private ListingState state;
+    // Queues of the partitions not ended yet in name order, in ordered mode
+    private LinkedList<BlockingQueue<Batch>> queues;
+    private int pendingPartitions;
+    private Iterator<FDSObjectSummary> page =
+        Collections.<FDSObjectSummary>emptyList().iterator();
+    private boolean finished;
+
+    @Override
+    public boolean hasNext() {
+      while (!page.hasNext()) {
+        if (finished) {
+          return false;
+        }
+        if (state == null) {
+          start();
+          continue;
+        }
+        if (pendingPartitions == 0) {
+          finish();
+          return false;
+        }
+        Batch batch = take();
+        if (batch.error != null) {
+          close();
+          throw new FDSListingException("fail to list objects with " +
+              "prefix [" + prefix + "] in bucket [" + bucketName + "]",
+              batch.error);
+        }
+        if (batch.children != null) {
+          // The rest of the range is listed by the children
+          pendingPartitions += batch.children.size() - 1;
+          if (ordered) {
+            queues.removeFirst();
+            queues.addAll(0, batch.children);
+          }
+        } else if (batch.end) {
+          pendingPartitions--;
+          if (ordered) {
+            queues.removeFirst();
+          }
+        } else {
+          page = batch.summaries.iterator();
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public FDSObjectSummary next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return page.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the listing threads, the objects not consumed yet are dropped.
+     */
+    @Override
+    public void close() {
+      finished = true;
+      page = Collections.<FDSObjectSummary>emptyList().iterator();
+      if (state != null) {
+        state.closed = true;
+        state.executor.shutdownNow();
+      }
+    }
+
+    private void finish() {
+      finished = true;
+      state.executor.shutdown();
+    }
+
+    private void start() {
+      List<Partition> partitions;
+      try {
+        partitions = discoverPartitions();
+      } catch (GalaxyFDSClientException e) {
+        finished = true;
+        throw new FDSListingException("fail to split listing of bucket [" +
+            bucketName + "] with prefix [" + prefix + "]", e);
+      }
+      // Partitions are started in name order, split ones before those which
+      // follow them, so the one the consumer waits for in ordered mode
+      // always holds a thread or gets the next free one
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism,
+          parallelism, 0, TimeUnit.MILLISECONDS,
+          new PriorityBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+              .setNameFormat("fds-parallel-listing-%d")
+              .setDaemon(true)
+              .build());
+      state = new ListingState(executor, ordered ? null :
+          new ArrayBlockingQueue<Batch>(BUFFERED_PAGES * parallelism), this);
+      state.activePartitions.set(partitions.size());
+      queues = new LinkedList<BlockingQueue<Batch>>();
+      List<PartitionTask> tasks = new ArrayList<PartitionTask>();
+      for (int i = 0; i < partitions.size(); i++) {
+        PartitionTask task = new PartitionTask(partitions.get(i), state,
+            new int[] {i});
+        if (ordered) {
+          queues.add(task.queue);
+        }
+        tasks.add(task);
+      }
+      for (PartitionTask task : tasks) {
+        executor.execute(task);
+      }
+      pendingPartitions = partitions.size();
+    }
+
+    private Batch take() {
+      BlockingQueue<Batch> queue = ordered ? queues.getFirst() :
+          state.sharedQueue;
+      try {
+        return queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+        throw new FDSListingException("listing of bucket [" + bucketName +
+            "] interrupted", e);
+      }
+    }
+  }
+
+  /**
+   * Lists the objects of one partition into its queue. Tasks run in name
+   * order of their partitions: the order of a task is its index among the
+   * partitions of the listing, followed by its index among the children of
+   * each split partition it descends from.
+   */
+  private class PartitionTask implements Runnable,
+      Comparable<PartitionTask> {
+
+    private final Partition partition;
+    private final ListingState state;
+    private final int[] order;
+    private final BlockingQueue<Batch> queue;
+
+    PartitionTask(Partition partition, ListingState state, int[] order) {
+      this.partition = partition;
+      this.state = state;
+      this.order = order;
+      this.queue = state.sharedQueue != null ? state.sharedQueue :
+          new ArrayBlockingQueue<Batch>(BUFFERED_PAGES);
+    }
+
+    @Override
+    public int compareTo(PartitionTask other) {
+      for (int i = 0; i < order.length && i < other.order.length; i++) {
+        if (order[i] != other.order[i]) {
+          return order[i] < other.order[i] ? -1 : 1;
+        }
+      }
+      return order.length - other.order.length;
+    }
+
+    @Override
+    public void run() {
+      try {
+        try {
+          if (list()) {
+            put(new Batch(null, true, null));
+          }
+        } catch (GalaxyFDSClientException e) {
+          put(new Batch(null, false, e));
+        } catch (RuntimeException e) {
+          put(new Batch(null, false, e));
+        } finally {
+          // Nothing is submitted once every partition ended, the threads
+          // can go even if the iterator is never finished
+          if (state.activePartitions.decrementAndGet() == 0) {
+            state.executor.shutdown();
+          }
+        }
+      } catch (InterruptedException e) {
+        // The iterator was closed or dropped
+      }
+    }
+
+    /**
+     * Puts a batch into the queue, unless the consumer is gone.
+     */
+    private void put(Batch batch) throws InterruptedException {
+      while (!queue.offer(batch, PUT_CHECK_INTERVAL_MS,
+          TimeUnit.MILLISECONDS)) {
+        if (state.isAbandoned()) {
+          state.executor.shutdownNow();
+          throw new InterruptedException("listing of bucket [" + bucketName +
+              "] abandoned");
+        }
+      }
+    }
+
+    /**
+     * Lists the partition.
+     *
+     * @return false if the rest of the partition was split into children
+     */
+    private boolean list() throws GalaxyFDSClientException,
+        InterruptedException {
+      if (partition.getObjects() != null) {
+        put(new Batch(partition.getObjects(), false, null));
+        return true;
+      }
+
+      FDSObjectListing listing;
+      if (partition.getAfterMarker() == null) {
+        listing = fdsClient.listObjects(bucketName, partition.getPrefix(),
+            partition.getDelimiter());
+      } else {
+        FDSObjectListing start = new FDSObjectListing();
+        start.setBucketName(bucketName);
+        start.setPrefix(partition.getPrefix());
+        start.setDelimiter(partition.getDelimiter());
+        start.setNextMarker(partition.getAfterMarker());
+        start.setMaxKeys(partition.pageSize);
+        start.setTruncated(true);
+        listing = fdsClient.listNextBatchOfObjects(start);
+      }
+
+      String lastName = partition.getLastName();
+      while (listing != null) {
+        List<FDSObjectSummary> summaries = listing.getObjectSummaries();
+        boolean pastEnd = false;
+        if (summaries != null && lastName != null) {
+          int end = 0;
+          while (end < summaries.size() &&
+              summaries.get(end).getObjectName().compareTo(lastName) <= 0) {
+            end++;
+          }
+          pastEnd = end < summaries.size();
+          summaries = summaries.subList(0, end);
+        }
+        if (summaries != null && !summaries.isEmpty()) {
+          put(new Batch(summaries, false, null));
+        }
+        // Pages of common prefixes only end the range by their marker
+        String nextMarker = listing.getNextMarker();
+        if (pastEnd || !listing.isTruncated() || (lastName != null &&
+            nextMarker != null && nextMarker.compareTo(lastName) >= 0)) {
+          return true;
+        }
+        if (summaries != null && !summaries.isEmpty() &&
+            split(summaries.get(0).getObjectName(), nextMarker)) {
+          return false;
+        }
+        listing = fdsClient.listNextBatchOfObjects(
+            FDSObjectIterable.getContinuation(listing));
+      }
+      return true;
+    }
+
+    /**
+     * Hands the rest of the range after the specified marker to children
+     * partitions, if the range has no delimiter and few ranges are left.
+     *
+     * @return true if the range was split
+     */
+    private boolean split(String firstName, String afterMarker)
+        throws InterruptedException {
+      if (!partition.getDelimiter().isEmpty() || afterMarker == null ||
+          state.activePartitions.get() >= 2 * parallelism) {
+        return false;
+      }
+      List<String> boundaries = splitBoundaries(firstName, afterMarker,
+          partition.getLastName(), parallelism);
+      if (boundaries.isEmpty()) {
+        return false;
+      }
+      boundaries.add(partition.getLastName());
+
+      List<PartitionTask> children = new ArrayList<PartitionTask>();
+      List<BlockingQueue<Batch>> childQueues =
+          new ArrayList<BlockingQueue<Batch>>();
+      String lowerBound = afterMarker;
+      for (String upperBound : boundaries) {
+        int[] childOrder = Arrays.copyOf(order, order.length + 1);
+        childOrder[order.length] = children.size();
+        PartitionTask child = new PartitionTask(new Partition(
+            partition.getPrefix(), lowerBound, upperBound, partition.pageSize),
+            state, childOrder);
+        children.add(child);
+        childQueues.add(child.queue);
+        lowerBound = upperBound;
+      }
+      state.activePartitions.addAndGet(children.size());
+      // The consumer learns about the children before any of their pages
+      put(new Batch(null, true, null, childQueues));
+      try {
+        for (PartitionTask child : children) {
+          state.executor.execute(child);
+        }
+      } catch (RejectedExecutionException e) {
+        // The iterator was closed
+      }
+      return true;
+    }
+  }
+}
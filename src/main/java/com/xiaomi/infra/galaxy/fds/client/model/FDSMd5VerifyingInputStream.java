@@ -0,0 +1,152 @@
+package com.xiaomi.infra.galaxy.fds.client.model;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Stream computing the MD5 digest of the content as it is read, and
+ * comparing it with the expected digest when the end of the content is
+ * reached. A mismatch is reported by the read which hits the end of the
+ * content, so a reader never sees the end of a corrupted object.
+ */
+public class FDSMd5VerifyingInputStream extends FilterInputStream {
+
+  private static final int MD5_LENGTH = 16;
+
+  private final MessageDigest messageDigest;
+  private final byte[] expectedMd5;
+  private final String objectName;
+  private boolean verified;
+
+  /**
+   * @param in          The content to verify
+   * @param expectedMd5 The MD5 digest of the whole content
+   * @param objectName  The name of the object, for error messages
+   */
+  public FDSMd5VerifyingInputStream(InputStream in, byte[] expectedMd5,
+      String objectName) {
+    super(in);
+    this.messageDigest = newMd5Digest();
+    this.expectedMd5 = expectedMd5;
+    this.objectName = objectName;
+  }
+
+  /**
+   * Decodes a content MD5 sent by the server, either in hex or in base64.
+   *
+   * @return The digest, or null if the value is not a MD5 digest, such as
+   *         the content MD5 of some multipart objects
+   */
+  public static byte[] decodeContentMd5(String contentMd5) {
+    if (contentMd5 == null) {
+      return null;
+    }
+    String value = contentMd5.trim();
+    try {
+      byte[] md5;
+      if (value.length() == MD5_LENGTH * 2) {
+        md5 = BaseEncoding.base16().decode(value.toUpperCase());
+      } else {
+        md5 = BaseEncoding.base64().decode(value);
+      }
+      return md5.length == MD5_LENGTH ? md5 : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Creates a MD5 digest, which every java platform provides.
+   */
+  public static MessageDigest newMd5Digest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 not supported", e);
+    }
+  }
+
+  /**
+   * Fails if the specified digest differs from the expected one.
+   */
+  public static void checkMd5(String objectName, byte[] expectedMd5,
+      byte[] actualMd5) throws IOException {
+    if (!Arrays.equals(expectedMd5, actualMd5)) {
+      throw new IOException("MD5 mismatch of object [" + objectName +
+          "], expect " + BaseEncoding.base16().lowerCase().encode(expectedMd5) +
+          ", got " + BaseEncoding.base16().lowerCase().encode(actualMd5));
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      messageDigest.update((byte) b);
+    } else {
+      verify();
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      messageDigest.update(b, off, read);
+    } else if (read < 0) {
+      verify();
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    // Skipped bytes still count in the digest
+    byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read < 0) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  private void verify() throws IOException {
+    if (!verified) {
+      verified = true;
+      checkMd5(objectName, expectedMd5, messageDigest.digest());
+    }
+  }
+}
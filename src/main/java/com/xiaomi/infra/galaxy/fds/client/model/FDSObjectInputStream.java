@@ -20,6 +20,23 @@ public class FDSObjectInputStream extends InputStream {
     this.wrappedStream = httpEntity.getContent();
   }
 
+  /**
+   * Creates a stream whose reads are all implemented by the subclass.
+   */
+  protected FDSObjectInputStream() {
+    this.httpEntity = null;
+    this.wrappedStream = null;
+  }
+
+  /**
+   * Creates a stream over content which is not read from an HTTP
+   * connection, such as a local copy of the object.
+   */
+  public FDSObjectInputStream(InputStream stream) {
+    this.httpEntity = null;
+    this.wrappedStream = stream;
+  }
+
   @Override
   public int read() throws IOException {
     return wrappedStream.read();
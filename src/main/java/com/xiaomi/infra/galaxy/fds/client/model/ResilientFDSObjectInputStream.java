@@ -0,0 +1,153 @@
+package com.xiaomi.infra.galaxy.fds.client.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+
+/**
+ * Object content stream which survives broken connections. The stream
+ * tracks the position of the reader in the object; when a read fails it
+ * requests the rest of the object again from that position with a ranged
+ * request and goes on reading, until a budget of reconnections is spent.
+ * The stream fails if the object was modified since it was opened.
+ */
+public abstract class ResilientFDSObjectInputStream extends FDSObjectInputStream {
+
+  private static final Log LOG = LogFactory.getLog(
+      ResilientFDSObjectInputStream.class);
+
+  private final String objectName;
+  private final Date lastModified;
+  private final long endPosition;
+  private InputStream current;
+  private long position;
+  private int retriesLeft;
+
+  /**
+   * @param object        The object as returned by the first request
+   * @param objectName    The name of the object, for error messages
+   * @param startPosition The position of the first byte of the content
+   * @param maxRetries    The max number of reconnections of this stream
+   */
+  protected ResilientFDSObjectInputStream(FDSObject object, String objectName,
+      long startPosition, int maxRetries) {
+    this.objectName = objectName;
+    this.current = object.getObjectContent();
+    this.lastModified = object.getObjectMetadata().getLastModified();
+    long contentLength = object.getObjectSummary() != null ?
+        object.getObjectSummary().getSize() : -1;
+    this.endPosition = contentLength >= 0 ? startPosition + contentLength : -1;
+    this.position = startPosition;
+    this.retriesLeft = maxRetries;
+  }
+
+  /**
+   * Requests the content of the object from the specified position.
+   *
+   * @param length The number of bytes to read, negative to read to the end
+   *               of the object
+   */
+  protected abstract FDSObject reopen(long position, long length)
+      throws GalaxyFDSClientException;
+
+  @Override
+  public int read() throws IOException {
+    while (true) {
+      try {
+        int b = current.read();
+        if (b >= 0) {
+          position++;
+        }
+        return b;
+      } catch (IOException e) {
+        reconnect(e);
+      }
+    }
+  }
+
+  @Override
+  public int read(byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    while (true) {
+      try {
+        int n = current.read(b, off, len);
+        if (n > 0) {
+          position += n;
+        }
+        return n;
+      } catch (IOException e) {
+        reconnect(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    current.close();
+  }
+
+  /**
+   * Returns the position of the next byte to read in the object.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Replaces the broken stream with a new one starting at the current
+   * position, or throws the read error once the budget is spent.
+   */
+  private void reconnect(IOException cause) throws IOException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw cause;
+    }
+    closeQuietly(current);
+    while (retriesLeft > 0) {
+      retriesLeft--;
+      LOG.warn("read of object [" + objectName + "] failed at position " +
+          position + ", reconnect, " + retriesLeft + " retries left", cause);
+      if (endPosition >= 0 && position >= endPosition) {
+        // Nothing left to read, the error hit the end of the content
+        current = new ByteArrayInputStream(new byte[0]);
+        return;
+      }
+      FDSObject object;
+      try {
+        object = reopen(position,
+            endPosition >= 0 ? endPosition - position : -1);
+      } catch (GalaxyFDSClientException e) {
+        LOG.warn("fail to reconnect to object [" + objectName + "]", e);
+        continue;
+      }
+      Date newLastModified = object.getObjectMetadata().getLastModified();
+      if (lastModified != null && newLastModified != null &&
+          !lastModified.equals(newLastModified)) {
+        closeQuietly(object.getObjectContent());
+        throw new IOException("object [" + objectName + "] modified while " +
+            "reading, last modified " + lastModified + " changed to " +
+            newLastModified, cause);
+      }
+      current = object.getObjectContent();
+      return;
+    }
+    throw cause;
+  }
+
+  private static void closeQuietly(InputStream stream) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // The connection is broken already
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+
+/**
+ * Outcome of a bulk download: the number of objects and bytes written, and
+ * the error of every object which could not be downloaded.
+ */
+public class BulkDownloadResult {
+
+  private long downloadedObjects;
+  private long downloadedBytes;
+  private final Map<String, GalaxyFDSClientException> failures =
+      new TreeMap<String, GalaxyFDSClientException>();
+
+  synchronized void objectDownloaded(long length) {
+    downloadedObjects++;
+    downloadedBytes += length;
+  }
+
+  synchronized void objectFailed(String objectName,
+      GalaxyFDSClientException error) {
+    failures.put(objectName, error);
+  }
+
+  public synchronized long getDownloadedObjectCount() {
+    return downloadedObjects;
+  }
+
+  public synchronized long getDownloadedBytes() {
+    return downloadedBytes;
+  }
+
+  /**
+   * Returns the error of each object which could not be downloaded, by
+   * object name.
+   */
+  public synchronized Map<String, GalaxyFDSClientException> getFailures() {
+    return Collections.unmodifiableMap(
+        new TreeMap<String, GalaxyFDSClientException>(failures));
+  }
+
+  /**
+   * Checks whether every listed object was downloaded.
+   */
+  public synchronized boolean isSuccessful() {
+    return failures.isEmpty();
+  }
+}
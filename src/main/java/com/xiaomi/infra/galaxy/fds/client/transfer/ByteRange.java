@@ -0,0 +1,56 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A range of bytes of an object, given by its offset and its length.
+ */
+public final class ByteRange {
+
+  private final long offset;
+  private final int length;
+
+  public ByteRange(long offset, int length) {
+    Preconditions.checkArgument(offset >= 0 && length > 0,
+        "invalid range, offset=" + offset + ", length=" + length);
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the offset following the last byte of the range.
+   */
+  public long getEnd() {
+    return offset + length;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ByteRange)) {
+      return false;
+    }
+    ByteRange other = (ByteRange) o;
+    return offset == other.offset && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (offset ^ (offset >>> 32)) + length;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + offset + ", " + getEnd() + ")";
+  }
+}
@@ -0,0 +1,115 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Append-only journal of one record per line backing the transfer
+ * checkpoints. Every record is synced to disk before the call returns. A
+ * record torn by a crash is left for the reader to skip, the next record
+ * starts on a new line.
+ */
+class CheckpointJournal {
+
+  private final File file;
+  private FileOutputStream stream;
+
+  private CheckpointJournal(File file, FileOutputStream stream) {
+    this.file = file;
+    this.stream = stream;
+  }
+
+  /**
+   * Creates an empty journal, any existing file at the same path is
+   * overwritten.
+   */
+  static CheckpointJournal create(File file) throws IOException {
+    return new CheckpointJournal(file, new FileOutputStream(file, false));
+  }
+
+  /**
+   * Opens an existing journal to append records to it.
+   */
+  static CheckpointJournal open(File file) throws IOException {
+    boolean torn = !endsWithNewLine(file);
+    CheckpointJournal journal = new CheckpointJournal(file,
+        new FileOutputStream(file, true));
+    if (torn) {
+      // Terminate the torn record so that new records start on a new line
+      journal.append("");
+    }
+    return journal;
+  }
+
+  /**
+   * Reads all the records of the journal.
+   *
+   * @return The records, or null if the journal does not exist
+   */
+  static List<String> readRecords(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    List<String> records = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), Charsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        records.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  private static boolean endsWithNewLine(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() == 0) {
+        return true;
+      }
+      raf.seek(raf.length() - 1);
+      return raf.read() == '\n';
+    } finally {
+      raf.close();
+    }
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  synchronized void append(String record) throws IOException {
+    stream.write((record + "\n").getBytes(Charsets.UTF_8));
+    stream.flush();
+    stream.getFD().sync();
+  }
+
+  synchronized void close() throws IOException {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+
+  /**
+   * Closes and removes the journal.
+   */
+  void delete() throws IOException {
+    close();
+    if (file.exists() && !file.delete()) {
+      throw new IOException("fail to delete checkpoint " + file.getPath());
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.base.Objects;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * Local journal of a resumable download, kept next to the target file. The
+ * first line of the journal records the range size and the version of the
+ * object, each following line records one byte range written to the target
+ * file. Ranges are recorded only once their data is on disk, and every
+ * record is synced to disk before the call returns.
+ */
+class DownloadCheckpoint {
+
+  private static final Log LOG = LogFactory.getLog(DownloadCheckpoint.class);
+
+  private static final Gson GSON = new Gson();
+
+  private final CheckpointJournal journal;
+  private final Header header;
+  private final Set<Long> completedRanges;
+
+  private DownloadCheckpoint(CheckpointJournal journal, Header header,
+      Set<Long> completedRanges) {
+    this.journal = journal;
+    this.header = header;
+    this.completedRanges = completedRanges;
+  }
+
+  /**
+   * Creates a new journal for the download of the specified version of an
+   * object, any existing journal at the same path is overwritten.
+   */
+  static DownloadCheckpoint create(File journalFile, String bucketName,
+      String objectName, FDSObjectMetadata metadata, long partSize)
+      throws IOException {
+    Header header = new Header();
+    header.bucketName = bucketName;
+    header.objectName = objectName;
+    header.objectLength = metadata.getContentLength();
+    Date lastModified = metadata.getLastModified();
+    header.lastModified = lastModified != null ? lastModified.getTime() : null;
+    header.contentMD5 = metadata.getContentMD5();
+    header.partSize = partSize;
+
+    CheckpointJournal journal = CheckpointJournal.create(journalFile);
+    journal.append(GSON.toJson(header));
+    return new DownloadCheckpoint(journal, header, new TreeSet<Long>());
+  }
+
+  /**
+   * Loads the journal at the specified path.
+   *
+   * @return The loaded checkpoint, or null if the journal does not exist or
+   *         has no valid header
+   */
+  static DownloadCheckpoint load(File journalFile) throws IOException {
+    List<String> records = CheckpointJournal.readRecords(journalFile);
+    if (records == null) {
+      return null;
+    }
+
+    Header header = null;
+    Set<Long> completedRanges = new TreeSet<Long>();
+    for (String record : records) {
+      try {
+        if (header == null) {
+          header = GSON.fromJson(record, Header.class);
+          if (header == null || header.objectName == null) {
+            return null;
+          }
+        } else {
+          Range range = GSON.fromJson(record, Range.class);
+          if (range != null) {
+            completedRanges.add(range.offset);
+          }
+        }
+      } catch (JsonParseException e) {
+        // A record is torn if the process died while writing it, the range
+        // is simply downloaded again
+        LOG.warn("ignore corrupted record in download checkpoint " +
+            journalFile.getPath());
+      }
+    }
+    if (header == null) {
+      return null;
+    }
+    return new DownloadCheckpoint(CheckpointJournal.open(journalFile), header,
+        completedRanges);
+  }
+
+  /**
+   * Checks whether this checkpoint was created for the same version of the
+   * specified object, the version is identified by the length, the last
+   * modified time and the content MD5 of the object.
+   */
+  boolean matches(String bucketName, String objectName,
+      FDSObjectMetadata metadata) {
+    Date lastModified = metadata.getLastModified();
+    return header.bucketName.equals(bucketName) &&
+        header.objectName.equals(objectName) &&
+        header.objectLength == metadata.getContentLength() &&
+        Objects.equal(header.lastModified,
+            lastModified != null ? lastModified.getTime() : null) &&
+        Objects.equal(header.contentMD5, metadata.getContentMD5());
+  }
+
+  long getObjectLength() {
+    return header.objectLength;
+  }
+
+  long getPartSize() {
+    return header.partSize;
+  }
+
+  synchronized boolean isRangeCompleted(long offset) {
+    return completedRanges.contains(offset);
+  }
+
+  synchronized int getCompletedRangeCount() {
+    return completedRanges.size();
+  }
+
+  /**
+   * Records a range written to the target file, the record is on disk when
+   * this returns. The caller must have forced the range data to disk.
+   */
+  synchronized void rangeCompleted(long offset, long length)
+      throws IOException {
+    Range range = new Range();
+    range.offset = offset;
+    range.length = length;
+    journal.append(GSON.toJson(range));
+    completedRanges.add(offset);
+  }
+
+  void close() throws IOException {
+    journal.close();
+  }
+
+  /**
+   * Closes and removes the journal, called once the download is completed.
+   */
+  void delete() throws IOException {
+    journal.delete();
+  }
+
+  private static class Header {
+    private String bucketName;
+    private String objectName;
+    private long objectLength;
+    private Long lastModified;
+    private String contentMD5;
+    private long partSize;
+  }
+
+  private static class Range {
+    private long offset;
+    private long length;
+  }
+}
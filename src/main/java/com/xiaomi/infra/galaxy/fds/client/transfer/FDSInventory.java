@@ -0,0 +1,341 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.model.Owner;
+
+/**
+ * Inventory of the objects under a prefix of a bucket exported to a local
+ * directory by {@link FDSInventoryExporter}. The objects are stored in name
+ * order in gzip compressed segment files of a bounded number of objects.
+ * The index journal lists the segments with their first and last names, so
+ * that an object is found by a binary search over the segments and the scan
+ * of a single one.
+ *
+ * The index journal also records the progress of the export: a segment is
+ * recorded once its file is on disk, and the end of the export is recorded
+ * last with its time. An inventory is not updated after its export, it
+ * misses the changes made since the listing passed their names.
+ */
+public class FDSInventory {
+
+  private static final Log LOG = LogFactory.getLog(FDSInventory.class);
+
+  private static final String INDEX_FILE_NAME = "inventory.index";
+
+  private static final Gson GSON = new Gson();
+
+  // The order of the listings, the UTF-8 bytes of the names
+  private static final Comparator<byte[]> NAME_ORDER =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final File directory;
+  private final Header header;
+  private final List<Segment> segments;
+  private final Segment end;
+
+  private FDSInventory(File directory, Header header, List<Segment> segments,
+      Segment end) {
+    this.directory = directory;
+    this.header = header;
+    this.segments = segments;
+    this.end = end;
+  }
+
+  /**
+   * Loads the inventory exported to the specified directory.
+   *
+   * @return The inventory, or null if the directory has no valid index
+   */
+  public static FDSInventory load(File directory) throws IOException {
+    File indexFile = getIndexFile(directory);
+    List<String> records = CheckpointJournal.readRecords(indexFile);
+    if (records == null) {
+      return null;
+    }
+
+    Header header = null;
+    List<Segment> segments = new ArrayList<Segment>();
+    Segment end = null;
+    for (String record : records) {
+      try {
+        if (header == null) {
+          header = GSON.fromJson(record, Header.class);
+          if (header == null || header.bucketName == null) {
+            return null;
+          }
+        } else {
+          Segment segment = GSON.fromJson(record, Segment.class);
+          if (segment == null) {
+            continue;
+          }
+          if (segment.complete) {
+            end = segment;
+          } else if (segment.index == segments.size()) {
+            segments.add(segment);
+          }
+        }
+      } catch (JsonParseException e) {
+        // A record is torn if the process died while writing it, its
+        // segment is simply written again
+        LOG.warn("ignore corrupted record in inventory index " +
+            indexFile.getPath());
+      }
+    }
+    if (header == null) {
+      return null;
+    }
+    return new FDSInventory(directory, header, segments, end);
+  }
+
+  /**
+   * Starts a new index journal for the export of the objects under a prefix
+   * of a bucket, any existing index in the directory is overwritten.
+   */
+  static CheckpointJournal createIndex(File directory, String bucketName,
+      String prefix) throws IOException {
+    Header header = new Header();
+    header.bucketName = bucketName;
+    header.prefix = prefix;
+    CheckpointJournal journal = CheckpointJournal.create(
+        getIndexFile(directory));
+    journal.append(GSON.toJson(header));
+    return journal;
+  }
+
+  /**
+   * Records a segment whose file is on disk.
+   */
+  static void recordSegment(CheckpointJournal journal, int index,
+      String firstName, String lastName, long objectCount) throws IOException {
+    Segment segment = new Segment();
+    segment.index = index;
+    segment.firstName = firstName;
+    segment.lastName = lastName;
+    segment.objectCount = objectCount;
+    journal.append(GSON.toJson(segment));
+  }
+
+  /**
+   * Records the end of the export.
+   */
+  static void recordComplete(CheckpointJournal journal) throws IOException {
+    Segment end = new Segment();
+    end.complete = true;
+    end.completedTime = System.currentTimeMillis();
+    journal.append(GSON.toJson(end));
+  }
+
+  static File getIndexFile(File directory) {
+    return new File(directory, INDEX_FILE_NAME);
+  }
+
+  static File getSegmentFile(File directory, int index) {
+    return new File(directory, String.format("segment-%06d.gz", index));
+  }
+
+  public String getBucketName() {
+    return header.bucketName;
+  }
+
+  /**
+   * Returns the prefix of the exported objects, empty for the whole bucket.
+   */
+  public String getPrefix() {
+    return Strings.nullToEmpty(header.prefix);
+  }
+
+  /**
+   * Returns whether all the objects were exported, an incomplete inventory
+   * is resumed by exporting it again.
+   */
+  public boolean isComplete() {
+    return end != null;
+  }
+
+  /**
+   * Returns the time the export completed, or null if it is not complete
+   * or was completed by a version which did not record it.
+   */
+  public Date getCompletedTime() {
+    return end != null && end.completedTime > 0 ?
+        new Date(end.completedTime) : null;
+  }
+
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Returns the number of objects in the exported segments.
+   */
+  public long getObjectCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.objectCount;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the name of the last object exported, or null if there is none.
+   */
+  public String getLastObjectName() {
+    return segments.isEmpty() ? null :
+        segments.get(segments.size() - 1).lastName;
+  }
+
+  /**
+   * Finds an object by name, only the segment which may hold it is read.
+   *
+   * @return The summary of the object, or null if it is not in the
+   *         inventory
+   */
+  public FDSObjectSummary find(String objectName) throws IOException {
+    byte[] name = objectName.getBytes(Charsets.UTF_8);
+    // Last segment whose first name is not greater than the searched one
+    int low = 0;
+    int high = segments.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      byte[] firstName = segments.get(middle).firstName.getBytes(
+          Charsets.UTF_8);
+      if (NAME_ORDER.compare(firstName, name) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    if (high < 0 || NAME_ORDER.compare(name,
+        segments.get(high).lastName.getBytes(Charsets.UTF_8)) > 0) {
+      return null;
+    }
+
+    DataInputStream input = openSegment(high);
+    try {
+      for (long i = 0; i < segments.get(high).objectCount; i++) {
+        FDSObjectSummary summary = readObject(input, header.bucketName);
+        int comparison = NAME_ORDER.compare(
+            summary.getObjectName().getBytes(Charsets.UTF_8), name);
+        if (comparison == 0) {
+          return summary;
+        }
+        if (comparison > 0) {
+          break;
+        }
+      }
+      return null;
+    } catch (EOFException e) {
+      throw truncatedSegment(high, e);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Hands all the objects of the inventory to the visitor, in name order.
+   * One segment is read at a time.
+   */
+  public void scan(FDSObjectVisitor visitor) throws IOException {
+    for (int i = 0; i < segments.size(); i++) {
+      readSegment(i, visitor);
+    }
+  }
+
+  private void readSegment(int index, FDSObjectVisitor visitor)
+      throws IOException {
+    DataInputStream input = openSegment(index);
+    try {
+      for (long i = 0; i < segments.get(index).objectCount; i++) {
+        visitor.visitObject(readObject(input, header.bucketName));
+      }
+    } catch (EOFException e) {
+      throw truncatedSegment(index, e);
+    } finally {
+      input.close();
+    }
+  }
+
+  private DataInputStream openSegment(int index) throws IOException {
+    return new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+        new FileInputStream(getSegmentFile(directory, index)))));
+  }
+
+  private IOException truncatedSegment(int index, EOFException e) {
+    return new IOException("inventory segment " + index + " in " +
+        directory.getPath() + " is truncated", e);
+  }
+
+  static FDSObjectSummary readObject(DataInputStream input, String bucketName)
+      throws IOException {
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setBucketName(bucketName);
+    summary.setObjectName(input.readUTF());
+    summary.setSize(input.readLong());
+    if (input.readBoolean()) {
+      summary.setOwner(new Owner(readNullableUTF(input),
+          readNullableUTF(input)));
+    }
+    return summary;
+  }
+
+  static void writeObject(DataOutputStream output,
+      FDSObjectSummary summary) throws IOException {
+    output.writeUTF(summary.getObjectName());
+    output.writeLong(summary.getSize());
+    Owner owner = summary.getOwner();
+    output.writeBoolean(owner != null);
+    if (owner != null) {
+      writeNullableUTF(output, owner.getId());
+      writeNullableUTF(output, owner.getDisplayName());
+    }
+  }
+
+  private static String readNullableUTF(DataInputStream input)
+      throws IOException {
+    return input.readBoolean() ? input.readUTF() : null;
+  }
+
+  private static void writeNullableUTF(DataOutputStream output,
+      String value) throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeUTF(value);
+    }
+  }
+
+  private static class Header {
+    private String bucketName;
+    private String prefix;
+  }
+
+  private static class Segment {
+    private int index;
+    private String firstName;
+    private String lastName;
+    private long objectCount;
+    private boolean complete;
+    private long completedTime;
+  }
+}
@@ -0,0 +1,231 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+/**
+ * Exports the names, sizes and owners of the objects under a prefix of a
+ * bucket to a local directory, see {@link FDSInventory} for the layout.
+ *
+ * Listings return the objects in name order, so the pages are streamed to
+ * the segment files as they arrive, without sorting: the heap holds one page
+ * and the buffers of one segment, whatever the size of the bucket. Every
+ * segment is synced to disk before it is recorded in the index, an export
+ * which was interrupted resumes after the last object of the last recorded
+ * segment.
+ */
+public class FDSInventoryExporter {
+
+  private static final Log LOG = LogFactory.getLog(FDSInventoryExporter.class);
+
+  /**
+   * number of objects per segment, a lookup reads one segment
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+  /**
+   * number of objects per listing page
+   */
+  public static final int DEFAULT_PAGE_SIZE = 1000;
+
+  private final GalaxyFDS fdsClient;
+  private final int segmentSize;
+  private final int pageSize;
+
+  public FDSInventoryExporter(GalaxyFDS fdsClient) {
+    this(fdsClient, DEFAULT_SEGMENT_SIZE, DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * @param fdsClient   The client the objects are listed with
+   * @param segmentSize The number of objects per segment file
+   * @param pageSize    The number of objects per listing page
+   */
+  public FDSInventoryExporter(GalaxyFDS fdsClient, int segmentSize,
+      int pageSize) {
+    Preconditions.checkNotNull(fdsClient);
+    Preconditions.checkArgument(segmentSize > 0,
+        "segment size should be positive, got " + segmentSize);
+    Preconditions.checkArgument(pageSize > 0,
+        "page size should be positive, got " + pageSize);
+    this.fdsClient = fdsClient;
+    this.segmentSize = segmentSize;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Exports the objects under a prefix of a bucket to the specified
+   * directory. An incomplete export of the same prefix found in the
+   * directory is resumed, a complete one is returned as is however old it
+   * is: check {@link FDSInventory#getCompletedTime()}, or export with the
+   * fresh option to list the objects again. Any other inventory in the
+   * directory is replaced.
+   *
+   * @param prefix The prefix of the objects to export, null or empty for
+   *               the whole bucket
+   * @return The complete inventory
+   */
+  public FDSInventory export(String bucketName, String prefix,
+      File directory) throws GalaxyFDSClientException {
+    return export(bucketName, prefix, directory, false);
+  }
+
+  /**
+   * Exports the objects under a prefix of a bucket to the specified
+   * directory, see {@link #export(String, String, File)}.
+   *
+   * @param fresh Whether to start a new export even if the directory holds
+   *              an export of the same prefix, complete or not
+   * @return The complete inventory
+   */
+  public FDSInventory export(String bucketName, String prefix,
+      File directory, boolean fresh) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(bucketName);
+    // The index drops null fields, the whole bucket has the empty prefix
+    prefix = Strings.nullToEmpty(prefix);
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new GalaxyFDSClientException("fail to create inventory " +
+            "directory " + directory.getPath());
+      }
+      FDSInventory previous = fresh ? null : FDSInventory.load(directory);
+      if (previous != null && previous.getBucketName().equals(bucketName) &&
+          previous.getPrefix().equals(prefix)) {
+        if (previous.isComplete()) {
+          return previous;
+        }
+        LOG.info("resume inventory of bucket [" + bucketName + "] with " +
+            "prefix [" + prefix + "] after object [" +
+            previous.getLastObjectName() + "]");
+        exportFrom(bucketName, prefix, directory,
+            CheckpointJournal.open(FDSInventory.getIndexFile(directory)),
+            previous.getSegmentCount(), previous.getLastObjectName());
+      } else {
+        exportFrom(bucketName, prefix, directory,
+            FDSInventory.createIndex(directory, bucketName, prefix), 0, null);
+      }
+      return FDSInventory.load(directory);
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to export inventory of " +
+          "bucket [" + bucketName + "] with prefix [" + prefix + "] to " +
+          directory.getPath(), e);
+    }
+  }
+
+  /**
+   * Lists the objects after the specified marker into new segments.
+   */
+  private void exportFrom(String bucketName, String prefix, File directory,
+      CheckpointJournal index, int segmentIndex, String marker)
+      throws GalaxyFDSClientException, IOException {
+    SegmentWriter writer = null;
+    try {
+      FDSObjectListing listing;
+      if (marker == null) {
+        listing = fdsClient.listObjects(bucketName, prefix, "", pageSize);
+      } else {
+        FDSObjectListing start = new FDSObjectListing();
+        start.setBucketName(bucketName);
+        start.setPrefix(prefix);
+        start.setDelimiter("");
+        start.setNextMarker(marker);
+        start.setMaxKeys(pageSize);
+        start.setTruncated(true);
+        listing = fdsClient.listNextBatchOfObjects(start);
+      }
+
+      while (listing != null) {
+        List<FDSObjectSummary> summaries = listing.getObjectSummaries();
+        if (summaries != null) {
+          for (FDSObjectSummary summary : summaries) {
+            if (writer == null) {
+              writer = new SegmentWriter(
+                  FDSInventory.getSegmentFile(directory, segmentIndex));
+            }
+            writer.write(summary);
+            if (writer.objectCount == segmentSize) {
+              writer.finish(index, segmentIndex++);
+              writer = null;
+            }
+          }
+        }
+        listing = listing.isTruncated() ?
+            fdsClient.listNextBatchOfObjects(listing) : null;
+      }
+      if (writer != null) {
+        writer.finish(index, segmentIndex);
+        writer = null;
+      }
+      FDSInventory.recordComplete(index);
+    } finally {
+      if (writer != null) {
+        writer.abort();
+      }
+      index.close();
+    }
+  }
+
+  /**
+   * Writes the objects of one segment file.
+   */
+  private static class SegmentWriter {
+
+    private final FileOutputStream file;
+    private final GZIPOutputStream gzip;
+    private final DataOutputStream output;
+    private String firstName;
+    private String lastName;
+    private long objectCount;
+
+    SegmentWriter(File segmentFile) throws IOException {
+      this.file = new FileOutputStream(segmentFile, false);
+      this.gzip = new GZIPOutputStream(file);
+      this.output = new DataOutputStream(new BufferedOutputStream(gzip));
+    }
+
+    void write(FDSObjectSummary summary) throws IOException {
+      if (firstName == null) {
+        firstName = summary.getObjectName();
+      }
+      lastName = summary.getObjectName();
+      FDSInventory.writeObject(output, summary);
+      objectCount++;
+    }
+
+    /**
+     * Closes the segment file once synced to disk, and records it.
+     */
+    void finish(CheckpointJournal index, int segmentIndex)
+        throws IOException {
+      output.flush();
+      gzip.finish();
+      file.getFD().sync();
+      output.close();
+      FDSInventory.recordSegment(index, segmentIndex, firstName, lastName,
+          objectCount);
+    }
+
+    void abort() {
+      try {
+        output.close();
+      } catch (IOException e) {
+        // The segment is not recorded, it is written again on resume
+      }
+    }
+  }
+}
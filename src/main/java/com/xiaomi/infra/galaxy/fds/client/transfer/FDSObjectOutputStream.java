@@ -0,0 +1,401 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+import com.xiaomi.infra.galaxy.fds.result.PutObjectResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResultList;
+
+/**
+ * Output stream writing the content of an FDS object. Written bytes are
+ * collected in part buffers, full parts are uploaded in the background
+ * through the multipart upload APIs and the object is committed when the
+ * stream is closed. An object which fits in a single part is sent with a
+ * single put request instead.
+ *
+ * Nothing is visible in FDS before {@link #close()} returns, call
+ * {@link #abort()} to discard the written content. {@link #flush()} does
+ * not send partial parts. Instances are not thread safe.
+ *
+ * An open stream holds the buffer of its current part between writes, so at
+ * most {@link PartBufferPool#getCapacity()} streams may be open on the same
+ * pool at once, see {@link PartBufferPool}. Every stream must be closed or
+ * aborted to give its place back.
+ */
+public class FDSObjectOutputStream extends OutputStream
+    implements WritableByteChannel {
+
+  private static final Log LOG = LogFactory.getLog(FDSObjectOutputStream.class);
+
+  private final GalaxyFDS fdsClient;
+  private final String bucketName;
+  private final String objectName;
+  private final FDSObjectMetadata metadata;
+  private final ExecutorService executor;
+  private final PartBufferPool bufferPool;
+
+  private final AtomicBoolean failed = new AtomicBoolean(false);
+  private final List<Future<UploadPartResult>> futures =
+      new ArrayList<Future<UploadPartResult>>();
+  private final List<Runnable> closeListeners = new ArrayList<Runnable>();
+  private byte[] buffer;
+  private int count;
+  private String uploadId;
+  private boolean closed;
+  private PutObjectResult putObjectResult;
+
+  /**
+   * Creates a stream which uploads its parts with the specified executor and
+   * takes its part buffers from the specified pool, both may be shared with
+   * other streams.
+   *
+   * @throws IllegalStateException if as many streams as the capacity of the
+   *                               pool are already open on it
+   */
+  public FDSObjectOutputStream(GalaxyFDS fdsClient, String bucketName,
+      String objectName, FDSObjectMetadata metadata, ExecutorService executor,
+      PartBufferPool bufferPool) {
+    this(fdsClient, bucketName, objectName, metadata, executor, bufferPool,
+        false);
+  }
+
+  /**
+   * @param writerAdded Whether the caller already registered the stream as a
+   *                    writer of the pool
+   */
+  FDSObjectOutputStream(GalaxyFDS fdsClient, String bucketName,
+      String objectName, FDSObjectMetadata metadata, ExecutorService executor,
+      PartBufferPool bufferPool, boolean writerAdded) {
+    Preconditions.checkState(writerAdded || bufferPool.tryAddWriter(),
+        "%s streams are already open on the part buffer pool",
+        bufferPool.getCapacity());
+    this.fdsClient = fdsClient;
+    this.bucketName = bucketName;
+    this.objectName = objectName;
+    this.metadata = metadata;
+    this.executor = executor;
+    this.bufferPool = bufferPool;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureWritable();
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    while (len > 0) {
+      ensureWritable();
+      int n = Math.min(len, buffer.length - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    int written = 0;
+    while (src.hasRemaining()) {
+      ensureWritable();
+      int n = Math.min(src.remaining(), buffer.length - count);
+      src.get(buffer, count, n);
+      count += n;
+      written += n;
+    }
+    return written;
+  }
+
+  /**
+   * Reads the specified stream to its end straight into the part buffers of
+   * this stream. The input stream is not closed.
+   *
+   * @return The number of bytes transferred
+   */
+  public long transferFrom(InputStream input) throws IOException {
+    long total = 0;
+    while (true) {
+      if (buffer != null && count == buffer.length) {
+        // Ship the full buffer only if more content follows, so that an
+        // object of exactly one part is still sent with a single request
+        int nextByte = input.read();
+        if (nextByte < 0) {
+          return total;
+        }
+        write(nextByte);
+        total++;
+        continue;
+      }
+      ensureWritable();
+      int n = input.read(buffer, count, buffer.length - count);
+      if (n < 0) {
+        return total;
+      }
+      count += n;
+      total += n;
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Sends the remaining content and commits the object.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      checkNotFailed();
+      if (uploadId == null) {
+        byte[] content = buffer != null ? buffer : new byte[0];
+        putObjectResult = fdsClient.putObject(bucketName, objectName,
+            new ByteArrayInputStream(content, 0, count), metadata);
+      } else {
+        if (count > 0) {
+          shipPart();
+        }
+        List<UploadPartResult> results = new ArrayList<UploadPartResult>(
+            futures.size());
+        for (Future<UploadPartResult> future : futures) {
+          results.add(future.get());
+        }
+        UploadPartResultList resultList = new UploadPartResultList();
+        resultList.setUploadPartResultList(results);
+        putObjectResult = fdsClient.completeMultipartUpload(bucketName,
+            objectName, uploadId, metadata, resultList);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abortUpload();
+      InterruptedIOException ioe = new InterruptedIOException("upload of object [" +
+          objectName + "] to bucket [" + bucketName + "] interrupted");
+      ioe.initCause(e);
+      throw ioe;
+    } catch (ExecutionException e) {
+      abortUpload();
+      throw new IOException(FDSTransferManager.toClientException(e));
+    } catch (GalaxyFDSClientException e) {
+      abortUpload();
+      throw new IOException(e);
+    } catch (IOException e) {
+      abortUpload();
+      throw e;
+    } catch (RuntimeException e) {
+      abortUpload();
+      throw e;
+    } finally {
+      releaseResources();
+    }
+  }
+
+  /**
+   * Discards the content written so far, nothing is committed to FDS. Does
+   * nothing if the stream is already closed.
+   */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      abortUpload();
+    } finally {
+      releaseResources();
+    }
+  }
+
+  /**
+   * Registers a task run once the stream is closed or aborted, after the
+   * object is committed or the upload is abandoned. Tasks run in the order
+   * they were added, on the thread closing the stream.
+   */
+  public void addCloseListener(Runnable listener) {
+    Preconditions.checkNotNull(listener);
+    closeListeners.add(listener);
+  }
+
+  /**
+   * Returns the result of the put operation, available once the stream is
+   * closed successfully.
+   */
+  public PutObjectResult getPutObjectResult() {
+    return putObjectResult;
+  }
+
+  private void ensureWritable() throws IOException {
+    if (closed) {
+      throw new IOException("stream of object [" + objectName + "] closed");
+    }
+    if (buffer != null && count == buffer.length) {
+      shipPart();
+    }
+    if (buffer == null) {
+      try {
+        buffer = bufferPool.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ioe = new InterruptedIOException(
+            "interrupted while waiting for an upload buffer");
+        ioe.initCause(e);
+        throw ioe;
+      }
+      count = 0;
+    }
+  }
+
+  private void shipPart() throws IOException {
+    checkNotFailed();
+    int partNumber = futures.size() + 1;
+    if (partNumber > FDSTransferManager.MAX_PART_NUMBER) {
+      throw new IOException("object [" + objectName + "] exceeds " +
+          FDSTransferManager.MAX_PART_NUMBER + " parts of " +
+          bufferPool.getBufferSize() + " bytes");
+    }
+    if (uploadId == null) {
+      try {
+        uploadId = fdsClient.initMultipartUpload(bucketName, objectName)
+            .getUploadId();
+      } catch (GalaxyFDSClientException e) {
+        throw new IOException(e);
+      }
+    }
+    try {
+      futures.add(executor.submit(new UploadPartTask(partNumber, buffer,
+          count)));
+    } catch (RejectedExecutionException e) {
+      throw new IOException("fail to upload part " + partNumber +
+          " of object [" + objectName + "], upload threads shut down", e);
+    }
+    buffer = null;
+    count = 0;
+  }
+
+  /**
+   * Fails fast with the error of a background part upload.
+   */
+  private void checkNotFailed() throws IOException {
+    if (!failed.get()) {
+      return;
+    }
+    for (Future<UploadPartResult> future : futures) {
+      if (future.isDone()) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw new IOException(FDSTransferManager.toClientException(e));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    throw new IOException("upload of object [" + objectName + "] failed");
+  }
+
+  /**
+   * Lets the pending part tasks skip their upload, then aborts the upload
+   * once no part is in flight.
+   */
+  private void abortUpload() {
+    failed.set(true);
+    boolean interrupted = false;
+    for (Future<UploadPartResult> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (uploadId != null) {
+      try {
+        fdsClient.abortMultipartUpload(bucketName, objectName, uploadId);
+      } catch (GalaxyFDSClientException e) {
+        LOG.warn("fail to abort multipart upload of object [" + objectName +
+            "] to bucket [" + bucketName + "], upload id [" + uploadId + "]",
+            e);
+      }
+    }
+  }
+
+  private void releaseResources() {
+    if (buffer != null) {
+      bufferPool.release(buffer);
+      buffer = null;
+    }
+    bufferPool.removeWriter();
+    for (Runnable listener : closeListeners) {
+      listener.run();
+    }
+  }
+
+  private class UploadPartTask implements Callable<UploadPartResult> {
+
+    private final int partNumber;
+    private final byte[] partBuffer;
+    private final int length;
+
+    UploadPartTask(int partNumber, byte[] partBuffer, int length) {
+      this.partNumber = partNumber;
+      this.partBuffer = partBuffer;
+      this.length = length;
+    }
+
+    @Override
+    public UploadPartResult call() throws Exception {
+      try {
+        if (failed.get()) {
+          return null;
+        }
+        return fdsClient.uploadPart(bucketName, objectName, uploadId,
+            partNumber, new ByteArrayInputStream(partBuffer, 0, length));
+      } catch (Exception e) {
+        failed.set(true);
+        throw e;
+      } finally {
+        bufferPool.release(partBuffer);
+      }
+    }
+  }
+}
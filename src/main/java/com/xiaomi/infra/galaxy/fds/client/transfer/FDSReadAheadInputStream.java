@@ -0,0 +1,161 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * Input stream reading an FDS object sequentially while the following
+ * blocks of the object are fetched in parallel. Up to a window of ranged
+ * requests is kept in flight ahead of the reader, the blocks are still
+ * returned strictly in order. The stream fails if the object is modified
+ * while it is read.
+ *
+ * Instances are not thread safe.
+ */
+public class FDSReadAheadInputStream extends InputStream {
+
+  private final GalaxyFDS fdsClient;
+  private final String bucketName;
+  private final String objectName;
+  private final FDSObjectMetadata metadata;
+  private final ExecutorService executor;
+  private final int blockSize;
+  private final int window;
+  private final long objectLength;
+
+  private final Deque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+  private long nextFetchOffset;
+  private byte[] block;
+  private int blockPosition;
+  private boolean closed;
+
+  /**
+   * Creates a stream over the version of the object described by the
+   * specified metadata, which must carry the length of the object.
+   *
+   * @param executor  The executor fetching the blocks, may be shared
+   * @param blockSize The size of each ranged request
+   * @param window    The number of blocks kept in flight ahead of the reader
+   */
+  public FDSReadAheadInputStream(GalaxyFDS fdsClient, String bucketName,
+      String objectName, FDSObjectMetadata metadata, ExecutorService executor,
+      int blockSize, int window) {
+    Preconditions.checkArgument(metadata.getContentLength() >= 0,
+        "length of object " + objectName + " unknown");
+    Preconditions.checkArgument(blockSize > 0 && window > 0,
+        "invalid read ahead, block size=" + blockSize + ", window=" + window);
+    this.fdsClient = fdsClient;
+    this.bucketName = bucketName;
+    this.objectName = objectName;
+    this.metadata = metadata;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.window = window;
+    this.objectLength = metadata.getContentLength();
+    fillWindow();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureBlock()) {
+      return -1;
+    }
+    return block[blockPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkPositionIndexes(off, off + len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    if (!ensureBlock()) {
+      return -1;
+    }
+    int n = Math.min(len, block.length - blockPosition);
+    System.arraycopy(block, blockPosition, b, off, n);
+    blockPosition += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return block != null ? block.length - blockPosition : 0;
+  }
+
+  /**
+   * Cancels the blocks in flight.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Future<byte[]> future : inFlight) {
+      future.cancel(true);
+    }
+    inFlight.clear();
+    block = null;
+  }
+
+  /**
+   * Moves to the next block once the current one is consumed.
+   *
+   * @return false at the end of the object
+   */
+  private boolean ensureBlock() throws IOException {
+    if (closed) {
+      throw new IOException("stream of object [" + objectName + "] closed");
+    }
+    while (block == null || blockPosition == block.length) {
+      Future<byte[]> future = inFlight.poll();
+      if (future == null) {
+        block = null;
+        return false;
+      }
+      try {
+        block = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ioe = new InterruptedIOException(
+            "read of object [" + objectName + "] interrupted");
+        ioe.initCause(e);
+        throw ioe;
+      } catch (ExecutionException e) {
+        throw new IOException("fail to read object [" + objectName +
+            "] from bucket [" + bucketName + "]", e.getCause());
+      }
+      blockPosition = 0;
+      fillWindow();
+    }
+    return true;
+  }
+
+  private void fillWindow() {
+    while (inFlight.size() < window && nextFetchOffset < objectLength) {
+      final long offset = nextFetchOffset;
+      final int length = (int) Math.min(blockSize, objectLength - offset);
+      inFlight.add(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return FDSTransferManager.readRange(fdsClient, bucketName,
+              objectName, metadata, offset, length);
+        }
+      }));
+      nextFetchOffset += length;
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+import com.xiaomi.infra.galaxy.fds.client.FDSClientConfiguration;
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+/**
+ * Random access channel over an FDS object. The object is read in fixed
+ * size blocks fetched with bounded ranged requests, the most recently used
+ * blocks are kept in a cache so that moving the position and reading again
+ * only fetches the blocks not read recently. The channel fails if the
+ * object is modified while it is read.
+ *
+ * The channel follows the contract of SeekableByteChannel for reads, it is
+ * read only and not thread safe.
+ */
+public class FDSSeekableChannel implements ReadableByteChannel {
+
+  private final GalaxyFDS fdsClient;
+  private final String bucketName;
+  private final String objectName;
+  private final FDSObjectMetadata metadata;
+  private final int blockSize;
+  private final long size;
+  private final Map<Long, byte[]> blockCache;
+
+  private long position;
+  private boolean open = true;
+
+  /**
+   * Creates a channel over the version of the object described by the
+   * specified metadata, which must carry the length of the object.
+   *
+   * @param blockSize   The size of each ranged request
+   * @param cacheBlocks The number of blocks kept in the cache
+   */
+  public FDSSeekableChannel(GalaxyFDS fdsClient, String bucketName,
+      String objectName, FDSObjectMetadata metadata, int blockSize,
+      final int cacheBlocks) {
+    Preconditions.checkArgument(metadata.getContentLength() >= 0,
+        "length of object " + objectName + " unknown");
+    Preconditions.checkArgument(blockSize > 0 && cacheBlocks > 0,
+        "invalid block cache, block size=" + blockSize + ", blocks=" +
+            cacheBlocks);
+    this.fdsClient = fdsClient;
+    this.bucketName = bucketName;
+    this.objectName = objectName;
+    this.metadata = metadata;
+    this.blockSize = blockSize;
+    this.size = metadata.getContentLength();
+    this.blockCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+        return size() > cacheBlocks;
+      }
+    };
+  }
+
+  /**
+   * Opens a channel over the current version of the specified object, with
+   * the block size and cache size of the specified configuration.
+   */
+  public static FDSSeekableChannel open(GalaxyFDS fdsClient,
+      FDSClientConfiguration fdsConfig, String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    FDSObjectMetadata metadata = fdsClient.getObjectMetadata(bucketName,
+        objectName);
+    if (metadata.getContentLength() < 0) {
+      throw new GalaxyFDSClientException("length of object [" + objectName +
+          "] in bucket [" + bucketName + "] unknown");
+    }
+    return new FDSSeekableChannel(fdsClient, bucketName, objectName,
+        metadata, fdsConfig.getRandomAccessBlockSize(),
+        fdsConfig.getRandomAccessCacheBlocks());
+  }
+
+  /**
+   * Reads from the current position, fetching the blocks missing from the
+   * cache.
+   *
+   * @return The number of bytes read, or -1 at the end of the object
+   */
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    checkOpen();
+    if (position >= size) {
+      return -1;
+    }
+    int total = 0;
+    while (dst.hasRemaining() && position < size) {
+      long blockIndex = position / blockSize;
+      byte[] block = getBlock(blockIndex);
+      int blockOffset = (int) (position - blockIndex * blockSize);
+      int n = Math.min(dst.remaining(), block.length - blockOffset);
+      dst.put(block, blockOffset, n);
+      position += n;
+      total += n;
+    }
+    return total;
+  }
+
+  public long position() throws IOException {
+    checkOpen();
+    return position;
+  }
+
+  /**
+   * Sets the position of the next read, a position at or beyond the end of
+   * the object makes reads return -1.
+   */
+  public FDSSeekableChannel position(long newPosition) throws IOException {
+    checkOpen();
+    Preconditions.checkArgument(newPosition >= 0,
+        "invalid position " + newPosition);
+    position = newPosition;
+    return this;
+  }
+
+  public long size() throws IOException {
+    checkOpen();
+    return size;
+  }
+
+  public FDSObjectMetadata getObjectMetadata() {
+    return metadata;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    blockCache.clear();
+  }
+
+  private void checkOpen() throws ClosedChannelException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private byte[] getBlock(long blockIndex) throws IOException {
+    byte[] block = blockCache.get(blockIndex);
+    if (block == null) {
+      long offset = blockIndex * blockSize;
+      int length = (int) Math.min(blockSize, size - offset);
+      try {
+        block = FDSTransferManager.readRange(fdsClient, bucketName, objectName,
+            metadata, offset, length);
+      } catch (GalaxyFDSClientException e) {
+        throw new IOException("fail to read object [" + objectName +
+            "] from bucket [" + bucketName + "] at offset " + offset, e);
+      }
+      blockCache.put(blockIndex, block);
+    }
+    return block;
+  }
+}
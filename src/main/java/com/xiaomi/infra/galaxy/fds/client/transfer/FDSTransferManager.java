@@ -0,0 +1,1171 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.client.FDSClientConfiguration;
+import com.xiaomi.infra.galaxy.fds.client.GalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSMd5VerifyingInputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+import com.xiaomi.infra.galaxy.fds.result.InitMultipartUploadResult;
+import com.xiaomi.infra.galaxy.fds.result.PutObjectResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResultList;
+
+/**
+ * High level transfer API on top of {@link GalaxyFDS}. Large objects are
+ * split into parts or byte ranges which are transferred concurrently by a
+ * bounded pool of threads, small objects go through a single request.
+ *
+ * A transfer manager can be shared by many threads, call {@link #shutdown()}
+ * to release its threads when it is no longer used.
+ */
+public class FDSTransferManager {
+
+  private static final Log LOG = LogFactory.getLog(FDSTransferManager.class);
+
+  /**
+   * max number of parts of a multipart upload
+   */
+  static final int MAX_PART_NUMBER = 10000;
+
+  private static final int DOWNLOAD_BUFFER_SIZE = 256 * 1024;
+
+  /**
+   * suffix of the checkpoint file kept next to a resumable download
+   */
+  public static final String DOWNLOAD_CHECKPOINT_SUFFIX = ".fdsdownload";
+
+  private final GalaxyFDS fdsClient;
+  private final FDSClientConfiguration fdsConfig;
+  private final ExecutorService executor;
+  private final PartBufferPool uploadBufferPool;
+
+  public FDSTransferManager(GalaxyFDS fdsClient,
+      FDSClientConfiguration fdsConfig) {
+    this.fdsClient = fdsClient;
+    this.fdsConfig = fdsConfig;
+    this.executor = Executors.newFixedThreadPool(
+        fdsConfig.getMaxTransferThreads(), new ThreadFactoryBuilder()
+            .setNameFormat("fds-transfer-manager-%d")
+            .setDaemon(true)
+            .build());
+    this.uploadBufferPool = new PartBufferPool(
+        (int) Math.min(fdsConfig.getUploadPartSize(), Integer.MAX_VALUE),
+        fdsConfig.getUploadBufferNumber());
+  }
+
+  /**
+   * Uploads the specified file to the specified bucket. Files larger than
+   * {@link FDSClientConfiguration#getMultipartUploadThreshold()} are sent
+   * with a multipart upload whose parts are uploaded concurrently, the
+   * upload is aborted if any part fails.
+   *
+   * @param bucketName The name of the bucket to put the object into
+   * @param objectName The name of the object to put
+   * @param file       The file containing the content of the object
+   * @return The result of the put operation
+   * @throws GalaxyFDSClientException
+   */
+  public PutObjectResult upload(String bucketName, String objectName,
+      File file) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(file);
+    if (!file.isFile()) {
+      String errorMsg = "File not found, file=" + file.getName();
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg);
+    }
+
+    long fileLength = file.length();
+    if (fileLength <= fdsConfig.getMultipartUploadThreshold()) {
+      return fdsClient.putObject(bucketName, objectName, file);
+    }
+    return uploadMultipart(bucketName, objectName, file, fileLength);
+  }
+
+  /**
+   * Uploads a stream of unknown length to the specified bucket. The stream
+   * is read into part buffers taken from a bounded pool; if it ends within
+   * the first buffer the object is sent with a single put request,
+   * otherwise it is sent with a multipart upload whose parts are uploaded
+   * concurrently while the following parts are still being read.
+   *
+   * The buffers are shared by all stream uploads of this transfer manager,
+   * so memory use is capped at
+   * {@link FDSClientConfiguration#getUploadBufferNumber()} *
+   * {@link FDSClientConfiguration#getUploadPartSize()} whatever the length
+   * of the streams. The stream is not closed by this method. Uploads wait
+   * while {@link FDSClientConfiguration#getUploadBufferNumber()} streams are
+   * being written.
+   *
+   * @param bucketName The name of the bucket to put the object into
+   * @param objectName The name of the object to put
+   * @param input      The stream containing the content of the object
+   * @param metadata   The metadata of the object, may be null
+   * @return The result of the put operation
+   * @throws GalaxyFDSClientException
+   */
+  public PutObjectResult upload(String bucketName, String objectName,
+      InputStream input, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(input);
+    try {
+      uploadBufferPool.addWriter();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GalaxyFDSClientException("upload of object [" + objectName +
+          "] to bucket [" + bucketName + "] interrupted", e);
+    }
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fdsClient,
+        bucketName, objectName, metadata, executor, uploadBufferPool, true);
+    try {
+      output.transferFrom(input);
+      output.close();
+      return output.getPutObjectResult();
+    } catch (InterruptedIOException e) {
+      output.abort();
+      throw new GalaxyFDSClientException("upload of object [" + objectName +
+          "] to bucket [" + bucketName + "] interrupted", e);
+    } catch (IOException e) {
+      output.abort();
+      if (e.getCause() instanceof GalaxyFDSClientException) {
+        throw (GalaxyFDSClientException) e.getCause();
+      }
+      throw new GalaxyFDSClientException("fail to upload object [" +
+          objectName + "] to bucket [" + bucketName + "]", e);
+    } catch (RuntimeException e) {
+      output.abort();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a stream writing the specified object. Parts are uploaded by the
+   * threads of this transfer manager while the content is being written,
+   * and the buffers are shared with the other stream uploads, see
+   * {@link #upload(String, String, InputStream, FDSObjectMetadata)}. The
+   * object is committed when the stream is closed.
+   *
+   * An open stream holds a part buffer between writes, so at most
+   * {@link FDSClientConfiguration#getUploadBufferNumber()} streams and
+   * uploads may be in progress at once.
+   *
+   * @param bucketName The name of the bucket to put the object into
+   * @param objectName The name of the object to put
+   * @param metadata   The metadata of the object, may be null
+   * @return The stream to write the content of the object to
+   * @throws IllegalStateException if the limit of open streams is reached
+   */
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName, FDSObjectMetadata metadata) {
+    return new FDSObjectOutputStream(fdsClient, bucketName, objectName,
+        metadata, executor, uploadBufferPool);
+  }
+
+  /**
+   * Uploads the specified file with a multipart upload that survives
+   * restarts of the process. The upload id and every completed part are
+   * recorded in the specified checkpoint file; when this method is called
+   * again with the same checkpoint file, only the parts missing from the
+   * checkpoint are sent before the upload is completed.
+   *
+   * Failed uploads are not aborted so that they can be resumed later, the
+   * checkpoint file is removed once the upload is completed. A checkpoint
+   * created for another object or for an older version of the file is
+   * discarded and a new upload is started.
+   *
+   * @param bucketName     The name of the bucket to put the object into
+   * @param objectName     The name of the object to put
+   * @param file           The file containing the content of the object
+   * @param checkpointFile The local file to record the upload progress in
+   * @return The result of the put operation
+   * @throws GalaxyFDSClientException
+   */
+  public PutObjectResult resumableUpload(String bucketName, String objectName,
+      File file, File checkpointFile) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(file);
+    Preconditions.checkNotNull(checkpointFile);
+    if (!file.isFile()) {
+      String errorMsg = "File not found, file=" + file.getName();
+      LOG.error(errorMsg);
+      throw new GalaxyFDSClientException(errorMsg);
+    }
+
+    UploadCheckpoint checkpoint = openUploadCheckpoint(bucketName, objectName,
+        file, checkpointFile);
+    try {
+      PutObjectResult result = uploadMultipart(bucketName, objectName, file,
+          file.length(), checkpoint.getUploadId(), checkpoint.getPartSize(),
+          checkpoint);
+      checkpoint.delete();
+      return result;
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to remove upload checkpoint " +
+          checkpointFile.getPath(), e);
+    } finally {
+      closeUploadCheckpoint(checkpoint);
+    }
+  }
+
+  private UploadCheckpoint openUploadCheckpoint(String bucketName,
+      String objectName, File file, File checkpointFile)
+      throws GalaxyFDSClientException {
+    try {
+      UploadCheckpoint checkpoint = UploadCheckpoint.load(checkpointFile);
+      if (checkpoint != null) {
+        if (checkpoint.matches(bucketName, objectName, file)) {
+          LOG.info("resume upload of object [" + objectName + "] to bucket [" +
+              bucketName + "], upload id [" + checkpoint.getUploadId() + "], " +
+              checkpoint.getCompletedParts().size() + " parts completed");
+          return checkpoint;
+        }
+        LOG.warn("discard stale upload checkpoint " + checkpointFile.getPath());
+        checkpoint.close();
+        // Parts already sent to the stale upload are kept by the server
+        // until the upload is aborted
+        abortMultipartUpload(checkpoint.getBucketName(),
+            checkpoint.getObjectName(), checkpoint.getUploadId(),
+            Collections.<Future<?>>emptyList());
+      }
+
+      InitMultipartUploadResult initResult = fdsClient.initMultipartUpload(
+          bucketName, objectName);
+      return UploadCheckpoint.create(checkpointFile, bucketName, objectName,
+          initResult.getUploadId(), getPartSize(file.length()), file);
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to open upload checkpoint " +
+          checkpointFile.getPath(), e);
+    }
+  }
+
+  private void closeUploadCheckpoint(UploadCheckpoint checkpoint) {
+    try {
+      checkpoint.close();
+    } catch (IOException e) {
+      LOG.warn("fail to close upload checkpoint", e);
+    }
+  }
+
+  private PutObjectResult uploadMultipart(String bucketName,
+      String objectName, File file, long fileLength)
+      throws GalaxyFDSClientException {
+    long partSize = getPartSize(fileLength);
+    InitMultipartUploadResult initResult = fdsClient.initMultipartUpload(
+        bucketName, objectName);
+    return uploadMultipart(bucketName, objectName, file, fileLength,
+        initResult.getUploadId(), partSize, null);
+  }
+
+  /**
+   * Sends the parts of the file which are not recorded in the checkpoint
+   * and completes the upload. Without a checkpoint the upload is aborted on
+   * failure, otherwise it is left open to be resumed.
+   */
+  private PutObjectResult uploadMultipart(String bucketName,
+      String objectName, File file, long fileLength, String uploadId,
+      long partSize, UploadCheckpoint checkpoint)
+      throws GalaxyFDSClientException {
+    List<Future<UploadPartResult>> futures =
+        new ArrayList<Future<UploadPartResult>>();
+    try {
+      int partNumber = 1;
+      for (long offset = 0; offset < fileLength; offset += partSize) {
+        long length = Math.min(partSize, fileLength - offset);
+        if (checkpoint == null || !checkpoint.isPartCompleted(partNumber)) {
+          futures.add(executor.submit(new UploadFilePartTask(bucketName,
+              objectName, uploadId, partNumber, file, offset, length,
+              checkpoint)));
+        }
+        partNumber++;
+      }
+
+      List<UploadPartResult> results = new ArrayList<UploadPartResult>(
+          futures.size());
+      for (Future<UploadPartResult> future : futures) {
+        results.add(future.get());
+      }
+      if (checkpoint != null) {
+        results = checkpoint.getCompletedParts();
+      }
+      UploadPartResultList resultList = new UploadPartResultList();
+      resultList.setUploadPartResultList(results);
+      return fdsClient.completeMultipartUpload(bucketName, objectName,
+          uploadId, null, resultList);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      handleUploadFailure(bucketName, objectName, uploadId, futures,
+          checkpoint);
+      throw new GalaxyFDSClientException("upload of object [" + objectName +
+          "] to bucket [" + bucketName + "] interrupted", e);
+    } catch (ExecutionException e) {
+      handleUploadFailure(bucketName, objectName, uploadId, futures,
+          checkpoint);
+      throw toClientException(e);
+    } catch (GalaxyFDSClientException e) {
+      handleUploadFailure(bucketName, objectName, uploadId, futures,
+          checkpoint);
+      throw e;
+    } catch (RuntimeException e) {
+      handleUploadFailure(bucketName, objectName, uploadId, futures,
+          checkpoint);
+      throw e;
+    }
+  }
+
+  private void handleUploadFailure(String bucketName, String objectName,
+      String uploadId, List<? extends Future<?>> futures,
+      UploadCheckpoint checkpoint) {
+    if (checkpoint == null) {
+      abortMultipartUpload(bucketName, objectName, uploadId, futures);
+    } else {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Downloads the specified object into the specified file. Objects larger
+   * than {@link FDSClientConfiguration#getDownloadPartSize()} are split into
+   * byte ranges which are fetched concurrently, each range is written at its
+   * offset of the file with positional writes. The download fails if the
+   * object is modified while its ranges are fetched; the file is removed
+   * when the download fails. With
+   * {@link FDSClientConfiguration#isMd5VerifyEnabled()} the content of the
+   * file is checked against the content MD5 of the object.
+   *
+   * @param bucketName The name of the bucket where the object stores
+   * @param objectName The name of the object to download
+   * @param file       The local file to write the content of the object to
+   * @return The metadata of the downloaded object
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObjectMetadata download(String bucketName, String objectName,
+      File file) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(file);
+    FDSObjectMetadata metadata = fdsClient.getObjectMetadata(bucketName,
+        objectName);
+    long objectLength = metadata.getContentLength();
+
+    RandomAccessFile output = openDownloadFile(file);
+    boolean succeeded = false;
+    try {
+      FileChannel channel = output.getChannel();
+      if (objectLength < 0 || objectLength <= fdsConfig.getDownloadPartSize()) {
+        // Single request, the length is checked against the metadata if known
+        long written = new DownloadRangeTask(bucketName, objectName, metadata,
+            channel, 0, -1, null, null).call();
+        if (objectLength >= 0 && written != objectLength) {
+          throw new GalaxyFDSClientException("object [" + objectName +
+              "] truncated, expect " + objectLength + " bytes, got " + written);
+        }
+      } else {
+        output.setLength(objectLength);
+        byte[] expectedMd5 = getExpectedMd5(objectName, metadata);
+        byte[] md5 = downloadRanges(bucketName, objectName, metadata, channel,
+            objectLength, fdsConfig.getDownloadPartSize(), null,
+            expectedMd5 != null);
+        if (expectedMd5 != null) {
+          checkMd5(objectName, expectedMd5, md5);
+        }
+      }
+      succeeded = true;
+      return metadata;
+    } catch (GalaxyFDSClientException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to write object [" +
+          objectName + "] to file " + file.getPath(), e);
+    } catch (Exception e) {
+      throw new GalaxyFDSClientException(e);
+    } finally {
+      closeDownloadFile(output);
+      if (!succeeded && !file.delete()) {
+        LOG.warn("fail to remove incomplete download " + file.getPath());
+      }
+    }
+  }
+
+  /**
+   * Downloads the objects whose names start with the specified prefix into
+   * the specified directory, each object is written to the path of its name
+   * relative to the prefix, see {@link #getRelativeName(String, String)}.
+   * Objects whose relative name points outside of the directory fail. The
+   * listing is pipelined with the downloads: the
+   * listed objects are downloaded by the threads of this transfer manager
+   * while the next page is listed, with at most twice as many objects
+   * pending as there are threads. Each object is fetched with a single
+   * request; an object which fails is reported in the result and does not
+   * stop the others.
+   *
+   * @param bucketName The name of the bucket where the objects store
+   * @param prefix     The prefix of the names of the objects to download
+   * @param directory  The local directory to write the objects to
+   * @return The number of downloaded objects and bytes, and the failures
+   * @throws GalaxyFDSClientException if the objects could not be listed
+   */
+  public BulkDownloadResult downloadDirectory(String bucketName,
+      String prefix, File directory) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(prefix);
+    Preconditions.checkNotNull(directory);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new GalaxyFDSClientException("fail to create directory " +
+          directory.getPath());
+    }
+
+    BulkDownloadResult result = new BulkDownloadResult();
+    int maxPending = 2 * fdsConfig.getMaxTransferThreads();
+    Semaphore pending = new Semaphore(maxPending);
+    try {
+      FDSObjectListing listing = fdsClient.listObjects(bucketName, prefix, "");
+      while (listing != null) {
+        for (FDSObjectSummary summary : listing.getObjectSummaries()) {
+          String objectName = summary.getObjectName();
+          if (objectName.endsWith("/")) {
+            // Directory placeholder, the directories are created with files
+            continue;
+          }
+          File file = getTargetFile(directory,
+              getRelativeName(prefix, objectName));
+          if (file == null) {
+            result.objectFailed(objectName, new GalaxyFDSClientException(
+                "object [" + objectName + "] has no valid path under " +
+                directory.getPath()));
+            continue;
+          }
+          pending.acquire();
+          try {
+            executor.execute(new BulkDownloadTask(bucketName, objectName,
+                file, result, pending));
+          } catch (RejectedExecutionException e) {
+            pending.release();
+            throw new GalaxyFDSClientException("transfer manager shut down", e);
+          }
+        }
+        listing = listing.isTruncated() ?
+            fdsClient.listNextBatchOfObjects(listing) : null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GalaxyFDSClientException("download of objects with prefix [" +
+          prefix + "] from bucket [" + bucketName + "] interrupted", e);
+    } finally {
+      // No download is left writing to the directory once this returns
+      pending.acquireUninterruptibly(maxPending);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the name of an object relative to the prefix of a bulk download.
+   * The slashes which follow the prefix are dropped, so that a prefix with
+   * or without a trailing slash gives the same names. An object named
+   * exactly the prefix is named after the last segment of its name.
+   */
+  static String getRelativeName(String prefix, String objectName) {
+    int start = prefix.length();
+    while (start < objectName.length() && objectName.charAt(start) == '/') {
+      start++;
+    }
+    if (start == objectName.length()) {
+      return objectName.substring(objectName.lastIndexOf('/') + 1);
+    }
+    return objectName.substring(start);
+  }
+
+  /**
+   * Returns the file an object is downloaded to, or null if the relative
+   * name of the object would point outside of the directory.
+   */
+  private static File getTargetFile(File directory, String relativeName) {
+    if (relativeName.isEmpty() || relativeName.startsWith("/")) {
+      return null;
+    }
+    for (String segment : relativeName.split("/")) {
+      if (segment.equals("..")) {
+        return null;
+      }
+    }
+    return new File(directory, relativeName);
+  }
+
+  /**
+   * Opens a stream reading the specified object sequentially. Objects larger
+   * than {@link FDSClientConfiguration#getReadAheadBlockSize()} are read
+   * with a {@link FDSReadAheadInputStream} which keeps
+   * {@link FDSClientConfiguration#getReadAheadWindow()} ranged requests in
+   * flight on the threads of this transfer manager, other objects are read
+   * with a single request.
+   *
+   * @param bucketName The name of the bucket where the object stores
+   * @param objectName The name of the object to read
+   * @return The stream of the content of the object
+   * @throws GalaxyFDSClientException
+   */
+  public InputStream openForRead(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    FDSObjectMetadata metadata = fdsClient.getObjectMetadata(bucketName,
+        objectName);
+    long objectLength = metadata.getContentLength();
+    if (objectLength < 0 || objectLength <= fdsConfig.getReadAheadBlockSize()) {
+      return fdsClient.getObject(bucketName, objectName).getObjectContent();
+    }
+    InputStream stream = new FDSReadAheadInputStream(fdsClient, bucketName,
+        objectName, metadata, executor, fdsConfig.getReadAheadBlockSize(),
+        fdsConfig.getReadAheadWindow());
+    byte[] expectedMd5 = getExpectedMd5(objectName, metadata);
+    if (expectedMd5 != null) {
+      stream = new FDSMd5VerifyingInputStream(stream, expectedMd5, objectName);
+    }
+    return stream;
+  }
+
+  /**
+   * Reads many byte ranges of the specified object. Ranges separated by no
+   * more than {@link FDSClientConfiguration#getRangeCoalesceGap()} bytes are
+   * merged into one request of at most
+   * {@link FDSClientConfiguration#getDownloadPartSize()} bytes, the merged
+   * requests are sent concurrently. All ranges are read from the same
+   * version of the object.
+   *
+   * @param bucketName The name of the bucket where the object stores
+   * @param objectName The name of the object to read
+   * @param ranges     The ranges to read, in any order, may overlap
+   * @return The content of each range, in the order of the ranges. The
+   *         buffers are slices of the merged responses.
+   * @throws GalaxyFDSClientException
+   */
+  public List<ByteBuffer> readRanges(final String bucketName,
+      final String objectName, List<ByteRange> ranges)
+      throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(ranges);
+    if (ranges.isEmpty()) {
+      return new ArrayList<ByteBuffer>();
+    }
+    final FDSObjectMetadata metadata = fdsClient.getObjectMetadata(
+        bucketName, objectName);
+    long objectLength = metadata.getContentLength();
+    for (ByteRange range : ranges) {
+      if (objectLength >= 0 && range.getEnd() > objectLength) {
+        throw new GalaxyFDSClientException("range " + range +
+            " beyond the end of object [" + objectName + "], length " +
+            objectLength);
+      }
+    }
+
+    List<CoalescedRange> requests = coalesce(ranges,
+        fdsConfig.getRangeCoalesceGap(),
+        Math.min(fdsConfig.getDownloadPartSize(), Integer.MAX_VALUE));
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(
+        requests.size());
+    ByteBuffer[] results = new ByteBuffer[ranges.size()];
+    try {
+      for (final CoalescedRange request : requests) {
+        futures.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws Exception {
+            return readRange(fdsClient, bucketName, objectName, metadata,
+                request.getOffset(), (int) request.getLength());
+          }
+        }));
+      }
+      for (int i = 0; i < requests.size(); i++) {
+        CoalescedRange request = requests.get(i);
+        byte[] data = futures.get(i).get();
+        for (int index : request.getRangeIndexes()) {
+          ByteRange range = ranges.get(index);
+          results[index] = ByteBuffer.wrap(data,
+              (int) (range.getOffset() - request.getOffset()),
+              range.getLength()).slice();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelAll(futures);
+      throw new GalaxyFDSClientException("read of object [" + objectName +
+          "] from bucket [" + bucketName + "] interrupted", e);
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      throw toClientException(e);
+    }
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(results.length);
+    Collections.addAll(buffers, results);
+    return buffers;
+  }
+
+  /**
+   * Merges the ranges whose gap is not larger than maxGap, as long as the
+   * merged range does not grow beyond maxLength. A single range longer than
+   * maxLength is kept as it is.
+   *
+   * @return The merged ranges ordered by offset
+   */
+  static List<CoalescedRange> coalesce(final List<ByteRange> ranges,
+      long maxGap, long maxLength) {
+    List<Integer> order = new ArrayList<Integer>(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        long offset1 = ranges.get(o1).getOffset();
+        long offset2 = ranges.get(o2).getOffset();
+        return offset1 < offset2 ? -1 : (offset1 == offset2 ? 0 : 1);
+      }
+    });
+
+    List<CoalescedRange> merged = new ArrayList<CoalescedRange>();
+    CoalescedRange current = null;
+    for (int index : order) {
+      ByteRange range = ranges.get(index);
+      if (current != null &&
+          range.getOffset() <= current.getEnd() + maxGap &&
+          Math.max(current.getEnd(), range.getEnd()) - current.getOffset()
+              <= maxLength) {
+        current.add(index, range);
+      } else {
+        current = new CoalescedRange(index, range);
+        merged.add(current);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Downloads the specified object into the specified file so that the
+   * download survives restarts of the process. Every range written to the
+   * file is recorded in a checkpoint file next to it, named after the file
+   * with the {@link #DOWNLOAD_CHECKPOINT_SUFFIX} suffix; when this method is
+   * called again for the same file, only the ranges missing from the
+   * checkpoint are fetched.
+   *
+   * The checkpoint records the length, the last modified time and the
+   * content MD5 of the object, a checkpoint of another version of the
+   * object is discarded and the download starts over. The file and the
+   * checkpoint are kept when the download fails, the checkpoint is removed
+   * once the download is completed.
+   *
+   * @param bucketName The name of the bucket where the object stores
+   * @param objectName The name of the object to download
+   * @param file       The local file to write the content of the object to
+   * @return The metadata of the downloaded object
+   * @throws GalaxyFDSClientException
+   */
+  public FDSObjectMetadata resumableDownload(String bucketName,
+      String objectName, File file) throws GalaxyFDSClientException {
+    Preconditions.checkNotNull(file);
+    FDSObjectMetadata metadata = fdsClient.getObjectMetadata(bucketName,
+        objectName);
+    long objectLength = metadata.getContentLength();
+    if (objectLength < 0) {
+      LOG.warn("length of object [" + objectName + "] unknown, download " +
+          "it without checkpoint");
+      return download(bucketName, objectName, file);
+    }
+
+    File checkpointFile = new File(file.getPath() + DOWNLOAD_CHECKPOINT_SUFFIX);
+    DownloadCheckpoint checkpoint = openDownloadCheckpoint(bucketName,
+        objectName, metadata, file, checkpointFile);
+    RandomAccessFile output = null;
+    try {
+      output = new RandomAccessFile(file, "rw");
+      output.setLength(objectLength);
+      byte[] expectedMd5 = getExpectedMd5(objectName, metadata);
+      byte[] md5 = downloadRanges(bucketName, objectName, metadata,
+          output.getChannel(), objectLength, checkpoint.getPartSize(),
+          checkpoint, expectedMd5 != null);
+      if (expectedMd5 != null && !Arrays.equals(expectedMd5, md5)) {
+        // The ranges on disk are corrupted, the next attempt starts over
+        checkpoint.delete();
+        checkMd5(objectName, expectedMd5, md5);
+      }
+      output.close();
+      output = null;
+      checkpoint.delete();
+      return metadata;
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to download object [" +
+          objectName + "] to file " + file.getPath(), e);
+    } finally {
+      if (output != null) {
+        closeDownloadFile(output);
+      }
+      try {
+        checkpoint.close();
+      } catch (IOException e) {
+        LOG.warn("fail to close download checkpoint", e);
+      }
+    }
+  }
+
+  private DownloadCheckpoint openDownloadCheckpoint(String bucketName,
+      String objectName, FDSObjectMetadata metadata, File file,
+      File checkpointFile) throws GalaxyFDSClientException {
+    try {
+      DownloadCheckpoint checkpoint = DownloadCheckpoint.load(checkpointFile);
+      if (checkpoint != null) {
+        if (checkpoint.matches(bucketName, objectName, metadata) &&
+            file.isFile() && file.length() == checkpoint.getObjectLength()) {
+          LOG.info("resume download of object [" + objectName +
+              "] from bucket [" + bucketName + "], " +
+              checkpoint.getCompletedRangeCount() + " ranges completed");
+          return checkpoint;
+        }
+        LOG.warn("discard stale download checkpoint " +
+            checkpointFile.getPath());
+        checkpoint.close();
+      }
+
+      // Drop the content of any previous version before recording ranges
+      RandomAccessFile output = openDownloadFile(file);
+      closeDownloadFile(output);
+      return DownloadCheckpoint.create(checkpointFile, bucketName, objectName,
+          metadata, fdsConfig.getDownloadPartSize());
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to open download checkpoint " +
+          checkpointFile.getPath(), e);
+    }
+  }
+
+  /**
+   * Fetches the ranges of the object which are not recorded in the
+   * checkpoint, completed ranges are recorded in the checkpoint if any.
+   *
+   * When requested, the MD5 digest of the file is computed in order by the
+   * range tasks as they write, see {@link RangeDigest}. The ranges restored
+   * from the checkpoint are read back, by this thread as long as they
+   * precede the fetched ranges.
+   *
+   * @return The MD5 digest of the content of the file if requested, or null
+   */
+  private byte[] downloadRanges(String bucketName, String objectName,
+      FDSObjectMetadata metadata, FileChannel channel, long objectLength,
+      long partSize, DownloadCheckpoint checkpoint, boolean computeMd5)
+      throws GalaxyFDSClientException {
+    // One future per range, null for the ranges completed by a previous run
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    RangeDigest digest = computeMd5 ?
+        new RangeDigest(channel, DOWNLOAD_BUFFER_SIZE) : null;
+    try {
+      for (long offset = 0; offset < objectLength; offset += partSize) {
+        long length = Math.min(partSize, objectLength - offset);
+        if (checkpoint == null || !checkpoint.isRangeCompleted(offset)) {
+          futures.add(executor.submit(new DownloadRangeTask(bucketName,
+              objectName, metadata, channel, offset, length, checkpoint,
+              digest)));
+        } else {
+          futures.add(null);
+          if (digest != null) {
+            digest.addWrittenRange(offset, length);
+          }
+        }
+      }
+      if (digest != null) {
+        digest.readBack();
+      }
+      for (Future<Long> future : futures) {
+        if (future != null) {
+          future.get();
+        }
+      }
+      if (digest == null) {
+        return null;
+      }
+      byte[] md5 = digest.finish(objectLength);
+      LOG.debug("digest of object [" + objectName + "] read back " +
+          digest.getReadBackBytes() + " of " + objectLength + " bytes");
+      return md5;
+    } catch (IOException e) {
+      cancelAll(futures);
+      throw new GalaxyFDSClientException("fail to read back object [" +
+          objectName + "] from download file", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelAll(futures);
+      throw new GalaxyFDSClientException("download of object [" + objectName +
+          "] from bucket [" + bucketName + "] interrupted", e);
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      throw toClientException(e);
+    } catch (RuntimeException e) {
+      cancelAll(futures);
+      throw e;
+    }
+  }
+
+  private RandomAccessFile openDownloadFile(File file)
+      throws GalaxyFDSClientException {
+    try {
+      RandomAccessFile output = new RandomAccessFile(file, "rw");
+      output.setLength(0);
+      return output;
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException("fail to open file " +
+          file.getPath() + " for download", e);
+    }
+  }
+
+  private void closeDownloadFile(RandomAccessFile output) {
+    try {
+      output.close();
+    } catch (IOException e) {
+      LOG.warn("fail to close download file", e);
+    }
+  }
+
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      if (future != null) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Returns the MD5 digest the content of the object is checked against, or
+   * null if the check is disabled or the object has no MD5 digest.
+   */
+  private byte[] getExpectedMd5(String objectName,
+      FDSObjectMetadata metadata) {
+    if (!fdsConfig.isMd5VerifyEnabled()) {
+      return null;
+    }
+    byte[] md5 = FDSMd5VerifyingInputStream.decodeContentMd5(
+        metadata.getContentMD5());
+    if (md5 == null) {
+      LOG.debug("object [" + objectName + "] has no MD5 digest, skip check");
+    }
+    return md5;
+  }
+
+  private static void checkMd5(String objectName, byte[] expectedMd5,
+      byte[] md5) throws GalaxyFDSClientException {
+    try {
+      FDSMd5VerifyingInputStream.checkMd5(objectName, expectedMd5, md5);
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Fetches a byte range of the version of the object described by the
+   * specified metadata.
+   */
+  static byte[] readRange(GalaxyFDS fdsClient, String bucketName,
+      String objectName, FDSObjectMetadata metadata, long offset, int length)
+      throws GalaxyFDSClientException, IOException {
+    FDSObject object = fdsClient.getObject(bucketName, objectName, offset,
+        length);
+    InputStream input = object.getObjectContent();
+    try {
+      checkSameVersion(objectName, metadata, object.getObjectMetadata());
+      byte[] data = new byte[length];
+      int read = ByteStreams.read(input, data, 0, length);
+      if (read != length) {
+        throw new GalaxyFDSClientException("range [" + offset + ", " +
+            (offset + length) + ") of object [" + objectName +
+            "] truncated, got " + read + " bytes");
+      }
+      return data;
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Fails if the object was modified after the specified metadata was read,
+   * so that ranges of two versions of the object are never mixed.
+   */
+  static void checkSameVersion(String objectName, FDSObjectMetadata expected,
+      FDSObjectMetadata actual) throws GalaxyFDSClientException {
+    Date expectedTime = expected.getLastModified();
+    Date actualTime = actual.getLastModified();
+    if (expectedTime != null && actualTime != null &&
+        !expectedTime.equals(actualTime)) {
+      throw new GalaxyFDSClientException("object [" + objectName +
+          "] modified during download, last modified " + expectedTime +
+          " changed to " + actualTime);
+    }
+  }
+
+  /**
+   * Grows the configured part size if the object would otherwise need more
+   * than {@link #MAX_PART_NUMBER} parts.
+   */
+  long getPartSize(long objectLength) {
+    long partSize = fdsConfig.getUploadPartSize();
+    long minPartSize = (objectLength + MAX_PART_NUMBER - 1) / MAX_PART_NUMBER;
+    return Math.max(partSize, minPartSize);
+  }
+
+  void abortMultipartUpload(String bucketName, String objectName,
+      String uploadId, List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+    try {
+      fdsClient.abortMultipartUpload(bucketName, objectName, uploadId);
+    } catch (GalaxyFDSClientException e) {
+      LOG.warn("fail to abort multipart upload of object [" + objectName +
+          "] to bucket [" + bucketName + "], upload id [" + uploadId + "]", e);
+    }
+  }
+
+  static GalaxyFDSClientException toClientException(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof GalaxyFDSClientException) {
+      return (GalaxyFDSClientException) cause;
+    }
+    return new GalaxyFDSClientException(cause);
+  }
+
+  /**
+   * Shuts down the threads of this transfer manager, transfers in progress
+   * are not interrupted.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * A range fetched with one request on behalf of one or more requested
+   * ranges.
+   */
+  static class CoalescedRange {
+
+    private final long offset;
+    private long end;
+    private final List<Integer> rangeIndexes = new ArrayList<Integer>();
+
+    CoalescedRange(int index, ByteRange range) {
+      this.offset = range.getOffset();
+      this.end = range.getEnd();
+      rangeIndexes.add(index);
+    }
+
+    void add(int index, ByteRange range) {
+      end = Math.max(end, range.getEnd());
+      rangeIndexes.add(index);
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    long getEnd() {
+      return end;
+    }
+
+    long getLength() {
+      return end - offset;
+    }
+
+    /**
+     * Returns the positions of the served ranges in the requested list.
+     */
+    List<Integer> getRangeIndexes() {
+      return rangeIndexes;
+    }
+  }
+
+  /**
+   * Fetches a byte range of an object and writes it at the same offset of
+   * the file, a negative length fetches the whole object. The range is
+   * forced to disk before it is recorded in the checkpoint if any, and
+   * added to the digest if any as it is written. The version of the object
+   * is not checked if no metadata is specified.
+   */
+  private class DownloadRangeTask implements Callable<Long> {
+
+    private final String bucketName;
+    private final String objectName;
+    private final FDSObjectMetadata metadata;
+    private final FileChannel channel;
+    private final long offset;
+    private final long length;
+    private final DownloadCheckpoint checkpoint;
+    private final RangeDigest digest;
+
+    DownloadRangeTask(String bucketName, String objectName,
+        FDSObjectMetadata metadata, FileChannel channel, long offset,
+        long length, DownloadCheckpoint checkpoint, RangeDigest digest) {
+      this.bucketName = bucketName;
+      this.objectName = objectName;
+      this.metadata = metadata;
+      this.channel = channel;
+      this.offset = offset;
+      this.length = length;
+      this.checkpoint = checkpoint;
+      this.digest = digest;
+    }
+
+    @Override
+    public Long call() throws Exception {
+      FDSObject object = length < 0 ?
+          fdsClient.getObject(bucketName, objectName) :
+          fdsClient.getObject(bucketName, objectName, offset, length);
+      InputStream input = object.getObjectContent();
+      try {
+        if (metadata != null) {
+          checkSameVersion(objectName, metadata, object.getObjectMetadata());
+        }
+        byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+        long position = offset;
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+          ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+          long chunkPosition = position;
+          while (byteBuffer.hasRemaining()) {
+            position += channel.write(byteBuffer, position);
+          }
+          if (digest != null) {
+            digest.update(chunkPosition, buffer, 0, read);
+          }
+        }
+        long written = position - offset;
+        if (length >= 0 && written != length) {
+          throw new GalaxyFDSClientException("range [" + offset + ", " +
+              (offset + length) + ") of object [" + objectName +
+              "] truncated, got " + written + " bytes");
+        }
+        if (checkpoint != null) {
+          channel.force(false);
+          checkpoint.rangeCompleted(offset, length);
+        }
+        return written;
+      } finally {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Downloads one object of a bulk download to its file, the failure if any
+   * is recorded in the result.
+   */
+  private class BulkDownloadTask implements Runnable {
+
+    private final String bucketName;
+    private final String objectName;
+    private final File file;
+    private final BulkDownloadResult result;
+    private final Semaphore pending;
+
+    BulkDownloadTask(String bucketName, String objectName, File file,
+        BulkDownloadResult result, Semaphore pending) {
+      this.bucketName = bucketName;
+      this.objectName = objectName;
+      this.file = file;
+      this.result = result;
+      this.pending = pending;
+    }
+
+    @Override
+    public void run() {
+      try {
+        download();
+      } catch (GalaxyFDSClientException e) {
+        LOG.warn("fail to download object [" + objectName + "] to file " +
+            file.getPath(), e);
+        result.objectFailed(objectName, e);
+      } finally {
+        pending.release();
+      }
+    }
+
+    private void download() throws GalaxyFDSClientException {
+      File parent = file.getParentFile();
+      // Another task may create the same directory concurrently
+      if (!parent.mkdirs() && !parent.isDirectory()) {
+        throw new GalaxyFDSClientException("fail to create directory " +
+            parent.getPath());
+      }
+      RandomAccessFile output = openDownloadFile(file);
+      boolean succeeded = false;
+      try {
+        long written = new DownloadRangeTask(bucketName, objectName, null,
+            output.getChannel(), 0, -1, null, null).call();
+        succeeded = true;
+        result.objectDownloaded(written);
+      } catch (GalaxyFDSClientException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new GalaxyFDSClientException("fail to download object [" +
+            objectName + "] to file " + file.getPath(), e);
+      } finally {
+        closeDownloadFile(output);
+        if (!succeeded && !file.delete()) {
+          LOG.warn("fail to remove incomplete download " + file.getPath());
+        }
+      }
+    }
+  }
+
+  private class UploadFilePartTask implements Callable<UploadPartResult> {
+
+    private final String bucketName;
+    private final String objectName;
+    private final String uploadId;
+    private final int partNumber;
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final UploadCheckpoint checkpoint;
+
+    UploadFilePartTask(String bucketName, String objectName, String uploadId,
+        int partNumber, File file, long offset, long length,
+        UploadCheckpoint checkpoint) {
+      this.bucketName = bucketName;
+      this.objectName = objectName;
+      this.uploadId = uploadId;
+      this.partNumber = partNumber;
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+      this.checkpoint = checkpoint;
+    }
+
+    @Override
+    public UploadPartResult call() throws Exception {
+      UploadPartResult result = fdsClient.uploadPart(bucketName, objectName,
+          uploadId, partNumber, file, offset, length);
+      if (checkpoint != null) {
+        checkpoint.partCompleted(result);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded pool of reusable part buffers. Buffers are allocated lazily up to
+ * the capacity of the pool, after that {@link #take()} blocks until another
+ * buffer is released, so the memory held by the pool never exceeds
+ * capacity * buffer size.
+ *
+ * A writer holds the buffer of the part it is filling between its writes, so
+ * the number of writers sharing a pool is limited to its capacity: with more
+ * writers every buffer could be held by a partial part, and {@link #take()}
+ * would wait forever. Writers register with {@link #addWriter()} or
+ * {@link #tryAddWriter()}.
+ */
+public class PartBufferPool {
+
+  private final int bufferSize;
+  private final int capacity;
+  private final BlockingQueue<byte[]> freeBuffers;
+  private final Semaphore writers;
+  private int allocated;
+
+  public PartBufferPool(int bufferSize, int capacity) {
+    Preconditions.checkArgument(bufferSize > 0,
+        "buffer size should be positive, got " + bufferSize);
+    Preconditions.checkArgument(capacity > 0,
+        "capacity should be positive, got " + capacity);
+    this.bufferSize = bufferSize;
+    this.capacity = capacity;
+    this.freeBuffers = new LinkedBlockingQueue<byte[]>(capacity);
+    this.writers = new Semaphore(capacity);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Takes a buffer from the pool, waits if all buffers are in use.
+   */
+  public byte[] take() throws InterruptedException {
+    byte[] buffer = freeBuffers.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    synchronized (this) {
+      if (allocated < capacity) {
+        allocated++;
+        return new byte[bufferSize];
+      }
+    }
+    return freeBuffers.take();
+  }
+
+  /**
+   * Returns a buffer taken by {@link #take()} to the pool.
+   */
+  public void release(byte[] buffer) {
+    Preconditions.checkArgument(buffer.length == bufferSize,
+        "buffer does not belong to this pool");
+    freeBuffers.offer(buffer);
+  }
+
+  /**
+   * Registers a writer of the pool, waits while the pool has as many writers
+   * as buffers. Only callers which hold no other writer of the pool may
+   * wait.
+   */
+  public void addWriter() throws InterruptedException {
+    writers.acquire();
+  }
+
+  /**
+   * Registers a writer of the pool.
+   *
+   * @return false if the pool already has as many writers as buffers
+   */
+  public boolean tryAddWriter() {
+    return writers.tryAcquire();
+  }
+
+  /**
+   * Unregisters a writer once it has released its buffers.
+   */
+  public void removeWriter() {
+    writers.release();
+  }
+}
@@ -0,0 +1,137 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.xiaomi.infra.galaxy.fds.client.model.FDSMd5VerifyingInputStream;
+
+/**
+ * MD5 digest of a file written in ranges by parallel tasks. The digest
+ * cannot be combined from digests of the ranges, the content has to be
+ * digested in order: bytes which follow the digested prefix of the file are
+ * digested by the task writing them, as they are written.
+ *
+ * Bytes written ahead of the digested prefix are only recorded, and read
+ * back from the file once the prefix reaches them. Keeping them in memory
+ * instead would take up to a whole range per range completed out of order,
+ * while they were written a moment ago and are read back from the page
+ * cache. Ranges restored from a checkpoint exist only in the file and are
+ * always read back. Read-backs are done by one thread at a time out of the
+ * lock, writers are not held up meanwhile.
+ */
+class RangeDigest {
+
+  private final MessageDigest digest;
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  // Written bytes ahead of the digested prefix, end of each run by offset
+  private final TreeMap<Long, Long> pending = new TreeMap<Long, Long>();
+  private long digested;
+  private boolean readingBack;
+  private long readBackBytes;
+
+  RangeDigest(FileChannel channel, int bufferSize) {
+    this.digest = FDSMd5VerifyingInputStream.newMd5Digest();
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+  }
+
+  /**
+   * Records a range of the file written by a previous run.
+   */
+  synchronized void addWrittenRange(long offset, long length) {
+    pending.put(offset, offset + length);
+  }
+
+  /**
+   * Records bytes just written at the specified position of the file, they
+   * are digested right away if they follow the digested prefix.
+   */
+  void update(long position, byte[] b, int off, int len) throws IOException {
+    synchronized (this) {
+      if (position == digested && !readingBack) {
+        digest.update(b, off, len);
+        digested += len;
+      } else {
+        Map.Entry<Long, Long> run = pending.floorEntry(position);
+        if (run != null && run.getValue() == position) {
+          pending.put(run.getKey(), position + len);
+        } else {
+          pending.put(position, position + len);
+        }
+      }
+    }
+    readBack();
+  }
+
+  /**
+   * Reads back the recorded bytes which follow the digested prefix, unless
+   * another thread is doing so.
+   */
+  void readBack() throws IOException {
+    while (true) {
+      long start;
+      long end;
+      synchronized (this) {
+        if (readingBack || !pending.containsKey(digested)) {
+          return;
+        }
+        start = digested;
+        end = pending.remove(digested);
+        readingBack = true;
+      }
+      boolean done = false;
+      try {
+        long position = start;
+        while (position < end) {
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), end - position));
+          int read = channel.read(buffer, position);
+          if (read < 0) {
+            throw new IOException("download file shorter than " + end +
+                " bytes");
+          }
+          position += read;
+          buffer.flip();
+          digest.update(buffer);
+        }
+        done = true;
+      } finally {
+        synchronized (this) {
+          readingBack = false;
+          if (done) {
+            digested = end;
+            readBackBytes += end - start;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the digest once the whole file is written.
+   *
+   * @throws IOException if the digest does not cover the whole file
+   */
+  byte[] finish(long length) throws IOException {
+    readBack();
+    synchronized (this) {
+      if (digested != length) {
+        throw new IOException("digest covers " + digested + " of " + length +
+            " bytes of the download file");
+      }
+      return digest.digest();
+    }
+  }
+
+  /**
+   * Returns the number of bytes read back from the file so far.
+   */
+  synchronized long getReadBackBytes() {
+    return readBackBytes;
+  }
+}
@@ -0,0 +1,181 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+
+/**
+ * Local journal of a resumable multipart upload. The first line of the
+ * journal records the upload id, the part size and the identity of the
+ * source file, each following line records one completed part. Every
+ * record is synced to disk before the call returns, so the journal always
+ * reflects the parts the server has acknowledged.
+ */
+class UploadCheckpoint {
+
+  private static final Log LOG = LogFactory.getLog(UploadCheckpoint.class);
+
+  private static final Gson GSON = new Gson();
+
+  private final CheckpointJournal journal;
+  private final Header header;
+  private final Map<Integer, UploadPartResult> completedParts;
+
+  private UploadCheckpoint(CheckpointJournal journal, Header header,
+      Map<Integer, UploadPartResult> completedParts) {
+    this.journal = journal;
+    this.header = header;
+    this.completedParts = completedParts;
+  }
+
+  /**
+   * Creates a new journal for the specified upload, any existing journal
+   * at the same path is overwritten.
+   */
+  static UploadCheckpoint create(File journalFile, String bucketName,
+      String objectName, String uploadId, long partSize, File sourceFile)
+      throws IOException {
+    Header header = new Header();
+    header.bucketName = bucketName;
+    header.objectName = objectName;
+    header.uploadId = uploadId;
+    header.partSize = partSize;
+    header.fileLength = sourceFile.length();
+    header.fileLastModified = sourceFile.lastModified();
+
+    CheckpointJournal journal = CheckpointJournal.create(journalFile);
+    journal.append(GSON.toJson(header));
+    return new UploadCheckpoint(journal, header,
+        new TreeMap<Integer, UploadPartResult>());
+  }
+
+  /**
+   * Loads the journal at the specified path.
+   *
+   * @return The loaded checkpoint, or null if the journal does not exist or
+   *         has no valid header
+   */
+  static UploadCheckpoint load(File journalFile) throws IOException {
+    List<String> records = CheckpointJournal.readRecords(journalFile);
+    if (records == null) {
+      return null;
+    }
+
+    Header header = null;
+    Map<Integer, UploadPartResult> completedParts =
+        new TreeMap<Integer, UploadPartResult>();
+    for (String record : records) {
+      try {
+        if (header == null) {
+          header = GSON.fromJson(record, Header.class);
+          if (header == null || header.uploadId == null) {
+            return null;
+          }
+        } else {
+          UploadPartResult part = GSON.fromJson(record, UploadPartResult.class);
+          if (part != null) {
+            completedParts.put(part.getPartNumber(), part);
+          }
+        }
+      } catch (JsonParseException e) {
+        // A record is torn if the process died while writing it, the part
+        // is simply uploaded again
+        LOG.warn("ignore corrupted record in upload checkpoint " +
+            journalFile.getPath());
+      }
+    }
+    if (header == null) {
+      return null;
+    }
+    return new UploadCheckpoint(CheckpointJournal.open(journalFile), header,
+        completedParts);
+  }
+
+  /**
+   * Checks whether this checkpoint was created for the specified object and
+   * the source file has not been modified since.
+   */
+  boolean matches(String bucketName, String objectName,
+      File sourceFile) {
+    return header.bucketName.equals(bucketName) &&
+        header.objectName.equals(objectName) &&
+        header.fileLength == sourceFile.length() &&
+        header.fileLastModified == sourceFile.lastModified();
+  }
+
+  String getBucketName() {
+    return header.bucketName;
+  }
+
+  String getObjectName() {
+    return header.objectName;
+  }
+
+  String getUploadId() {
+    return header.uploadId;
+  }
+
+  long getPartSize() {
+    return header.partSize;
+  }
+
+  synchronized boolean isPartCompleted(int partNumber) {
+    return completedParts.containsKey(partNumber);
+  }
+
+  /**
+   * Returns the completed parts ordered by part number.
+   */
+  synchronized List<UploadPartResult> getCompletedParts() {
+    List<UploadPartResult> parts = new ArrayList<UploadPartResult>(
+        completedParts.values());
+    Collections.sort(parts, new Comparator<UploadPartResult>() {
+      @Override
+      public int compare(UploadPartResult o1, UploadPartResult o2) {
+        return o1.getPartNumber() - o2.getPartNumber();
+      }
+    });
+    return parts;
+  }
+
+  /**
+   * Records a completed part, the record is on disk when this returns.
+   */
+  synchronized void partCompleted(UploadPartResult part)
+      throws IOException {
+    journal.append(GSON.toJson(part));
+    completedParts.put(part.getPartNumber(), part);
+  }
+
+  void close() throws IOException {
+    journal.close();
+  }
+
+  /**
+   * Closes and removes the journal, called once the upload is completed.
+   */
+  void delete() throws IOException {
+    journal.delete();
+  }
+
+  private static class Header {
+    private String bucketName;
+    private String objectName;
+    private String uploadId;
+    private long partSize;
+    private long fileLength;
+    private long fileLastModified;
+  }
+}
@@ -0,0 +1,469 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.io.IOUtils;
+
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectInputStream;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
+import com.xiaomi.infra.galaxy.fds.client.transfer.PartBufferPool;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+import com.xiaomi.infra.galaxy.fds.result.InitMultipartUploadResult;
+import com.xiaomi.infra.galaxy.fds.result.PutObjectResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResultList;
+
+/**
+ * {@link GalaxyFDS} keeping the objects of all the buckets in memory, for the
+ * tests of the decorators and of the transfer utilities. Only the object,
+ * multipart upload and listing calls are implemented, the others throw
+ * {@link UnsupportedOperationException}. Every call is recorded, and
+ * {@link #onCall(String, String)} may be overridden to inject failures or
+ * delays.
+ */
+public class InMemoryGalaxyFDS extends ForwardingGalaxyFDS {
+
+  private static final GalaxyFDS UNSUPPORTED = (GalaxyFDS) Proxy.newProxyInstance(
+      GalaxyFDS.class.getClassLoader(), new Class<?>[] { GalaxyFDS.class },
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+
+  private final SortedMap<String, byte[]> objects =
+      new TreeMap<String, byte[]>();
+  private final Map<String, Date> lastModified = new HashMap<String, Date>();
+  private final Map<String, Map<Integer, byte[]>> uploads =
+      new HashMap<String, Map<Integer, byte[]>>();
+  private final List<String> calls = new ArrayList<String>();
+
+  @Override
+  protected GalaxyFDS delegate() {
+    return UNSUPPORTED;
+  }
+
+  /**
+   * Called before each implemented call is served.
+   */
+  protected void onCall(String method, String objectName)
+      throws GalaxyFDSClientException {
+  }
+
+  private void record(String method, String objectName)
+      throws GalaxyFDSClientException {
+    synchronized (this) {
+      calls.add(method);
+    }
+    onCall(method, objectName);
+  }
+
+  /**
+   * Returns the number of calls of the specified method.
+   */
+  public synchronized int getCallCount(String method) {
+    return Collections.frequency(calls, method);
+  }
+
+  public synchronized List<String> getCalls() {
+    return new ArrayList<String>(calls);
+  }
+
+  public synchronized void clearCalls() {
+    calls.clear();
+  }
+
+  public synchronized byte[] getContent(String bucketName, String objectName) {
+    return objects.get(key(bucketName, objectName));
+  }
+
+  public synchronized void setContent(String bucketName, String objectName,
+      byte[] content) {
+    objects.put(key(bucketName, objectName), content);
+    // HTTP dates have a precision of a second
+    lastModified.put(key(bucketName, objectName),
+        new Date(System.currentTimeMillis() / 1000 * 1000));
+  }
+
+  public synchronized void setLastModified(String bucketName,
+      String objectName, Date date) {
+    lastModified.put(key(bucketName, objectName), date);
+  }
+
+  /**
+   * Returns the number of multipart uploads neither completed nor aborted.
+   */
+  public synchronized int getPendingUploadCount() {
+    return uploads.size();
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      File file) throws GalaxyFDSClientException {
+    try {
+      return putObject(bucketName, objectName,
+          new ByteArrayInputStream(readFile(file, 0, file.length())), null);
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException(e);
+    }
+  }
+
+  @Override
+  public PutObjectResult putObject(String bucketName, String objectName,
+      InputStream input, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    record("putObject", objectName);
+    try {
+      setContent(bucketName, objectName, IOUtils.toByteArray(input));
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException(e);
+    }
+    return new PutObjectResult();
+  }
+
+  /**
+   * The parts of the returned stream are uploaded by the writing thread.
+   */
+  @Override
+  public FDSObjectOutputStream openForWrite(String bucketName,
+      String objectName, FDSObjectMetadata metadata)
+      throws GalaxyFDSClientException {
+    record("openForWrite", objectName);
+    return new FDSObjectOutputStream(this, bucketName, objectName, metadata,
+        MoreExecutors.sameThreadExecutor(), new PartBufferPool(1024, 2));
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, 0, -1);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos)
+      throws GalaxyFDSClientException {
+    return getObject(bucketName, objectName, pos, -1);
+  }
+
+  @Override
+  public FDSObject getObject(String bucketName, String objectName, long pos,
+      long length) throws GalaxyFDSClientException {
+    record("getObject", objectName);
+    byte[] content;
+    Date modified;
+    synchronized (this) {
+      content = objects.get(key(bucketName, objectName));
+      modified = lastModified.get(key(bucketName, objectName));
+    }
+    if (content == null) {
+      throw new GalaxyFDSClientException("object [" + objectName +
+          "] not found in bucket [" + bucketName + "]");
+    }
+    int start = (int) Math.min(pos, content.length);
+    int end = length < 0 ? content.length :
+        (int) Math.min(content.length, pos + length);
+    FDSObjectMetadata metadata = new FDSObjectMetadata();
+    metadata.setContentLength(end - start);
+    metadata.setLastModified(modified);
+    FDSObject object = new FDSObject();
+    object.setObjectMetadata(metadata);
+    object.setObjectContent(new FDSObjectInputStream(new ByteArrayInputStream(
+        Arrays.copyOfRange(content, start, end))));
+    return object;
+  }
+
+  @Override
+  public FDSObject getObjectIfModifiedSince(String bucketName,
+      String objectName, Date ifModifiedSince)
+      throws GalaxyFDSClientException {
+    record("getObjectIfModifiedSince", objectName);
+    synchronized (this) {
+      Date modified = lastModified.get(key(bucketName, objectName));
+      if (modified != null && !modified.after(ifModifiedSince)) {
+        return null;
+      }
+    }
+    return getObject(bucketName, objectName);
+  }
+
+  @Override
+  public FDSObjectMetadata getObjectMetadata(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    record("getObjectMetadata", objectName);
+    synchronized (this) {
+      byte[] content = objects.get(key(bucketName, objectName));
+      if (content == null) {
+        throw new GalaxyFDSClientException("object [" + objectName +
+            "] not found in bucket [" + bucketName + "]");
+      }
+      FDSObjectMetadata metadata = new FDSObjectMetadata();
+      metadata.setContentLength(content.length);
+      metadata.setLastModified(lastModified.get(key(bucketName, objectName)));
+      return metadata;
+    }
+  }
+
+  @Override
+  public boolean doesObjectExist(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    record("doesObjectExist", objectName);
+    synchronized (this) {
+      return objects.containsKey(key(bucketName, objectName));
+    }
+  }
+
+  @Override
+  public void deleteObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    record("deleteObject", objectName);
+    synchronized (this) {
+      objects.remove(key(bucketName, objectName));
+      lastModified.remove(key(bucketName, objectName));
+    }
+  }
+
+  @Override
+  public void renameObject(String bucketName, String srcObjectName,
+      String dstObjectName) throws GalaxyFDSClientException {
+    record("renameObject", srcObjectName);
+    synchronized (this) {
+      byte[] content = objects.remove(key(bucketName, srcObjectName));
+      lastModified.remove(key(bucketName, srcObjectName));
+      if (content != null) {
+        setContent(bucketName, dstObjectName, content);
+      }
+    }
+  }
+
+  @Override
+  public void restoreObject(String bucketName, String objectName)
+      throws GalaxyFDSClientException {
+    record("restoreObject", objectName);
+  }
+
+  @Override
+  public InitMultipartUploadResult initMultipartUpload(String bucketName,
+      String objectName) throws GalaxyFDSClientException {
+    record("initMultipartUpload", objectName);
+    String uploadId = UUID.randomUUID().toString();
+    synchronized (this) {
+      uploads.put(uploadId, new TreeMap<Integer, byte[]>());
+    }
+    InitMultipartUploadResult result = new InitMultipartUploadResult();
+    result.setBucketName(bucketName);
+    result.setObjectName(objectName);
+    result.setUploadId(uploadId);
+    return result;
+  }
+
+  @Override
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, InputStream in)
+      throws GalaxyFDSClientException {
+    record("uploadPart", objectName);
+    try {
+      return addPart(uploadId, partNumber, IOUtils.toByteArray(in));
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException(e);
+    }
+  }
+
+  @Override
+  public UploadPartResult uploadPart(String bucketName, String objectName,
+      String uploadId, int partNumber, File file, long offset, long length)
+      throws GalaxyFDSClientException {
+    record("uploadPart", objectName);
+    try {
+      return addPart(uploadId, partNumber, readFile(file, offset, length));
+    } catch (IOException e) {
+      throw new GalaxyFDSClientException(e);
+    }
+  }
+
+  private synchronized UploadPartResult addPart(String uploadId,
+      int partNumber, byte[] content) throws GalaxyFDSClientException {
+    Map<Integer, byte[]> parts = uploads.get(uploadId);
+    if (parts == null) {
+      throw new GalaxyFDSClientException("no such upload " + uploadId);
+    }
+    parts.put(partNumber, content);
+    return new UploadPartResult(partNumber, content.length,
+        "etag-" + partNumber);
+  }
+
+  @Override
+  public PutObjectResult completeMultipartUpload(String bucketName,
+      String objectName, String uploadId, FDSObjectMetadata metadata,
+      UploadPartResultList uploadPartResultList)
+      throws GalaxyFDSClientException {
+    record("completeMultipartUpload", objectName);
+    synchronized (this) {
+      Map<Integer, byte[]> parts = uploads.remove(uploadId);
+      if (parts == null) {
+        throw new GalaxyFDSClientException("no such upload " + uploadId);
+      }
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      int partNumber = 1;
+      for (UploadPartResult part :
+          uploadPartResultList.getUploadPartResultList()) {
+        if (part.getPartNumber() != partNumber++ ||
+            !parts.containsKey(part.getPartNumber())) {
+          throw new GalaxyFDSClientException("invalid part list");
+        }
+        byte[] partContent = parts.get(part.getPartNumber());
+        content.write(partContent, 0, partContent.length);
+      }
+      setContent(bucketName, objectName, content.toByteArray());
+    }
+    return new PutObjectResult();
+  }
+
+  @Override
+  public void abortMultipartUpload(String bucketName, String objectName,
+      String uploadId) throws GalaxyFDSClientException {
+    record("abortMultipartUpload", objectName);
+    synchronized (this) {
+      uploads.remove(uploadId);
+    }
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName)
+      throws GalaxyFDSClientException {
+    return listObjects(bucketName, "", "/");
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix)
+      throws GalaxyFDSClientException {
+    return listObjects(bucketName, prefix, "/");
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter) throws GalaxyFDSClientException {
+    return listObjects(bucketName, prefix, delimiter, 1000);
+  }
+
+  @Override
+  public FDSObjectListing listObjects(String bucketName, String prefix,
+      String delimiter, int maxKeys) throws GalaxyFDSClientException {
+    record("listObjects", prefix);
+    return list(bucketName, prefix, delimiter, null, maxKeys);
+  }
+
+  @Override
+  public FDSObjectListing listNextBatchOfObjects(
+      FDSObjectListing previousObjectListing)
+      throws GalaxyFDSClientException {
+    if (!previousObjectListing.isTruncated()) {
+      return null;
+    }
+    record("listNextBatchOfObjects", previousObjectListing.getNextMarker());
+    return list(previousObjectListing.getBucketName(),
+        previousObjectListing.getPrefix(),
+        previousObjectListing.getDelimiter(),
+        previousObjectListing.getNextMarker(),
+        previousObjectListing.getMaxKeys());
+  }
+
+  private synchronized FDSObjectListing list(String bucketName, String prefix,
+      String delimiter, String marker, int maxKeys) {
+    if (prefix == null) {
+      prefix = "";
+    }
+    String bucketKey = key(bucketName, "");
+    List<FDSObjectSummary> summaries = new ArrayList<FDSObjectSummary>();
+    List<String> commonPrefixes = new ArrayList<String>();
+    String lastKey = null;
+    boolean truncated = false;
+    for (Map.Entry<String, byte[]> entry :
+        objects.tailMap(bucketKey + prefix).entrySet()) {
+      if (!entry.getKey().startsWith(bucketKey + prefix)) {
+        break;
+      }
+      String name = entry.getKey().substring(bucketKey.length());
+      if (marker != null && name.compareTo(marker) <= 0) {
+        continue;
+      }
+      String commonPrefix = null;
+      if (delimiter != null && !delimiter.isEmpty()) {
+        int index = name.indexOf(delimiter, prefix.length());
+        if (index >= 0) {
+          commonPrefix = name.substring(0, index + delimiter.length());
+          if (commonPrefixes.contains(commonPrefix)) {
+            lastKey = name;
+            continue;
+          }
+        }
+      }
+      if (summaries.size() + commonPrefixes.size() == maxKeys) {
+        truncated = true;
+        break;
+      }
+      if (commonPrefix != null) {
+        commonPrefixes.add(commonPrefix);
+      } else {
+        FDSObjectSummary summary = new FDSObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setObjectName(name);
+        summary.setSize(entry.getValue().length);
+        summaries.add(summary);
+      }
+      lastKey = name;
+    }
+
+    FDSObjectListing listing = new FDSObjectListing();
+    listing.setBucketName(bucketName);
+    listing.setPrefix(prefix);
+    listing.setDelimiter(delimiter);
+    listing.setMarker(marker);
+    listing.setMaxKeys(maxKeys);
+    listing.setTruncated(truncated);
+    listing.setNextMarker(truncated ? lastKey : null);
+    listing.setObjectSummaries(summaries);
+    listing.setCommonPrefixes(commonPrefixes);
+    return listing;
+  }
+
+  private static String key(String bucketName, String objectName) {
+    return bucketName + "/" + objectName;
+  }
+
+  private static byte[] readFile(File file, long offset, long length)
+      throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] content = new byte[(int) length];
+      raf.seek(offset);
+      raf.readFully(content);
+      return content;
+    } finally {
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDownloadRouter {
+
+  private static class FixedRandom extends Random {
+    private double value = 0.5;
+
+    @Override
+    public double nextDouble() {
+      return value;
+    }
+  }
+
+  @Test
+  public void testChooseFasterEndpoint() {
+    FixedRandom random = new FixedRandom();
+    DownloadRouter router = new DownloadRouter(random);
+    // Both endpoints are tried first
+    Assert.assertTrue(router.chooseCdn(-1));
+    router.recordFirstByte(true, 50000000L);
+    Assert.assertFalse(router.chooseCdn(-1));
+    router.recordFirstByte(false, 10000000L);
+
+    // The origin answers first, the CDN has the better throughput
+    router.recordTransfer(true, 100 * 1024 * 1024, 1000000000L);
+    router.recordTransfer(false, 10 * 1024 * 1024, 1000000000L);
+    Assert.assertFalse(router.chooseCdn(1024));
+    Assert.assertTrue(router.chooseCdn(64 * 1024 * 1024));
+
+    // Probes go to the endpoint which looks slower
+    random.value = 0.01;
+    Assert.assertTrue(router.chooseCdn(1024));
+
+    // The CDN gets slow, the moving average follows
+    random.value = 0.5;
+    for (int i = 0; i < 20; i++) {
+      router.recordFirstByte(true, 20000000000L);
+    }
+    Assert.assertFalse(router.chooseCdn(64 * 1024 * 1024));
+  }
+
+  @Test
+  public void testFailuresCountAsSlowAnswers() {
+    DownloadRouter router = new DownloadRouter(new FixedRandom());
+    router.recordFirstByte(true, 10000000L);
+    router.recordFirstByte(false, 12000000L);
+    Assert.assertTrue(router.chooseCdn(1024));
+
+    // A connection refused at once weighs as a multiple of the average
+    router.recordFailure(true, 1000000L);
+    Assert.assertFalse(router.chooseCdn(1024));
+    for (int i = 0; i < 20; i++) {
+      router.recordFirstByte(true, 10000000L);
+    }
+    Assert.assertTrue(router.chooseCdn(1024));
+  }
+
+  @Test
+  public void testUnmeasuredThroughput() {
+    DownloadRouter router = new DownloadRouter(new FixedRandom());
+    router.recordFirstByte(true, 20000000L);
+    router.recordFirstByte(false, 10000000L);
+    router.recordTransfer(false, 10 * 1024 * 1024, 1000000000L);
+    // The CDN does not look faster for large downloads for lack of samples
+    Assert.assertFalse(router.chooseCdn(64 * 1024 * 1024));
+  }
+
+  @Test
+  public void testMeterTransferTimeOnly() throws Exception {
+    DownloadRouter router = new DownloadRouter(new FixedRandom());
+    router.recordFirstByte(true, 10000000L);
+    router.recordFirstByte(false, 10000000L);
+    // 1 MB per second from the origin
+    router.recordTransfer(false, 1024 * 1024, 1000000000L);
+
+    // The reader of the CDN content is slower than the origin, the CDN is
+    // not
+    InputStream input = router.meter(
+        new ByteArrayInputStream(new byte[256 * 1024]), true);
+    byte[] buffer = new byte[64 * 1024];
+    while (input.read(buffer) >= 0) {
+      Thread.sleep(100);
+    }
+    input.close();
+    Assert.assertTrue(router.chooseCdn(64 * 1024 * 1024));
+  }
+}
@@ -0,0 +1,73 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.model.FDSMd5VerifyingInputStream;
+
+public class TestFDSMd5VerifyingInputStream {
+  @Test(timeout = 120 * 1000)
+  public void testStream() throws Exception {
+    byte[] content = new byte[4000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+
+    InputStream inputStream = new FDSMd5VerifyingInputStream(
+        new ByteArrayInputStream(content), md5, "object");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    IOUtils.copy(inputStream, out);
+    Assert.assertArrayEquals(content, out.toByteArray());
+
+    content[1234]++;
+    inputStream = new FDSMd5VerifyingInputStream(
+        new ByteArrayInputStream(content), md5, "object");
+    try {
+      IOUtils.copy(inputStream, new ByteArrayOutputStream());
+      Assert.fail("corrupted content not detected");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testSkip() throws Exception {
+    byte[] content = new byte[4000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+
+    InputStream inputStream = new FDSMd5VerifyingInputStream(
+        new ByteArrayInputStream(content), md5, "object");
+    Assert.assertEquals(0, inputStream.skip(-1));
+    Assert.assertEquals(0, inputStream.skip(0));
+    Assert.assertEquals(1000, inputStream.skip(1000));
+    // The skipped bytes count in the digest checked at the end
+    Assert.assertEquals(3000, IOUtils.toByteArray(inputStream).length);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDecodeContentMd5() throws Exception {
+    byte[] md5 = MessageDigest.getInstance("MD5").digest(new byte[0]);
+    String hex = BaseEncoding.base16().lowerCase().encode(md5);
+    Assert.assertArrayEquals(md5,
+        FDSMd5VerifyingInputStream.decodeContentMd5(hex));
+    Assert.assertArrayEquals(md5,
+        FDSMd5VerifyingInputStream.decodeContentMd5(hex.toUpperCase()));
+    Assert.assertArrayEquals(md5, FDSMd5VerifyingInputStream.decodeContentMd5(
+        BaseEncoding.base64().encode(md5)));
+    Assert.assertNull(FDSMd5VerifyingInputStream.decodeContentMd5(null));
+    Assert.assertNull(FDSMd5VerifyingInputStream.decodeContentMd5(
+        "0123456789abcdef-2"));
+  }
+}
@@ -0,0 +1,50 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ContentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestFileChannelEntity {
+
+  @Test(timeout = 120 * 1000)
+  public void testWriteFileRegion() throws Exception {
+    int fileLength = FileChannelEntity.BUFFER_SIZE * 2 + 100;
+    byte[] content = new byte[fileLength];
+    for (int i = 0; i < fileLength; i++) {
+      content[i] = (byte) i;
+    }
+    File file = File.createTempFile("file-channel-entity", ".dat");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(content);
+      out.close();
+
+      FileChannelEntity entity = new FileChannelEntity(file,
+          ContentType.APPLICATION_OCTET_STREAM);
+      Assert.assertEquals(fileLength, entity.getContentLength());
+      Assert.assertTrue(entity.isRepeatable());
+      for (int i = 0; i < 2; i++) {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        entity.writeTo(sink);
+        Assert.assertArrayEquals(content, sink.toByteArray());
+      }
+
+      int offset = FileChannelEntity.BUFFER_SIZE - 7;
+      int length = FileChannelEntity.BUFFER_SIZE + 50;
+      byte[] region = Arrays.copyOfRange(content, offset, offset + length);
+      entity = new FileChannelEntity(file, offset, length, null);
+      ByteArrayOutputStream sink = new ByteArrayOutputStream();
+      entity.writeTo(sink);
+      Assert.assertArrayEquals(region, sink.toByteArray());
+      Assert.assertArrayEquals(region, IOUtils.toByteArray(entity.getContent()));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ContentType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.credential.BasicFDSCredential;
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+
+public class TestMappedByteBufferEntity {
+
+  private byte[] content;
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    content = new byte[FileChannelEntity.BUFFER_SIZE * 2 + 100];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+    file = File.createTempFile("mapped-byte-buffer-entity", ".dat");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content);
+    out.close();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testWriteFileRegion() throws Exception {
+    int offset = FileChannelEntity.BUFFER_SIZE - 7;
+    int length = FileChannelEntity.BUFFER_SIZE + 50;
+    byte[] region = Arrays.copyOfRange(content, offset, offset + length);
+    MappedByteBufferEntity entity = MappedByteBufferEntity.map(file, offset,
+        length, ContentType.APPLICATION_OCTET_STREAM);
+    Assert.assertEquals(length, entity.getContentLength());
+    Assert.assertTrue(entity.isRepeatable());
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream sink = new ByteArrayOutputStream();
+      entity.writeTo(sink);
+      Assert.assertArrayEquals(region, sink.toByteArray());
+      Assert.assertArrayEquals(region,
+          IOUtils.toByteArray(entity.getContent()));
+    }
+  }
+
+  @Test(timeout = 120 * 1000, expected = IOException.class)
+  public void testRegionBeyondEndOfFile() throws Exception {
+    MappedByteBufferEntity.map(file, content.length - 10, 11, null);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testUploadPartFromFileRegion() throws Exception {
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        received.write(IOUtils.toByteArray(exchange.getRequestBody()));
+        byte[] response = ("{\"partNumber\":3,\"etag\":\"etag-3\"," +
+            "\"partSize\":" + received.size() + "}").getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, response.length);
+        OutputStream body = exchange.getResponseBody();
+        body.write(response);
+        body.close();
+      }
+    });
+    server.start();
+    try {
+      FDSClientConfiguration fdsConfig = new FDSClientConfiguration();
+      fdsConfig.enableUnitTestMode(true);
+      fdsConfig.setBaseUriForUnitTest("http://localhost:" +
+          server.getAddress().getPort() + "/");
+      GalaxyFDSClient fdsClient = new GalaxyFDSClient(
+          new BasicFDSCredential("ACCESS_KEY", "ACCESS_SECRET"), fdsConfig);
+
+      int offset = 1000;
+      int length = FileChannelEntity.BUFFER_SIZE + 1;
+      UploadPartResult result = fdsClient.uploadPart("bucket", "object",
+          "upload-id", 3, file, offset, length);
+      Assert.assertEquals(3, result.getPartNumber());
+      Assert.assertEquals(length, result.getPartSize());
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(content, offset, offset + length),
+          received.toByteArray());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
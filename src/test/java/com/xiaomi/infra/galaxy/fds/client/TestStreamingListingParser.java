@@ -0,0 +1,87 @@
+package com.xiaomi.infra.galaxy.fds.client;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilter;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectFilters;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestStreamingListingParser {
+
+  private static final String RESPONSE = "{\"objects\":[" +
+      "{\"name\":\"logs/a.gz\",\"etag\":\"x\",\"size\":10," +
+      "\"owner\":{\"id\":\"u1\",\"displayName\":null}," +
+      "\"lastModified\":\"Oct 1, 2016\",\"uploadTime\":1}," +
+      "{\"size\":2000,\"owner\":{\"id\":\"u2\"},\"name\":\"logs/b.gz\"}," +
+      "{\"name\":\"logs/c.txt\",\"size\":30,\"owner\":null}]," +
+      "\"commonPrefixes\":[\"logs/d/\"],\"name\":\"bucket\"," +
+      "\"prefix\":\"logs/\",\"delimiter\":\"/\",\"marker\":null," +
+      "\"nextMarker\":\"logs/d/\",\"maxKeys\":4,\"truncated\":true}";
+
+  @Test
+  public void testParse() throws Exception {
+    Recorder recorder = new Recorder();
+    FDSObjectListing listing = StreamingListingParser.parse(
+        new StringReader(RESPONSE), "bucket", null, recorder);
+
+    assertEquals(3, recorder.objects.size());
+    FDSObjectSummary first = recorder.objects.get(0);
+    assertEquals("bucket", first.getBucketName());
+    assertEquals("logs/a.gz", first.getObjectName());
+    assertEquals(10, first.getSize());
+    assertEquals("u1", first.getOwner().getId());
+    assertEquals("logs/b.gz", recorder.objects.get(1).getObjectName());
+    assertEquals(2000, recorder.objects.get(1).getSize());
+    assertEquals("logs/d/", recorder.prefixes.get(0));
+
+    assertEquals("logs/", listing.getPrefix());
+    assertEquals("/", listing.getDelimiter());
+    assertEquals("logs/d/", listing.getNextMarker());
+    assertEquals(4, listing.getMaxKeys());
+    assertTrue(listing.isTruncated());
+    assertTrue(listing.getObjectSummaries().isEmpty());
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    FDSObjectFilter filter = FDSObjectFilters.and(
+        FDSObjectFilters.nameEndsWith(".gz"),
+        FDSObjectFilters.sizeBetween(0, 1000));
+    Recorder recorder = new Recorder();
+    StreamingListingParser.parse(new StringReader(RESPONSE), "bucket", filter,
+        recorder);
+    assertEquals(1, recorder.objects.size());
+    assertEquals("logs/a.gz", recorder.objects.get(0).getObjectName());
+
+    recorder = new Recorder();
+    StreamingListingParser.parse(new StringReader(RESPONSE), "bucket",
+        FDSObjectFilters.nameMatches("logs/[bc]\\..*"), recorder);
+    assertEquals(2, recorder.objects.size());
+  }
+
+  private static class Recorder implements FDSObjectVisitor {
+
+    private final List<FDSObjectSummary> objects =
+        new ArrayList<FDSObjectSummary>();
+    private final List<String> prefixes = new ArrayList<String>();
+
+    @Override
+    public void visitObject(FDSObjectSummary summary) {
+      objects.add(summary);
+    }
+
+    @Override
+    public void visitCommonPrefix(String commonPrefix) {
+      prefixes.add(commonPrefix);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package com.xiaomi.infra.galaxy.fds.client.cache;
+
+import java.io.File;
+import java.util.Date;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestDiskCachingGalaxyFDS {
+
+  private File cacheDir;
+  private InMemoryGalaxyFDS fds;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = Files.createTempDir();
+    fds = new InMemoryGalaxyFDS();
+    fds.setContent("bucket", "a", content(100, 1));
+    fds.setContent("bucket", "b", content(100, 2));
+    fds.setContent("bucket", "c", content(100, 3));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(cacheDir);
+  }
+
+  private static byte[] content(int length, int seed) {
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) (i * seed);
+    }
+    return content;
+  }
+
+  private static byte[] read(DiskCachingGalaxyFDS cache, String objectName)
+      throws Exception {
+    FDSObject object = cache.getObject("bucket", objectName);
+    try {
+      return IOUtils.toByteArray(object.getObjectContent());
+    } finally {
+      object.getObjectContent().close();
+    }
+  }
+
+  private File getCacheFile(String objectName, String suffix) {
+    return new File(cacheDir, Hashing.sha1().hashString(
+        "bucket/" + objectName, Charsets.UTF_8).toString() + suffix);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testConditionalRevalidation() throws Exception {
+    DiskCachingGalaxyFDS cache = new DiskCachingGalaxyFDS(fds, cacheDir,
+        1000);
+    assertArrayEquals(content(100, 1), read(cache, "a"));
+    assertEquals(1, fds.getCallCount("getObject"));
+    assertEquals(100, cache.getCacheSize());
+
+    // Not modified, the cached copy is served
+    fds.clearCalls();
+    assertArrayEquals(content(100, 1), read(cache, "a"));
+    assertEquals(1, fds.getCallCount("getObjectIfModifiedSince"));
+    assertEquals(0, fds.getCallCount("getObject"));
+
+    // Modified behind the cache, the new version replaces the cached one
+    fds.setContent("bucket", "a", content(50, 5));
+    fds.setLastModified("bucket", "a", new Date(
+        (System.currentTimeMillis() / 1000 + 10) * 1000));
+    fds.clearCalls();
+    assertArrayEquals(content(50, 5), read(cache, "a"));
+    assertEquals(1, fds.getCallCount("getObject"));
+    assertEquals(50, cache.getCacheSize());
+    fds.clearCalls();
+    assertArrayEquals(content(50, 5), read(cache, "a"));
+    assertEquals(0, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    DiskCachingGalaxyFDS cache = new DiskCachingGalaxyFDS(fds, cacheDir,
+        250);
+    read(cache, "a");
+    read(cache, "b");
+    read(cache, "a");
+    read(cache, "c");
+    assertEquals(200, cache.getCacheSize());
+    assertFalse(getCacheFile("b", ".data").exists());
+
+    fds.clearCalls();
+    read(cache, "a");
+    read(cache, "c");
+    assertEquals(0, fds.getCallCount("getObject"));
+    // The evicted object is fetched again without a conditional request
+    assertArrayEquals(content(100, 2), read(cache, "b"));
+    assertEquals(1, fds.getCallCount("getObject"));
+    assertEquals(2, fds.getCallCount("getObjectIfModifiedSince"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testReloadIgnoresCorruptFiles() throws Exception {
+    DiskCachingGalaxyFDS cache = new DiskCachingGalaxyFDS(fds, cacheDir,
+        1000);
+    read(cache, "a");
+    read(cache, "b");
+    read(cache, "c");
+
+    // A process restarted with intact files reuses them
+    cache = new DiskCachingGalaxyFDS(fds, cacheDir, 1000);
+    assertEquals(300, cache.getCacheSize());
+
+    Files.write("{\"key\": [", getCacheFile("a", ".meta"), Charsets.UTF_8);
+    Files.write(new byte[10], getCacheFile("b", ".data"));
+    File leftOver = new File(cacheDir, "0123.data.7.tmp");
+    Files.write(new byte[10], leftOver);
+    File orphan = new File(cacheDir, "0123.data");
+    Files.write(new byte[10], orphan);
+
+    cache = new DiskCachingGalaxyFDS(fds, cacheDir, 1000);
+    assertEquals(100, cache.getCacheSize());
+    assertFalse(getCacheFile("a", ".meta").exists());
+    assertFalse(getCacheFile("a", ".data").exists());
+    assertFalse(getCacheFile("b", ".meta").exists());
+    assertFalse(leftOver.exists());
+    assertFalse(orphan.exists());
+
+    fds.clearCalls();
+    assertArrayEquals(content(100, 1), read(cache, "a"));
+    assertArrayEquals(content(100, 2), read(cache, "b"));
+    assertArrayEquals(content(100, 3), read(cache, "c"));
+    assertEquals(2, fds.getCallCount("getObject"));
+    assertEquals(300, cache.getCacheSize());
+  }
+}
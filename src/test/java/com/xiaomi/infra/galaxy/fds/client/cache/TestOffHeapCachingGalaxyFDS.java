@@ -0,0 +1,169 @@
+package com.xiaomi.infra.galaxy.fds.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.transfer.FDSObjectOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestOffHeapCachingGalaxyFDS {
+
+  private static final byte[] OLD = "old version".getBytes();
+  private static final byte[] NEW = "new version".getBytes();
+
+  private OffHeapCachingGalaxyFDS cache;
+  private InMemoryGalaxyFDS fds;
+  // Name of the call during which a reader caches the object, as a
+  // concurrent reader could
+  private volatile String readDuring;
+  private volatile boolean failWrite;
+  // Content written after a read fetched the object, before it is cached
+  private volatile byte[] writeAfterFetch;
+
+  @Before
+  public void setUp() {
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (method.equals(readDuring)) {
+          read(objectName);
+          if (failWrite) {
+            throw new GalaxyFDSClientException("injected write failure");
+          }
+        }
+      }
+
+      @Override
+      public FDSObject getObject(String bucketName, String objectName,
+          long pos, long length) throws GalaxyFDSClientException {
+        FDSObject object = super.getObject(bucketName, objectName, pos,
+            length);
+        byte[] content = writeAfterFetch;
+        if (content != null) {
+          writeAfterFetch = null;
+          cache.putObject(bucketName, objectName,
+              new ByteArrayInputStream(content), null);
+        }
+        return object;
+      }
+    };
+    fds.setContent("bucket", "object", OLD);
+    cache = new OffHeapCachingGalaxyFDS(fds, 300, 300, 1, TimeUnit.HOURS);
+  }
+
+  private byte[] read(String objectName) throws GalaxyFDSClientException {
+    FDSObject object = cache.getObject("bucket", objectName);
+    try {
+      return IOUtils.toByteArray(object.getObjectContent());
+    } catch (Exception e) {
+      throw new GalaxyFDSClientException(e);
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testInvalidateAfterWrite() throws Exception {
+    readDuring = "putObject";
+    cache.putObject("bucket", "object", new ByteArrayInputStream(NEW), null);
+    assertArrayEquals(NEW, read("object"));
+
+    readDuring = "renameObject";
+    cache.renameObject("bucket", "object", "renamed");
+    assertArrayEquals(NEW, read("renamed"));
+    assertNotServed("object");
+
+    readDuring = "deleteObject";
+    cache.deleteObject("bucket", "renamed");
+    assertNotServed("renamed");
+  }
+
+  private void assertNotServed(String objectName) {
+    try {
+      read(objectName);
+      fail("a removed object should not be served from the cache");
+    } catch (GalaxyFDSClientException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testInvalidateAfterFailedWrite() throws Exception {
+    readDuring = "putObject";
+    failWrite = true;
+    try {
+      cache.putObject("bucket", "object", new ByteArrayInputStream(NEW),
+          null);
+      fail("put should fail");
+    } catch (GalaxyFDSClientException e) {
+      // expected
+    }
+    // The outcome of a failed write is unknown, the copy is dropped
+    assertEquals(0, cache.getCachedObjectCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testReadOverlappingWriteIsNotCached() throws Exception {
+    writeAfterFetch = NEW;
+    // The read returns the content it fetched, without caching it
+    assertArrayEquals(OLD, read("object"));
+    assertEquals(0, cache.getCachedObjectCount());
+    assertArrayEquals(NEW, read("object"));
+    assertEquals(1, cache.getCachedObjectCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testInvalidateOnStreamClose() throws Exception {
+    FDSObjectOutputStream output = cache.openForWrite("bucket", "object");
+    output.write(NEW);
+    assertArrayEquals(OLD, read("object"));
+    output.close();
+    assertArrayEquals(NEW, read("object"));
+
+    output = cache.openForWrite("bucket", "object");
+    output.write(OLD);
+    output.abort();
+    assertEquals(0, cache.getCachedObjectCount());
+    assertArrayEquals(NEW, read("object"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    // An object of the max object size fills the whole cache
+    fds.setContent("bucket", "large", new byte[300]);
+    read("large");
+    read("large");
+    assertEquals(1, cache.getCachedObjectCount());
+    assertEquals(1, fds.getCallCount("getObject"));
+
+    fds.setContent("bucket", "a", new byte[100]);
+    fds.setContent("bucket", "b", new byte[100]);
+    fds.setContent("bucket", "c", new byte[100]);
+    fds.setContent("bucket", "d", new byte[100]);
+    read("a");
+    read("b");
+    read("c");
+    assertEquals(3, cache.getCachedObjectCount());
+    read("a");
+    read("d");
+
+    fds.clearCalls();
+    read("a");
+    read("c");
+    read("d");
+    assertEquals(0, fds.getCallCount("getObject"));
+    // b was the least recently used object when d was loaded
+    read("b");
+    assertEquals(1, fds.getCallCount("getObject"));
+    assertEquals(3, cache.getCachedObjectCount());
+  }
+}
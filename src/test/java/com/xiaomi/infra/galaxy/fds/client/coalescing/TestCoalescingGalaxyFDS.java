@@ -0,0 +1,248 @@
+package com.xiaomi.infra.galaxy.fds.client.coalescing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCoalescingGalaxyFDS {
+
+  private static final int CALLERS = 4;
+
+  private ExecutorService executor;
+  private InMemoryGalaxyFDS fds;
+  private CoalescingGalaxyFDS coalescing;
+  // Requests to the server are held until the latch is released
+  private CountDownLatch release;
+  private volatile boolean failRequests;
+  private volatile boolean failWithError;
+  private byte[] content;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(CALLERS);
+    release = new CountDownLatch(1);
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (failWithError) {
+          throw new Error("injected error");
+        }
+        if (failRequests) {
+          throw new GalaxyFDSClientException("injected request failure");
+        }
+      }
+
+      @Override
+      public FDSObject getObject(String bucketName, String objectName,
+          long pos, long length) throws GalaxyFDSClientException {
+        FDSObject object = super.getObject(bucketName, objectName, pos,
+            length);
+        if (objectName.equals("unknown")) {
+          // As a chunked answer, the length is not known before reading
+          FDSObjectMetadata metadata = new FDSObjectMetadata();
+          metadata.setLastModified(
+              object.getObjectMetadata().getLastModified());
+          object.setObjectMetadata(metadata);
+        }
+        return object;
+      }
+    };
+    content = new byte[100];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+    fds.setContent("bucket", "object", content);
+    fds.setContent("bucket", "unknown", content);
+    coalescing = new CoalescingGalaxyFDS(fds, 100);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Runs the call from concurrent callers, the requests to the server are
+   * released once the specified number of callers wait for the request of
+   * another caller.
+   */
+  private <T> List<Future<T>> callConcurrently(Callable<T> call,
+      int expectedWaiters) throws InterruptedException {
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    for (int i = 0; i < CALLERS; i++) {
+      futures.add(executor.submit(call));
+    }
+    while (coalescing.getCoalescedCount() < expectedWaiters) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+    return futures;
+  }
+
+  private Callable<FDSObject> getObject(final String objectName) {
+    return new Callable<FDSObject>() {
+      @Override
+      public FDSObject call() throws Exception {
+        return coalescing.getObject("bucket", objectName);
+      }
+    };
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testConcurrentReadsShareOneRequest() throws Exception {
+    List<Future<FDSObject>> futures = callConcurrently(getObject("object"),
+        CALLERS - 1);
+    Set<FDSObjectMetadata> metadata = Collections.newSetFromMap(
+        new IdentityHashMap<FDSObjectMetadata, Boolean>());
+    for (Future<FDSObject> future : futures) {
+      FDSObject object = future.get();
+      // Every caller reads the whole content from its own stream
+      assertArrayEquals(content,
+          IOUtils.toByteArray(object.getObjectContent()));
+      object.getObjectContent().close();
+      assertEquals(content.length, object.getObjectSummary().getSize());
+      object.getObjectMetadata().setContentType("text/plain");
+      metadata.add(object.getObjectMetadata());
+    }
+    assertEquals(CALLERS, metadata.size());
+    assertEquals(1, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testConcurrentMetadataCallsShareOneRequest() throws Exception {
+    List<Future<FDSObjectMetadata>> futures = callConcurrently(
+        new Callable<FDSObjectMetadata>() {
+          @Override
+          public FDSObjectMetadata call() throws Exception {
+            return coalescing.getObjectMetadata("bucket", "object");
+          }
+        }, CALLERS - 1);
+    List<FDSObjectMetadata> metadata = new ArrayList<FDSObjectMetadata>();
+    for (Future<FDSObjectMetadata> future : futures) {
+      metadata.add(future.get());
+    }
+    assertEquals(1, fds.getCallCount("getObjectMetadata"));
+
+    // A caller modifying its metadata does not affect the others
+    metadata.get(0).setContentType("text/plain");
+    for (int i = 1; i < CALLERS; i++) {
+      assertEquals(content.length, metadata.get(i).getContentLength());
+      assertNull(metadata.get(i).getContentType());
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testErrorsFanOutToWaiters() throws Exception {
+    failRequests = true;
+    List<Future<FDSObject>> futures = callConcurrently(getObject("object"),
+        CALLERS - 1);
+    Set<Throwable> errors = new HashSet<Throwable>();
+    for (Future<FDSObject> future : futures) {
+      try {
+        future.get();
+        fail("every caller should get the failure");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof GalaxyFDSClientException);
+        assertEquals("injected request failure", e.getCause().getMessage());
+        errors.add(e.getCause());
+      }
+    }
+    assertEquals(CALLERS, errors.size());
+    assertEquals(1, fds.getCallCount("getObject"));
+
+    // The failed request is not shared with later callers
+    failRequests = false;
+    coalescing.getObject("bucket", "object").getObjectContent().close();
+    assertEquals(2, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testErrorsCompleteTheSharedRequest() throws Exception {
+    failWithError = true;
+    List<Future<Boolean>> futures = callConcurrently(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return coalescing.doesObjectExist("bucket", "object");
+      }
+    }, CALLERS - 1);
+    int errorCount = 0;
+    for (Future<Boolean> future : futures) {
+      try {
+        future.get();
+        fail("every caller should get the failure");
+      } catch (ExecutionException e) {
+        // The caller which sent the request gets the error itself
+        if (e.getCause() instanceof Error) {
+          errorCount++;
+        } else {
+          assertTrue(e.getCause() instanceof GalaxyFDSClientException);
+          assertEquals("injected error", e.getCause().getMessage());
+        }
+      }
+    }
+    assertEquals(1, errorCount);
+    assertEquals(1, fds.getCallCount("doesObjectExist"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testLargeObjectsAreReadSeparately() throws Exception {
+    fds.setContent("bucket", "object", new byte[101]);
+    List<Future<FDSObject>> futures = callConcurrently(getObject("object"),
+        CALLERS - 1);
+    for (Future<FDSObject> future : futures) {
+      assertEquals(101,
+          IOUtils.toByteArray(future.get().getObjectContent()).length);
+    }
+    // The waiters send their own request once the length is known
+    assertEquals(CALLERS, fds.getCallCount("getObject"));
+
+    // Ranges larger than the limit are not shared at all
+    fds.clearCalls();
+    long coalescedCount = coalescing.getCoalescedCount();
+    coalescing.getObject("bucket", "object", 0, 101);
+    assertEquals(coalescedCount, coalescing.getCoalescedCount());
+    assertEquals(1, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testUnknownLengthIsReadSeparately() throws Exception {
+    List<Future<FDSObject>> futures = callConcurrently(getObject("unknown"),
+        CALLERS - 1);
+    for (Future<FDSObject> future : futures) {
+      assertArrayEquals(content,
+          IOUtils.toByteArray(future.get().getObjectContent()));
+    }
+    assertEquals(CALLERS, fds.getCallCount("getObject"));
+  }
+}
@@ -0,0 +1,207 @@
+package com.xiaomi.infra.galaxy.fds.client.hedging;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestHedgingGalaxyFDS {
+
+  private InMemoryGalaxyFDS fds;
+  private HedgingGalaxyFDS hedging;
+  // Number of next requests which answer after the delay. The hedge may
+  // arrive before the first request, so either of them may be the slow one
+  private final AtomicInteger slowRequests = new AtomicInteger();
+  private volatile long slowMillis;
+  // Threads the requests were sent from
+  private final List<Thread> threads = new ArrayList<Thread>();
+  private final AtomicInteger closedCount = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        synchronized (threads) {
+          threads.add(Thread.currentThread());
+        }
+        if (slowRequests.getAndDecrement() > 0) {
+          sleep(slowMillis);
+        }
+      }
+
+      @Override
+      public FDSObject getObject(String bucketName, String objectName,
+          long pos, long length) throws GalaxyFDSClientException {
+        FDSObject object = super.getObject(bucketName, objectName, pos,
+            length);
+        object.setObjectContent(new FDSObjectInputStream(
+            new FilterInputStream(object.getObjectContent()) {
+              @Override
+              public void close() throws IOException {
+                closedCount.incrementAndGet();
+                super.close();
+              }
+            }));
+        return object;
+      }
+    };
+    fds.setContent("bucket", "object", new byte[100]);
+    hedging = new HedgingGalaxyFDS(fds, 95, 0.05, 10, 4);
+  }
+
+  @After
+  public void tearDown() {
+    hedging.shutdown();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void slowDown(int requests, long millis) {
+    slowMillis = millis;
+    slowRequests.set(requests);
+  }
+
+  /**
+   * Fills the latency windows with the latencies of fast requests.
+   */
+  private void prime() throws Exception {
+    for (int i = 0; i < HedgingGalaxyFDS.LATENCY_WINDOW_SIZE; i++) {
+      hedging.getObjectMetadata("bucket", "object");
+      hedging.getObject("bucket", "object", 0, 10).getObjectContent().close();
+    }
+    closedCount.set(0);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testHedgeAfterPercentile() throws Exception {
+    // No hedge before the latencies are known
+    slowDown(1, 100);
+    hedging.getObjectMetadata("bucket", "object");
+    assertEquals(0, hedging.getHedgeCount());
+
+    prime();
+    assertEquals(0, hedging.getHedgeCount());
+    slowDown(1, 2000);
+    long startTime = System.currentTimeMillis();
+    assertEquals(100, hedging.getObjectMetadata("bucket", "object")
+        .getContentLength());
+    // The first answer is returned while the slow request is pending
+    assertTrue(System.currentTimeMillis() - startTime < 1000);
+    assertEquals(1, hedging.getHedgeCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testHedgeBudget() throws Exception {
+    prime();
+    // Unused hedges accumulated up to 10 while priming, then each request
+    // adds 0.05 hedge
+    slowDown(Integer.MAX_VALUE, 20);
+    long requestCount = hedging.getRequestCount();
+    for (int i = 0; i < 20; i++) {
+      hedging.getObjectMetadata("bucket", "object");
+    }
+    assertEquals(requestCount + 20, hedging.getRequestCount());
+    assertEquals(10, hedging.getHedgeCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testLosingAnswerIsReleased() throws Exception {
+    prime();
+    slowDown(1, 2000);
+    long startTime = System.currentTimeMillis();
+    FDSObject object = hedging.getObject("bucket", "object", 0, 10);
+    assertTrue(System.currentTimeMillis() - startTime < 1000);
+    assertEquals(1, hedging.getHedgeCount());
+    // The slow request answers after the other one won, its stream is closed
+    while (closedCount.get() == 0) {
+      Thread.sleep(10);
+    }
+    assertEquals(10, IOUtils.toByteArray(object.getObjectContent()).length);
+    object.getObjectContent().close();
+    assertEquals(2, closedCount.get());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testUnhedgedCallsAreSentByCaller() throws Exception {
+    hedging.getObject("bucket", "object").getObjectContent().close();
+    hedging.getObject("bucket", "object", 0, -1).getObjectContent().close();
+    hedging.getObject("bucket", "object", 0, 11).getObjectContent().close();
+    hedging.getObject("bucket", "object", 10, 0).getObjectContent().close();
+    assertEquals(0, hedging.getRequestCount());
+    assertEquals(4, threads.size());
+    for (Thread thread : threads) {
+      assertEquals(Thread.currentThread(), thread);
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testBusyThreadsSendFromCaller() throws Exception {
+    hedging.shutdown();
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean blockNext = new AtomicBoolean(true);
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        synchronized (threads) {
+          threads.add(Thread.currentThread());
+        }
+        if (blockNext.compareAndSet(true, false)) {
+          entered.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    fds.setContent("bucket", "object", new byte[100]);
+    hedging = new HedgingGalaxyFDS(fds, 95, 0.05, 10, 1);
+
+    // The only thread of the pool waits for the first request
+    Thread caller = new Thread() {
+      @Override
+      public void run() {
+        try {
+          hedging.getObjectMetadata("bucket", "object");
+        } catch (GalaxyFDSClientException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    caller.start();
+    entered.await();
+    assertEquals(100, hedging.getObjectMetadata("bucket", "object")
+        .getContentLength());
+    assertEquals(Thread.currentThread(), threads.get(1));
+    release.countDown();
+    caller.join();
+    assertEquals(2, hedging.getRequestCount());
+  }
+}
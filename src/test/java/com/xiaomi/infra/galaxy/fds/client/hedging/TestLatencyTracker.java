@@ -0,0 +1,32 @@
+package com.xiaomi.infra.galaxy.fds.client.hedging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLatencyTracker {
+
+  @Test
+  public void testPercentile() {
+    LatencyTracker tracker = new LatencyTracker(50, 16);
+    for (int i = 1; i < 16; i++) {
+      tracker.record(i);
+    }
+    // Not trusted until the window is full
+    assertEquals(-1, tracker.getPercentileNanos());
+    tracker.record(16);
+    assertEquals(8, tracker.getPercentileNanos());
+
+    // Old samples leave the window
+    for (int i = 0; i < 16; i++) {
+      tracker.record(1000 + i);
+    }
+    assertEquals(1007, tracker.getPercentileNanos());
+
+    tracker = new LatencyTracker(95, 100);
+    for (int i = 100; i > 0; i--) {
+      tracker.record(i);
+    }
+    assertEquals(95, tracker.getPercentileNanos());
+  }
+}
@@ -0,0 +1,71 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestAdaptivePageSizer {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+  @Test
+  public void testLatency() {
+    AdaptivePageSizer sizer = new FixedHeapSizer(0.1);
+    assertEquals(1000, sizer.getPageSize());
+    sizer.record(1000, 1000, FAST);
+    assertEquals(2000, sizer.getPageSize());
+
+    // A short page means the listing ends, it tells nothing
+    sizer.record(2000, 10, FAST);
+    assertEquals(2000, sizer.getPageSize());
+
+    // Pages requested before the last growth do not grow it again
+    sizer.record(1000, 1000, FAST);
+    assertEquals(2000, sizer.getPageSize());
+
+    for (int i = 0; i < 10; i++) {
+      sizer.record(sizer.getPageSize(), sizer.getPageSize(), FAST);
+    }
+    assertEquals(10000, sizer.getPageSize());
+
+    sizer.record(10000, 10000, SLOW);
+    assertEquals(5000, sizer.getPageSize());
+    for (int i = 0; i < 10; i++) {
+      sizer.record(sizer.getPageSize(), sizer.getPageSize(), SLOW);
+    }
+    assertEquals(100, sizer.getPageSize());
+  }
+
+  @Test
+  public void testHeapUsage() {
+    AdaptivePageSizer sizer = new FixedHeapSizer(0.9);
+    sizer.record(1000, 1000, FAST);
+    assertEquals(500, sizer.getPageSize());
+  }
+
+  @Test
+  public void testHeapUsageAfterCollection() {
+    System.gc();
+    double heapUsage = new AdaptivePageSizer().getHeapUsage();
+    assertTrue(heapUsage >= 0 &&
+        heapUsage < AdaptivePageSizer.DEFAULT_MAX_HEAP_USAGE);
+  }
+
+  private static class FixedHeapSizer extends AdaptivePageSizer {
+
+    private final double heapUsage;
+
+    FixedHeapSizer(double heapUsage) {
+      this.heapUsage = heapUsage;
+    }
+
+    @Override
+    double getHeapUsage() {
+      return heapUsage;
+    }
+  }
+}
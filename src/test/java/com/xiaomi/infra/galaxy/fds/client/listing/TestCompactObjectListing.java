@@ -0,0 +1,84 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+import com.xiaomi.infra.galaxy.fds.client.model.Owner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestCompactObjectListing {
+
+  @Test
+  public void testReadAndSearch() {
+    // Long shared prefixes and enough names to span several chunks
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 20000; i++) {
+      names.add(String.format("logs/2016/10/%02d/host-%05d.log.gz", i % 31 + 1,
+          i));
+    }
+    Collections.sort(names);
+    names.add("logs/\u00e9t\u00e9");
+    names.add("logs/\ud83d\ude00");
+
+    CompactObjectListing listing = new CompactObjectListing("bucket");
+    Owner[] owners = {new Owner("a", "A"), new Owner("b", "B"), null};
+    for (int i = 0; i < names.size(); i++) {
+      listing.add(names.get(i), i, owners[i % 3]);
+    }
+    listing.trimToSize();
+    listing.add("zz", 7, new Owner("a", "A"));
+    names.add("zz");
+
+    assertEquals(names.size(), listing.size());
+    for (int i = 0; i < names.size(); i += 997) {
+      assertEquals(names.get(i), listing.getObjectName(i));
+      assertEquals(i, listing.indexOf(names.get(i)));
+    }
+    int last = names.size() - 1;
+    assertEquals("zz", listing.get(last).getObjectName());
+    assertEquals(7, listing.getSize(last));
+    assertEquals("A", listing.getOwner(last).getDisplayName());
+    assertNull(listing.getOwner(2));
+
+    assertEquals(-1, listing.indexOf("a"));
+    assertEquals(-2, listing.indexOf(names.get(0) + "0"));
+    assertEquals(-names.size() - 1, listing.indexOf("zzz"));
+
+    Iterator<FDSObjectSummary> iterator = listing.iterator();
+    for (int i = 0; i < names.size(); i++) {
+      FDSObjectSummary summary = iterator.next();
+      assertEquals(names.get(i), summary.getObjectName());
+      assertEquals("bucket", summary.getBucketName());
+      assertEquals(i == last ? 7 : i, summary.getSize());
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testOrder() {
+    CompactObjectListing listing = new CompactObjectListing("bucket");
+    listing.add("b", 1, null);
+    try {
+      listing.add("a", 1, null);
+      fail("names out of order accepted");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    try {
+      listing.add("b", 1, null);
+      fail("duplicate name accepted");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertEquals(1, listing.size());
+  }
+}
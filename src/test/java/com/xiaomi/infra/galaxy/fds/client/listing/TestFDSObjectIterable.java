@@ -0,0 +1,159 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectListing;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFDSObjectIterable {
+
+  private InMemoryGalaxyFDS fds;
+  private List<String> names;
+  // Page size of each request
+  private List<Integer> pageSizes;
+  private volatile boolean failNextPages;
+
+  @Before
+  public void setUp() {
+    pageSizes = new ArrayList<Integer>();
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (failNextPages && method.equals("listNextBatchOfObjects")) {
+          throw new GalaxyFDSClientException("injected listing failure");
+        }
+      }
+
+      @Override
+      public FDSObjectListing listObjects(String bucketName, String prefix,
+          String delimiter, int maxKeys) throws GalaxyFDSClientException {
+        synchronized (pageSizes) {
+          pageSizes.add(maxKeys);
+        }
+        return super.listObjects(bucketName, prefix, delimiter, maxKeys);
+      }
+
+      @Override
+      public FDSObjectListing listNextBatchOfObjects(
+          FDSObjectListing previousObjectListing)
+          throws GalaxyFDSClientException {
+        synchronized (pageSizes) {
+          pageSizes.add(previousObjectListing.getMaxKeys());
+        }
+        return super.listNextBatchOfObjects(previousObjectListing);
+      }
+    };
+    names = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      String name = String.format("p/%04d", i);
+      fds.setContent("bucket", name, new byte[0]);
+      names.add(name);
+    }
+    fds.setContent("bucket", "q", new byte[0]);
+  }
+
+  private static List<String> list(Iterable<FDSObjectSummary> iterable) {
+    List<String> listed = new ArrayList<String>();
+    for (FDSObjectSummary summary : iterable) {
+      listed.add(summary.getObjectName());
+    }
+    return listed;
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testPagesAreListedInOrder() throws Exception {
+    assertEquals(names, list(new FDSObjectIterable(fds, "bucket", "p/", 64)));
+    assertEquals(1, fds.getCallCount("listObjects"));
+    assertEquals(15, fds.getCallCount("listNextBatchOfObjects"));
+    for (int pageSize : pageSizes) {
+      assertEquals(64, pageSize);
+    }
+
+    // The server chooses the page size
+    fds.clearCalls();
+    assertEquals(names, list(new FDSObjectIterable(fds, "bucket", "p/")));
+    assertEquals(1, fds.getCallCount("listObjects"));
+    assertEquals(0, fds.getCallCount("listNextBatchOfObjects"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testInvalidPageSize() {
+    try {
+      new FDSObjectIterable(fds, "bucket", "p/", 0);
+      fail("a page size should be positive");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testNextPageIsPrefetched() throws Exception {
+    Iterator<FDSObjectSummary> iterator = new FDSObjectIterable(fds, "bucket",
+        "p/", 100).iterator();
+    assertEquals(names.get(0), iterator.next().getObjectName());
+    // The second page is requested while the first one is consumed
+    while (fds.getCallCount("listNextBatchOfObjects") == 0) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(1, fds.getCallCount("listNextBatchOfObjects"));
+    for (int i = 1; i < 100; i++) {
+      assertEquals(names.get(i), iterator.next().getObjectName());
+    }
+    // The third page is requested once the second one is consumed
+    assertEquals(names.get(100), iterator.next().getObjectName());
+    while (fds.getCallCount("listNextBatchOfObjects") == 1) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testErrorIsThrownAsListingException() throws Exception {
+    failNextPages = true;
+    Iterator<FDSObjectSummary> iterator = new FDSObjectIterable(fds, "bucket",
+        "p/", 100).iterator();
+    // The objects of the pages listed before the failure are returned
+    for (int i = 0; i < 100; i++) {
+      assertEquals(names.get(i), iterator.next().getObjectName());
+    }
+    try {
+      iterator.next();
+      fail("the failure of the second page should be thrown");
+    } catch (FDSListingException e) {
+      assertTrue(e.getCause() instanceof GalaxyFDSClientException);
+      assertEquals("injected listing failure", e.getCause().getMessage());
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testPageSizer() throws Exception {
+    AdaptivePageSizer sizer = new AdaptivePageSizer(100, 100, 400, 60 * 1000,
+        1) {
+      @Override
+      double getHeapUsage() {
+        return 0.1;
+      }
+    };
+    assertEquals(names, list(new FDSObjectIterable(fds, "bucket", "p/",
+        sizer)));
+    // Full pages answered fast double the page size up to the max
+    List<Integer> expected = new ArrayList<Integer>();
+    expected.add(100);
+    expected.add(200);
+    expected.add(400);
+    expected.add(400);
+    assertEquals(expected, pageSizes);
+  }
+}
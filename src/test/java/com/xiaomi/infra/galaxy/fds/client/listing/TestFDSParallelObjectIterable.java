@@ -0,0 +1,287 @@
+package com.xiaomi.infra.galaxy.fds.client.listing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSParallelObjectIterable.Partition;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestFDSParallelObjectIterable {
+
+  private InMemoryGalaxyFDS fds;
+  private List<String> names;
+  // Markers the listings continue after
+  private List<String> markers;
+
+  @Before
+  public void setUp() {
+    markers = new ArrayList<String>();
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (method.equals("listNextBatchOfObjects")) {
+          synchronized (markers) {
+            markers.add(objectName);
+          }
+        }
+      }
+    };
+    names = new ArrayList<String>();
+  }
+
+  private void addObject(String name) {
+    fds.setContent("bucket", name, new byte[0]);
+    names.add(name);
+  }
+
+  private static FDSObjectSummary summary(String name) {
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setObjectName(name);
+    return summary;
+  }
+
+  private static String describe(Partition partition) {
+    if (partition.getObjects() != null) {
+      List<String> objectNames = new ArrayList<String>();
+      for (FDSObjectSummary summary : partition.getObjects()) {
+        objectNames.add(summary.getObjectName());
+      }
+      return objectNames.toString();
+    }
+    return partition.getPrefix() + "(" + partition.getAfterMarker() + "," +
+        partition.getLastName() + "]" + partition.getDelimiter();
+  }
+
+  private static List<String> describe(List<Partition> partitions) {
+    List<String> descriptions = new ArrayList<String>();
+    for (Partition partition : partitions) {
+      descriptions.add(describe(partition));
+    }
+    return descriptions;
+  }
+
+  private List<String> list(boolean ordered) {
+    return list(4, ordered);
+  }
+
+  private List<String> list(int parallelism, boolean ordered) {
+    List<String> listed = new ArrayList<String>();
+    for (FDSObjectSummary summary : new FDSParallelObjectIterable(fds,
+        "bucket", "p/", parallelism, ordered)) {
+      listed.add(summary.getObjectName());
+    }
+    return listed;
+  }
+
+  // Leaves the iterator unreachable once it returns
+  private String listFirst(boolean ordered) {
+    for (FDSObjectSummary summary : new FDSParallelObjectIterable(fds,
+        "bucket", "p/", 4, ordered)) {
+      return summary.getObjectName();
+    }
+    return null;
+  }
+
+  private void assertListed() {
+    Collections.sort(names);
+    assertEquals(names, list(true));
+    List<String> unordered = list(false);
+    assertEquals(names.size(), unordered.size());
+    assertEquals(new HashSet<String>(names), new HashSet<String>(unordered));
+  }
+
+  private static int countListingThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() &&
+          thread.getName().startsWith("fds-parallel-listing-")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testMergePartitions() {
+    List<Partition> partitions = FDSParallelObjectIterable.mergePartitions(
+        Arrays.asList("p/d/", "p/b/"), Arrays.asList(summary("p/e"),
+            summary("p/c2"), summary("p/a"), summary("p/c")));
+    assertEquals(Arrays.asList("[p/a]", "p/b/(null,null]", "[p/c, p/c2]",
+        "p/d/(null,null]", "[p/e]"), describe(partitions));
+  }
+
+  @Test
+  public void testRangePartitions() {
+    // No object before the first prefix nor between the last two
+    List<Partition> partitions = FDSParallelObjectIterable.rangePartitions(
+        "p/", Arrays.asList("p/b/", "p/d/", "p/f/"),
+        Arrays.asList("p/g", "p/c2"), 100);
+    assertEquals(Arrays.asList("p/b/(null,null]", "p/(p/b/,p/c2]/",
+        "p/d/(null,null]", "p/f/(null,null]", "p/(p/f/,p/g]/"),
+        describe(partitions));
+
+    partitions = FDSParallelObjectIterable.rangePartitions("p/",
+        Arrays.asList("p/b/"), Arrays.asList("p/a"), 100);
+    assertEquals(Arrays.asList("p/(null,p/a]/", "p/b/(null,null]"),
+        describe(partitions));
+  }
+
+  @Test
+  public void testSplitFlatKeyspace() {
+    List<Partition> partitions = FDSParallelObjectIterable.splitFlatKeyspace(
+        "p/", null, 100);
+    assertEquals(63, partitions.size());
+    assertEquals("p/(null,p/0]", describe(partitions.get(0)));
+    assertEquals("p/(p/0,p/1]", describe(partitions.get(1)));
+    assertEquals("p/(p/z,null]", describe(partitions.get(62)));
+
+    // Ranges up to the marker are dropped, the marker starts the next one
+    partitions = FDSParallelObjectIterable.splitFlatKeyspace("p/", "p/B7",
+        100);
+    assertEquals(51, partitions.size());
+    assertEquals("p/(p/B7,p/C]", describe(partitions.get(0)));
+    assertEquals("p/(p/C,p/D]", describe(partitions.get(1)));
+    partitions = FDSParallelObjectIterable.splitFlatKeyspace("p/", "p/C",
+        100);
+    assertEquals("p/(p/C,p/D]", describe(partitions.get(0)));
+    partitions = FDSParallelObjectIterable.splitFlatKeyspace("p/", "p/zz",
+        100);
+    assertEquals(1, partitions.size());
+    assertNull(partitions.get(0).getLastName());
+  }
+
+  @Test
+  public void testSplitBoundaries() {
+    // The names of the page share "p/2024-01-"
+    assertEquals(Arrays.asList("p/2024-01-3", "p/2024-01-4", "p/2024-01-5"),
+        FDSParallelObjectIterable.splitBoundaries("p/2024-01-11-00",
+            "p/2024-01-20-99", "p/3", 4));
+    // Boundaries stop before the last name
+    assertEquals(Arrays.asList("p/a9"), FDSParallelObjectIterable
+        .splitBoundaries("p/a1", "p/a8", "p/a9x", 10));
+    assertEquals(Collections.<String>emptyList(), FDSParallelObjectIterable
+        .splitBoundaries("p/a1", "p/az", "p/b", 4));
+    // A page of one name splits on its last character
+    assertEquals(Arrays.asList("p/abd", "p/abe"), FDSParallelObjectIterable
+        .splitBoundaries("p/abc", "p/abc", null, 3));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testCompleteFirstPageIsNotSplit() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      addObject(String.format("p/%03d", i));
+    }
+    assertEquals(names, list(true));
+    assertEquals(1, fds.getCallCount("listObjects"));
+    assertEquals(0, fds.getCallCount("listNextBatchOfObjects"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testFlatKeyspace() throws Exception {
+    for (int i = 0; i < 2500; i++) {
+      addObject(String.format("p/%04d", i));
+    }
+    addObject("p/x/nested");
+    Collections.sort(names);
+    assertEquals(names, list(true));
+    List<String> unordered = list(false);
+    assertEquals(names.size(), unordered.size());
+    assertEquals(new HashSet<String>(names), new HashSet<String>(unordered));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testHierarchicalKeyspace() throws Exception {
+    for (int i = 0; i < 600; i++) {
+      addObject(String.format("p/a%03d", i));
+      addObject(String.format("p/c%03d", i));
+    }
+    addObject("p/b/1");
+    addObject("p/b/2/3");
+    addObject("p/d/1");
+    addObject("p/e");
+    assertListed();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDiscoveryWalkIsBounded() throws Exception {
+    for (int i = 0; i < 2500; i++) {
+      addObject(String.format("p/d%04d/x", i));
+      addObject(String.format("p/o%04d", i));
+    }
+    List<Partition> partitions = new FDSParallelObjectIterable(fds, "bucket",
+        "p/", 4, true).discoverPartitions();
+    assertEquals(1, fds.getCallCount("listObjects"));
+    assertEquals(FDSParallelObjectIterable.MAX_DISCOVERY_PAGES - 1,
+        fds.getCallCount("listNextBatchOfObjects"));
+    // The walk ends with the 1500th object, the rest is split by ranges
+    assertEquals("p/d0000/(null,null]", describe(partitions.get(0)));
+    assertEquals("p/(p/d2499/,p/o1499]/", describe(partitions.get(2500)));
+    assertEquals("p/(p/o1499,p/p]", describe(partitions.get(2501)));
+    assertEquals("p/(p/z,null]", describe(partitions.get(
+        partitions.size() - 1)));
+    assertListed();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDiscoveryWalkWithoutObjects() throws Exception {
+    for (int i = 0; i < 5000; i++) {
+      addObject(String.format("p/d%04d/x", i));
+    }
+    List<Partition> partitions = new FDSParallelObjectIterable(fds, "bucket",
+        "p/", 4, true).discoverPartitions();
+    // No object ends the walked part, the whole keyspace is split by ranges
+    assertEquals(63, partitions.size());
+    assertEquals("p/(null,p/0]", describe(partitions.get(0)));
+    assertListed();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testBusyRangeIsSplitAgain() throws Exception {
+    // Date keys all fall in the range of the first character "2"
+    for (int day = 1; day <= 30; day++) {
+      for (int i = 0; i < 100; i++) {
+        addObject(String.format("p/2024-01-%02d-%02d", day, i));
+      }
+    }
+    // Enough threads for the busy range to be split with the first ones
+    assertEquals(names, list(40, true));
+    assertTrue(markers.contains("p/2024-01-3"));
+    assertListed();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDroppedIteratorReleasesThreads() throws Exception {
+    for (int i = 0; i < 5000; i++) {
+      addObject(String.format("p/%04d", i));
+    }
+    for (boolean ordered : new boolean[] {true, false}) {
+      assertTrue(names.contains(listFirst(ordered)));
+      while (countListingThreads() > 0) {
+        System.gc();
+        Thread.sleep(100);
+      }
+    }
+
+    // A closed iterator releases its threads at once
+    FDSParallelObjectIterable.ListingIterator iterator =
+        new FDSParallelObjectIterable(fds, "bucket", "p/", 4, true).iterator();
+    iterator.next();
+    iterator.close();
+    while (countListingThreads() > 0) {
+      Thread.sleep(10);
+    }
+  }
+}
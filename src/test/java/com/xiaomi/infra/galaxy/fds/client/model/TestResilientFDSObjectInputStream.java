@@ -0,0 +1,175 @@
+package com.xiaomi.infra.galaxy.fds.client.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestResilientFDSObjectInputStream {
+
+  private byte[] content;
+  private Date lastModified;
+  // Position and length of each reopen request
+  private List<String> reopens;
+  // Number of bytes each stream returns before its connection breaks,
+  // the streams of later requests do not break
+  private List<Integer> breakAfter;
+  private int failedReopens;
+
+  @Before
+  public void setUp() {
+    content = new byte[1000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+    lastModified = new Date(1400000000000L);
+    reopens = new ArrayList<String>();
+    breakAfter = new ArrayList<Integer>();
+    failedReopens = 0;
+  }
+
+  private FDSObject newObject(long position, long length) {
+    int start = (int) position;
+    int end = length < 0 ? content.length : (int) (position + length);
+    InputStream stream = new ByteArrayInputStream(
+        Arrays.copyOfRange(content, start, end));
+    if (!breakAfter.isEmpty()) {
+      stream = new BreakingInputStream(stream, breakAfter.remove(0));
+    }
+    FDSObjectMetadata metadata = new FDSObjectMetadata();
+    metadata.setLastModified(lastModified);
+    FDSObjectSummary summary = new FDSObjectSummary();
+    summary.setSize(end - start);
+    FDSObject object = new FDSObject();
+    object.setObjectMetadata(metadata);
+    object.setObjectSummary(summary);
+    object.setObjectContent(new FDSObjectInputStream(stream));
+    return object;
+  }
+
+  private ResilientFDSObjectInputStream open(long position, int maxRetries) {
+    return new ResilientFDSObjectInputStream(newObject(position, -1),
+        "object", position, maxRetries) {
+      @Override
+      protected FDSObject reopen(long position, long length)
+          throws GalaxyFDSClientException {
+        reopens.add(position + "+" + length);
+        if (failedReopens > 0) {
+          failedReopens--;
+          throw new GalaxyFDSClientException("injected request failure");
+        }
+        return newObject(position, length);
+      }
+    };
+  }
+
+  private static byte[] readFully(InputStream input) throws IOException {
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    read.write(input.read());
+    byte[] buffer = new byte[33];
+    int n;
+    while ((n = input.read(buffer, 0, buffer.length)) >= 0) {
+      read.write(buffer, 0, n);
+    }
+    return read.toByteArray();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testReconnectAtPosition() throws Exception {
+    breakAfter.add(300);
+    breakAfter.add(200);
+    failedReopens = 1;
+    ResilientFDSObjectInputStream input = open(100, 3);
+
+    assertArrayEquals(Arrays.copyOfRange(content, 100, 1000),
+        readFully(input));
+    assertEquals(1000, input.getPosition());
+    // A failed request spends a retry as well
+    assertEquals(Arrays.asList("400+600", "400+600", "600+400"), reopens);
+    input.close();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testRetriesExhausted() throws Exception {
+    breakAfter.add(100);
+    breakAfter.add(100);
+    breakAfter.add(100);
+    ResilientFDSObjectInputStream input = open(0, 2);
+    try {
+      readFully(input);
+      fail("read should fail once the retries are spent");
+    } catch (IOException e) {
+      assertEquals("connection reset", e.getMessage());
+    }
+    assertEquals(300, input.getPosition());
+    assertEquals(2, reopens.size());
+    input.close();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testObjectModifiedDuringRead() throws Exception {
+    breakAfter.add(300);
+    ResilientFDSObjectInputStream input = open(0, 3);
+    byte[] buffer = new byte[300];
+    assertEquals(300, input.read(buffer));
+
+    lastModified = new Date(lastModified.getTime() + 1000);
+    try {
+      input.read(buffer);
+      fail("a read of another version of the object should fail");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("modified"));
+      assertEquals("connection reset", e.getCause().getMessage());
+    }
+    // No content of the new version is returned
+    assertEquals(300, input.getPosition());
+    assertEquals(1, reopens.size());
+    input.close();
+  }
+
+  private static class BreakingInputStream extends FilterInputStream {
+    private int remaining;
+
+    BreakingInputStream(InputStream in, int remaining) {
+      super(in);
+      this.remaining = remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        throw new IOException("connection reset");
+      }
+      remaining--;
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        throw new IOException("connection reset");
+      }
+      int n = super.read(b, off, Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+  }
+}
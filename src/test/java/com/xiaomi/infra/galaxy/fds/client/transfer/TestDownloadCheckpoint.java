@@ -0,0 +1,65 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDownloadCheckpoint {
+
+  private File journalFile;
+
+  @Before
+  public void setUp() throws Exception {
+    journalFile = File.createTempFile("download-checkpoint", ".journal");
+    journalFile.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    journalFile.delete();
+  }
+
+  private static FDSObjectMetadata metadata(long length, long lastModified,
+      String md5) {
+    FDSObjectMetadata metadata = new FDSObjectMetadata();
+    metadata.setContentLength(length);
+    metadata.setLastModified(new Date(lastModified));
+    metadata.setContentMD5(md5);
+    return metadata;
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumeSameVersionOnly() throws Exception {
+    assertNull(DownloadCheckpoint.load(journalFile));
+
+    DownloadCheckpoint checkpoint = DownloadCheckpoint.create(journalFile,
+        "bucket", "object", metadata(4096, 1000L, "md5"), 1024);
+    checkpoint.rangeCompleted(0, 1024);
+    checkpoint.rangeCompleted(2048, 1024);
+    checkpoint.close();
+
+    DownloadCheckpoint loaded = DownloadCheckpoint.load(journalFile);
+    assertTrue(loaded.matches("bucket", "object", metadata(4096, 1000L, "md5")));
+    assertFalse(loaded.matches("bucket", "object", metadata(4096, 2000L, "md5")));
+    assertFalse(loaded.matches("bucket", "object", metadata(4096, 1000L, "new")));
+    assertFalse(loaded.matches("bucket", "object", metadata(4000, 1000L, "md5")));
+    assertEquals(4096, loaded.getObjectLength());
+    assertEquals(1024, loaded.getPartSize());
+    assertEquals(2, loaded.getCompletedRangeCount());
+    assertTrue(loaded.isRangeCompleted(2048));
+    assertFalse(loaded.isRangeCompleted(1024));
+
+    loaded.delete();
+    assertFalse(journalFile.exists());
+  }
+}
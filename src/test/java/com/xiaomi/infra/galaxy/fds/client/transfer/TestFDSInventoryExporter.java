@@ -0,0 +1,178 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.listing.FDSObjectVisitor;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObjectSummary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFDSInventoryExporter {
+
+  private File directory;
+  private InMemoryGalaxyFDS fds;
+  private List<String> names;
+  // Number of listing pages served before listings fail, negative for none
+  private int pagesBeforeFailure;
+  // Markers the listings continue after
+  private List<String> markers;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+    pagesBeforeFailure = -1;
+    markers = new ArrayList<String>();
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (method.equals("listNextBatchOfObjects")) {
+          markers.add(objectName);
+        }
+        if (method.startsWith("list") && pagesBeforeFailure >= 0 &&
+            pagesBeforeFailure-- == 0) {
+          throw new GalaxyFDSClientException("injected listing failure");
+        }
+      }
+    };
+    names = new ArrayList<String>();
+    for (int i = 0; i < 25; i++) {
+      String name = String.format("p/%02d", i);
+      fds.setContent("bucket", name, new byte[i]);
+      names.add(name);
+    }
+    fds.setContent("bucket", "q", new byte[0]);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  private static List<String> scan(FDSInventory inventory) throws Exception {
+    final List<String> scanned = new ArrayList<String>();
+    inventory.scan(new FDSObjectVisitor() {
+      @Override
+      public void visitObject(FDSObjectSummary summary) {
+        scanned.add(summary.getObjectName());
+      }
+
+      @Override
+      public void visitCommonPrefix(String commonPrefix) {
+        fail("an inventory has no common prefixes");
+      }
+    });
+    return scanned;
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testFind() throws Exception {
+    FDSInventory inventory = new FDSInventoryExporter(fds, 10, 7).export(
+        "bucket", "p/", directory);
+    assertTrue(inventory.isComplete());
+    assertEquals(3, inventory.getSegmentCount());
+    assertEquals(25, inventory.getObjectCount());
+    assertEquals(names, scan(inventory));
+
+    for (int i = 0; i < 25; i++) {
+      FDSObjectSummary summary = inventory.find(names.get(i));
+      assertEquals(names.get(i), summary.getObjectName());
+      assertEquals(i, summary.getSize());
+      assertEquals("bucket", summary.getBucketName());
+    }
+    // Before the first segment, between names, after the last segment
+    assertNull(inventory.find("p/"));
+    assertNull(inventory.find("p/095"));
+    assertNull(inventory.find("p/105"));
+    assertNull(inventory.find("q"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumeInterruptedExport() throws Exception {
+    FDSInventoryExporter exporter = new FDSInventoryExporter(fds, 10, 7);
+    // The third page fails, after the first segment was recorded
+    pagesBeforeFailure = 2;
+    try {
+      exporter.export("bucket", "p/", directory);
+      fail("export should fail");
+    } catch (GalaxyFDSClientException e) {
+      // expected
+    }
+    FDSInventory inventory = FDSInventory.load(directory);
+    assertFalse(inventory.isComplete());
+    assertNull(inventory.getCompletedTime());
+    assertEquals(1, inventory.getSegmentCount());
+    assertEquals("p/09", inventory.getLastObjectName());
+
+    fds.clearCalls();
+    markers.clear();
+    inventory = exporter.export("bucket", "p/", directory);
+    assertTrue(inventory.isComplete());
+    assertEquals(names, scan(inventory));
+    // The listing resumes after the last recorded object
+    assertEquals(0, fds.getCallCount("listObjects"));
+    assertEquals("p/09", markers.get(0));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testTornIndex() throws Exception {
+    new FDSInventoryExporter(fds, 10, 7).export("bucket", "p/", directory);
+    File indexFile = FDSInventory.getIndexFile(directory);
+    List<String> records = Files.readLines(indexFile, Charsets.UTF_8);
+    // Header, three segments, end: the process died writing the third one
+    assertEquals(5, records.size());
+    String torn = records.get(3).substring(0, records.get(3).length() / 2);
+    Files.write(Joiner.on('\n').join(records.subList(0, 3)) + "\n" + torn,
+        indexFile, Charsets.UTF_8);
+
+    FDSInventory inventory = FDSInventory.load(directory);
+    assertFalse(inventory.isComplete());
+    assertEquals(2, inventory.getSegmentCount());
+    assertEquals(20, inventory.getObjectCount());
+    assertNull(inventory.find("p/22"));
+
+    inventory = new FDSInventoryExporter(fds, 10, 7).export("bucket", "p/",
+        directory);
+    assertTrue(inventory.isComplete());
+    assertEquals(names, scan(inventory));
+    assertEquals("p/22", inventory.find("p/22").getObjectName());
+    // The torn record stays in the index and is skipped again
+    assertEquals(names, scan(FDSInventory.load(directory)));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testCompleteExportIsReusedUnlessFresh() throws Exception {
+    FDSInventoryExporter exporter = new FDSInventoryExporter(fds, 10, 7);
+    FDSInventory inventory = exporter.export("bucket", null, directory);
+    assertEquals("", inventory.getPrefix());
+    assertEquals(26, inventory.getObjectCount());
+    assertNotNull(inventory.getCompletedTime());
+
+    fds.setContent("bucket", "r", new byte[0]);
+    fds.clearCalls();
+    inventory = exporter.export("bucket", null, directory);
+    assertEquals(26, inventory.getObjectCount());
+    assertEquals(0, fds.getCalls().size());
+
+    inventory = exporter.export("bucket", "", directory, true);
+    assertTrue(inventory.isComplete());
+    assertEquals(27, inventory.getObjectCount());
+  }
+}
@@ -0,0 +1,157 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFDSObjectOutputStream {
+
+  private static final int PART_SIZE = 100;
+
+  private ExecutorService executor;
+  private PartBufferPool bufferPool;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+    bufferPool = new PartBufferPool(PART_SIZE, 3);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static byte[] content(int length) {
+    byte[] content = new byte[length];
+    for (int i = 0; i < length; i++) {
+      content[i] = (byte) i;
+    }
+    return content;
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testSinglePartPut() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    byte[] content = content(PART_SIZE);
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fds, "bucket",
+        "object", null, executor, bufferPool);
+    // An object of exactly one part is sent with a single request
+    assertEquals(PART_SIZE, output.transferFrom(
+        new ByteArrayInputStream(content)));
+    output.close();
+
+    assertArrayEquals(content, fds.getContent("bucket", "object"));
+    assertEquals(Arrays.asList("putObject"), fds.getCalls());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testMultipartCommit() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    byte[] content = content(PART_SIZE * 5 + 10);
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fds, "bucket",
+        "object", null, executor, bufferPool);
+    output.write(content, 0, 7);
+    output.write(content[7]);
+    output.write(content, 8, content.length - 8);
+    assertNull(fds.getContent("bucket", "object"));
+    output.close();
+
+    assertArrayEquals(content, fds.getContent("bucket", "object"));
+    assertEquals(6, fds.getCallCount("uploadPart"));
+    assertEquals(1, fds.getCallCount("completeMultipartUpload"));
+    assertEquals(0, fds.getPendingUploadCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testAbort() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fds, "bucket",
+        "object", null, executor, bufferPool);
+    output.write(content(PART_SIZE * 2 + 1));
+    output.abort();
+
+    assertNull(fds.getContent("bucket", "object"));
+    assertEquals(1, fds.getCallCount("abortMultipartUpload"));
+    assertEquals(0, fds.getPendingUploadCount());
+    try {
+      output.write(1);
+      fail("write after abort should fail");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testPartFailure() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (method.equals("uploadPart") && getCallCount(method) == 2) {
+          throw new GalaxyFDSClientException("injected part failure");
+        }
+      }
+    };
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fds, "bucket",
+        "object", null, executor, bufferPool);
+    output.write(content(PART_SIZE * 3 + 1));
+    try {
+      output.close();
+      fail("close should fail with the error of the part");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof GalaxyFDSClientException);
+      assertEquals("injected part failure", e.getCause().getMessage());
+    }
+
+    assertNull(fds.getContent("bucket", "object"));
+    assertEquals(0, fds.getCallCount("completeMultipartUpload"));
+    assertEquals(1, fds.getCallCount("abortMultipartUpload"));
+    assertEquals(0, fds.getPendingUploadCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testOpenStreamLimit() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    FDSObjectOutputStream[] outputs = new FDSObjectOutputStream[3];
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i] = new FDSObjectOutputStream(fds, "bucket", "object" + i,
+          null, executor, bufferPool);
+      outputs[i].write(i);
+    }
+    try {
+      new FDSObjectOutputStream(fds, "bucket", "object3", null, executor,
+          bufferPool);
+      fail("a stream beyond the capacity of the pool should not open");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    outputs[0].close();
+    FDSObjectOutputStream output = new FDSObjectOutputStream(fds, "bucket",
+        "object3", null, executor, bufferPool);
+    output.write(content(PART_SIZE * 2));
+    output.close();
+    outputs[1].abort();
+    outputs[2].close();
+    assertArrayEquals(new byte[] { 0 }, fds.getContent("bucket", "object0"));
+    assertNull(fds.getContent("bucket", "object1"));
+    assertArrayEquals(content(PART_SIZE * 2),
+        fds.getContent("bucket", "object3"));
+  }
+}
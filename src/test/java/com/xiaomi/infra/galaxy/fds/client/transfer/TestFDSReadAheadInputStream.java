@@ -0,0 +1,114 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFDSReadAheadInputStream {
+
+  private ExecutorService executor;
+  private byte[] content;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(8);
+    content = new byte[1050];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testReadInOrder() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    fds.setContent("bucket", "object", content);
+    FDSObjectMetadata metadata = fds.getObjectMetadata("bucket", "object");
+    FDSReadAheadInputStream input = new FDSReadAheadInputStream(fds,
+        "bucket", "object", metadata, executor, 100, 3);
+
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    read.write(input.read());
+    byte[] buffer = new byte[33];
+    int n;
+    while ((n = input.read(buffer, 0, buffer.length)) >= 0) {
+      read.write(buffer, 0, n);
+    }
+    assertEquals(-1, input.read());
+    input.close();
+
+    assertArrayEquals(content, read.toByteArray());
+    assertEquals(11, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testWindowBoundsRequestsInFlight() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName) {
+        if (method.equals("getObject")) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    fds.setContent("bucket", "object", content);
+    FDSObjectMetadata metadata = fds.getObjectMetadata("bucket", "object");
+    FDSReadAheadInputStream input = new FDSReadAheadInputStream(fds,
+        "bucket", "object", metadata, executor, 100, 3);
+
+    while (fds.getCallCount("getObject") < 3) {
+      Thread.sleep(10);
+    }
+    // The executor has idle threads, only the window limits the requests
+    Thread.sleep(200);
+    assertEquals(3, fds.getCallCount("getObject"));
+
+    release.countDown();
+    assertEquals(content[0] & 0xff, input.read());
+    input.close();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testObjectModifiedDuringRead() throws Exception {
+    InMemoryGalaxyFDS fds = new InMemoryGalaxyFDS();
+    fds.setContent("bucket", "object", content);
+    FDSObjectMetadata metadata = fds.getObjectMetadata("bucket", "object");
+    metadata.setLastModified(new Date(metadata.getLastModified().getTime() -
+        1000));
+    FDSReadAheadInputStream input = new FDSReadAheadInputStream(fds,
+        "bucket", "object", metadata, executor, 100, 2);
+    try {
+      input.read();
+      fail("a read of another version of the object should fail");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof GalaxyFDSClientException);
+    } finally {
+      input.close();
+    }
+  }
+}
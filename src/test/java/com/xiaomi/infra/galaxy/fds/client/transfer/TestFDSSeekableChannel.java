@@ -0,0 +1,121 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.FDSClientConfiguration;
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestFDSSeekableChannel {
+
+  private InMemoryGalaxyFDS fds;
+  private byte[] content;
+
+  @Before
+  public void setUp() {
+    content = new byte[1050];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+    fds = new InMemoryGalaxyFDS();
+    fds.setContent("bucket", "object", content);
+  }
+
+  private byte[] read(FDSSeekableChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    channel.position(position);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testRandomReads() throws Exception {
+    FDSClientConfiguration fdsConfig = new FDSClientConfiguration();
+    fdsConfig.setRandomAccessBlockSize(100);
+    fdsConfig.setRandomAccessCacheBlocks(4);
+    FDSSeekableChannel channel = FDSSeekableChannel.open(fds, fdsConfig,
+        "bucket", "object");
+    assertEquals(content.length, channel.size());
+
+    // Across the boundary of two blocks
+    assertArrayEquals(Arrays.copyOfRange(content, 950, 1050),
+        read(channel, 950, 100));
+    assertEquals(content.length, channel.position());
+    assertArrayEquals(Arrays.copyOfRange(content, 90, 310),
+        read(channel, 90, 220));
+    assertArrayEquals(Arrays.copyOfRange(content, 1000, 1050),
+        read(channel, 1000, 200));
+
+    assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+    channel.position(5000);
+    assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+    channel.close();
+    try {
+      channel.read(ByteBuffer.allocate(10));
+      fail("read of a closed channel should fail");
+    } catch (ClosedChannelException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testBlockCacheEviction() throws Exception {
+    FDSObjectMetadata metadata = fds.getObjectMetadata("bucket", "object");
+    FDSSeekableChannel channel = new FDSSeekableChannel(fds, "bucket",
+        "object", metadata, 100, 2);
+
+    read(channel, 0, 10);
+    read(channel, 150, 10);
+    assertEquals(2, fds.getCallCount("getObject"));
+    // Both blocks are cached
+    read(channel, 50, 60);
+    assertEquals(2, fds.getCallCount("getObject"));
+
+    // Block 2 evicts block 0, the least recently used one
+    read(channel, 250, 10);
+    assertEquals(3, fds.getCallCount("getObject"));
+    read(channel, 120, 10);
+    assertEquals(3, fds.getCallCount("getObject"));
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 10),
+        read(channel, 0, 10));
+    assertEquals(4, fds.getCallCount("getObject"));
+    channel.close();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testObjectModifiedDuringRead() throws Exception {
+    FDSObjectMetadata metadata = fds.getObjectMetadata("bucket", "object");
+    FDSSeekableChannel channel = new FDSSeekableChannel(fds, "bucket",
+        "object", metadata, 100, 2);
+    read(channel, 0, 10);
+
+    fds.setLastModified("bucket", "object",
+        new Date(metadata.getLastModified().getTime() + 1000));
+    try {
+      read(channel, 500, 10);
+      fail("a read of another version of the object should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    // Cached blocks of the version read so far stay readable
+    assertArrayEquals(Arrays.copyOfRange(content, 0, 10),
+        read(channel, 0, 10));
+    channel.close();
+  }
+}
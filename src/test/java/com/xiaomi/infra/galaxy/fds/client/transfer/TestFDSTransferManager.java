@@ -0,0 +1,428 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.client.FDSClientConfiguration;
+import com.xiaomi.infra.galaxy.fds.client.InMemoryGalaxyFDS;
+import com.xiaomi.infra.galaxy.fds.client.exception.GalaxyFDSClientException;
+import com.xiaomi.infra.galaxy.fds.client.model.FDSObject;
+import com.xiaomi.infra.galaxy.fds.model.FDSObjectMetadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFDSTransferManager {
+
+  private File directory;
+  private InMemoryGalaxyFDS fds;
+  private FDSClientConfiguration fdsConfig;
+  private FDSTransferManager transferManager;
+  // Number of part uploads served before they fail, negative for none
+  private volatile int partsBeforeFailure;
+  private volatile boolean delayFirstPart;
+  private final AtomicInteger partCount = new AtomicInteger();
+  // Number of ranges served before they fail, negative for none
+  private volatile int rangesBeforeFailure;
+  // Number of ranges served before the object is modified, negative for none
+  private volatile int rangesBeforeModification;
+  private final AtomicInteger rangeCount = new AtomicInteger();
+  // Offset of the range served one byte short, negative for none
+  private volatile long truncatedRangeOffset;
+  private byte[] content;
+
+  @Before
+  public void setUp() {
+    directory = Files.createTempDir();
+    partsBeforeFailure = -1;
+    rangesBeforeFailure = -1;
+    rangesBeforeModification = -1;
+    truncatedRangeOffset = -1;
+    fds = new InMemoryGalaxyFDS() {
+      @Override
+      protected void onCall(String method, String objectName)
+          throws GalaxyFDSClientException {
+        if (method.equals("uploadPart")) {
+          int count = partCount.getAndIncrement();
+          if (partsBeforeFailure >= 0 && count >= partsBeforeFailure) {
+            throw new GalaxyFDSClientException("injected part failure");
+          }
+          if (delayFirstPart && count == 0) {
+            // The first part completes after the following ones
+            sleep(200);
+          }
+        } else if (method.equals("getObject")) {
+          int count = rangeCount.getAndIncrement();
+          if (rangesBeforeFailure >= 0 && count >= rangesBeforeFailure) {
+            throw new GalaxyFDSClientException("injected range failure");
+          }
+          if (count == rangesBeforeModification) {
+            setLastModified("bucket", objectName,
+                new Date(System.currentTimeMillis() / 1000 * 1000 + 60000));
+          }
+        }
+      }
+
+      @Override
+      public FDSObjectMetadata getObjectMetadata(String bucketName,
+          String objectName) throws GalaxyFDSClientException {
+        FDSObjectMetadata metadata = super.getObjectMetadata(bucketName,
+            objectName);
+        metadata.setContentMD5(BaseEncoding.base16().lowerCase().encode(
+            md5(getContent(bucketName, objectName))));
+        return metadata;
+      }
+
+      @Override
+      public FDSObject getObject(String bucketName, String objectName,
+          long pos, long length) throws GalaxyFDSClientException {
+        if (pos == truncatedRangeOffset) {
+          length--;
+        }
+        return super.getObject(bucketName, objectName, pos, length);
+      }
+    };
+    fdsConfig = new FDSClientConfiguration();
+    fdsConfig.setMaxTransferThreads(4);
+    fdsConfig.setMultipartUploadThreshold(100);
+    fdsConfig.setUploadPartSize(100);
+    fdsConfig.setDownloadPartSize(100);
+    transferManager = new FDSTransferManager(fds, fdsConfig);
+    content = new byte[1050];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    transferManager.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  private static byte[] md5(byte[] data) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private File createFile(String name, byte[] data) throws Exception {
+    File file = new File(directory, name);
+    Files.write(data, file);
+    return file;
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testSmallFileIsPut() throws Exception {
+    File file = createFile("small", new byte[100]);
+    transferManager.upload("bucket", "object", file);
+    assertEquals(100, fds.getContent("bucket", "object").length);
+    assertEquals(1, fds.getCallCount("putObject"));
+    assertEquals(0, fds.getCallCount("initMultipartUpload"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testPartsAreCompletedInOrder() throws Exception {
+    File file = createFile("large", content);
+    delayFirstPart = true;
+    transferManager.upload("bucket", "object", file);
+    assertArrayEquals(content, fds.getContent("bucket", "object"));
+    assertEquals(11, fds.getCallCount("uploadPart"));
+    assertEquals(1, fds.getCallCount("completeMultipartUpload"));
+    assertEquals(0, fds.getPendingUploadCount());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testFailedPartAbortsUpload() throws Exception {
+    File file = createFile("large", content);
+    partsBeforeFailure = 3;
+    try {
+      transferManager.upload("bucket", "object", file);
+      fail("upload should fail");
+    } catch (GalaxyFDSClientException e) {
+      assertEquals("injected part failure", e.getMessage());
+    }
+    assertEquals(1, fds.getCallCount("abortMultipartUpload"));
+    assertEquals(0, fds.getCallCount("completeMultipartUpload"));
+    assertEquals(0, fds.getPendingUploadCount());
+    assertNull(fds.getContent("bucket", "object"));
+  }
+
+  /**
+   * Replaces the transfer manager with one running the specified number of
+   * threads, once the threads of the previous one are done, as a restarted
+   * process would.
+   */
+  private void restartTransferManager(int threads) throws Exception {
+    transferManager.shutdown();
+    transferManager.getExecutor().awaitTermination(10, TimeUnit.SECONDS);
+    fdsConfig.setMaxTransferThreads(threads);
+    transferManager = new FDSTransferManager(fds, fdsConfig);
+    partCount.set(0);
+    rangeCount.set(0);
+    fds.clearCalls();
+  }
+
+  /**
+   * Runs a resumable upload whose parts fail after the specified number,
+   * then restarts the transfer manager. The parts are sent one at a time,
+   * so the checkpoint records exactly the parts sent before the failure.
+   */
+  private void failResumableUpload(File file, File checkpointFile,
+      int partsBeforeFailure) throws Exception {
+    restartTransferManager(1);
+    this.partsBeforeFailure = partsBeforeFailure;
+    try {
+      transferManager.resumableUpload("bucket", "object", file,
+          checkpointFile);
+      fail("upload should fail");
+    } catch (GalaxyFDSClientException e) {
+      assertEquals("injected part failure", e.getMessage());
+    }
+    this.partsBeforeFailure = -1;
+    restartTransferManager(4);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumableUploadSendsMissingParts() throws Exception {
+    File file = createFile("large", content);
+    File checkpointFile = new File(directory, "large.checkpoint");
+    failResumableUpload(file, checkpointFile, 4);
+    // The failed upload is kept to be resumed
+    assertEquals(1, fds.getPendingUploadCount());
+    UploadCheckpoint checkpoint = UploadCheckpoint.load(checkpointFile);
+    assertEquals(4, checkpoint.getCompletedParts().size());
+    checkpoint.close();
+
+    transferManager.resumableUpload("bucket", "object", file, checkpointFile);
+    assertArrayEquals(content, fds.getContent("bucket", "object"));
+    assertEquals(0, fds.getCallCount("initMultipartUpload"));
+    assertEquals(7, fds.getCallCount("uploadPart"));
+    assertEquals(0, fds.getPendingUploadCount());
+    assertFalse(checkpointFile.exists());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testStaleUploadCheckpointIsAborted() throws Exception {
+    File file = createFile("large", content);
+    File checkpointFile = new File(directory, "large.checkpoint");
+    failResumableUpload(file, checkpointFile, 2);
+    assertEquals(1, fds.getPendingUploadCount());
+
+    // The file is modified before the upload is resumed
+    byte[] modified = new byte[content.length + 10];
+    Files.write(modified, file);
+    transferManager.resumableUpload("bucket", "object", file, checkpointFile);
+    assertArrayEquals(modified, fds.getContent("bucket", "object"));
+    assertEquals(1, fds.getCallCount("abortMultipartUpload"));
+    assertEquals(1, fds.getCallCount("initMultipartUpload"));
+    assertEquals(11, fds.getCallCount("uploadPart"));
+    assertEquals(0, fds.getPendingUploadCount());
+    assertFalse(checkpointFile.exists());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDownloadSplitsRanges() throws Exception {
+    fds.setContent("bucket", "object", content);
+    File file = new File(directory, "download");
+    assertEquals(content.length,
+        transferManager.download("bucket", "object", file).getContentLength());
+    assertArrayEquals(content, Files.toByteArray(file));
+    assertEquals(11, fds.getCallCount("getObject"));
+
+    // An object within a range is fetched with a single request
+    fds.setContent("bucket", "small", new byte[100]);
+    fds.clearCalls();
+    transferManager.download("bucket", "small", file);
+    assertEquals(100, file.length());
+    assertEquals(1, fds.getCallCount("getObject"));
+  }
+
+  private void assertDownloadFails(String message) throws Exception {
+    fds.setContent("bucket", "object", content);
+    File file = new File(directory, "download");
+    try {
+      transferManager.download("bucket", "object", file);
+      fail("download should fail");
+    } catch (GalaxyFDSClientException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+    // The partial file is removed
+    assertFalse(file.exists());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testTruncatedRangeFailsDownload() throws Exception {
+    truncatedRangeOffset = 500;
+    assertDownloadFails("range [500, 600) of object [object] truncated");
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testModificationBetweenRangesFailsDownload() throws Exception {
+    rangesBeforeModification = 3;
+    assertDownloadFails("object [object] modified during download");
+  }
+
+  /**
+   * Runs a resumable download whose ranges fail after the specified number,
+   * then restarts the transfer manager. The ranges are fetched one at a
+   * time, so the checkpoint records exactly the ranges fetched before the
+   * failure.
+   */
+  private void failResumableDownload(File file, int rangesBeforeFailure)
+      throws Exception {
+    restartTransferManager(1);
+    this.rangesBeforeFailure = rangesBeforeFailure;
+    try {
+      transferManager.resumableDownload("bucket", "object", file);
+      fail("download should fail");
+    } catch (GalaxyFDSClientException e) {
+      assertEquals("injected range failure", e.getMessage());
+    }
+    this.rangesBeforeFailure = -1;
+    restartTransferManager(4);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumableDownloadFetchesMissingRanges() throws Exception {
+    fdsConfig.setEnableMd5Verify(true);
+    fds.setContent("bucket", "object", content);
+    File file = new File(directory, "download");
+    File checkpointFile = new File(file.getPath() +
+        FDSTransferManager.DOWNLOAD_CHECKPOINT_SUFFIX);
+    failResumableDownload(file, 4);
+    // The file and the checkpoint are kept to be resumed
+    assertEquals(content.length, file.length());
+    assertTrue(checkpointFile.exists());
+
+    transferManager.resumableDownload("bucket", "object", file);
+    assertArrayEquals(content, Files.toByteArray(file));
+    assertEquals(7, fds.getCallCount("getObject"));
+    assertFalse(checkpointFile.exists());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumableDownloadChecksRestoredRanges() throws Exception {
+    fdsConfig.setEnableMd5Verify(true);
+    fds.setContent("bucket", "object", content);
+    File file = new File(directory, "download");
+    failResumableDownload(file, 4);
+    // A range restored from the checkpoint is corrupted on disk
+    RandomAccessFile output = new RandomAccessFile(file, "rw");
+    try {
+      output.seek(150);
+      output.write(content[150] + 1);
+    } finally {
+      output.close();
+    }
+
+    try {
+      transferManager.resumableDownload("bucket", "object", file);
+      fail("download should fail");
+    } catch (GalaxyFDSClientException e) {
+      // The MD5 digest covers the restored ranges
+      assertTrue(e.getMessage(), e.getMessage().startsWith("MD5 mismatch"));
+    }
+    assertEquals(7, fds.getCallCount("getObject"));
+    // The checkpoint is discarded, the next attempt starts over
+    fds.clearCalls();
+    transferManager.resumableDownload("bucket", "object", file);
+    assertArrayEquals(content, Files.toByteArray(file));
+    assertEquals(11, fds.getCallCount("getObject"));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumableDownloadOfModifiedObjectStartsOver()
+      throws Exception {
+    fds.setContent("bucket", "object", content);
+    File file = new File(directory, "download");
+    failResumableDownload(file, 4);
+
+    byte[] modified = new byte[content.length];
+    fds.setContent("bucket", "object", modified);
+    fds.setLastModified("bucket", "object",
+        new Date(System.currentTimeMillis() / 1000 * 1000 + 60000));
+    transferManager.resumableDownload("bucket", "object", file);
+    assertArrayEquals(modified, Files.toByteArray(file));
+    assertEquals(11, fds.getCallCount("getObject"));
+  }
+
+  @Test
+  public void testGetRelativeName() {
+    assertEquals("a", FDSTransferManager.getRelativeName("photos/",
+        "photos/a"));
+    assertEquals("a", FDSTransferManager.getRelativeName("photos",
+        "photos/a"));
+    assertEquals("b/c", FDSTransferManager.getRelativeName("photos",
+        "photos//b/c"));
+    assertEquals("a", FDSTransferManager.getRelativeName("photos/a",
+        "photos/a"));
+    assertEquals("photos", FDSTransferManager.getRelativeName("photos",
+        "photos"));
+    assertEquals("photos/a", FDSTransferManager.getRelativeName("",
+        "photos/a"));
+  }
+
+  private BulkDownloadResult downloadDirectory(String prefix, File target)
+      throws Exception {
+    fds.setContent("bucket", "photos/", new byte[0]);
+    fds.setContent("bucket", "photos/a", new byte[10]);
+    fds.setContent("bucket", "photos/b/c", new byte[20]);
+    fds.setContent("bucket", "photos/b/../../escape", new byte[30]);
+    fds.setContent("bucket", "photos/..", new byte[40]);
+    return transferManager.downloadDirectory("bucket", prefix, target);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testDownloadDirectory() throws Exception {
+    for (String prefix : new String[] { "photos/", "photos" }) {
+      File target = new File(directory, "target");
+      BulkDownloadResult result = downloadDirectory(prefix, target);
+      assertEquals(prefix, 2, result.getDownloadedObjectCount());
+      assertEquals(prefix, 30, result.getDownloadedBytes());
+      assertEquals(10, new File(target, "a").length());
+      assertEquals(20, new File(target, "b/c").length());
+      // The names leading out of the directory fail, the placeholder of the
+      // directory is skipped
+      assertEquals(new HashSet<String>(Arrays.asList("photos/..",
+          "photos/b/../../escape")), result.getFailures().keySet());
+      assertFalse(new File(directory, "escape").exists());
+      FileUtils.deleteDirectory(target);
+    }
+
+    // An object named exactly the prefix is named after its last segment
+    File target = new File(directory, "target");
+    BulkDownloadResult result = transferManager.downloadDirectory("bucket",
+        "photos/a", target);
+    assertTrue(result.isSuccessful());
+    assertEquals(10, new File(target, "a").length());
+  }
+}
@@ -0,0 +1,59 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestRangeCoalescing {
+
+  @Test
+  public void testMergeWithinGap() {
+    List<ByteRange> ranges = Arrays.asList(
+        new ByteRange(1000, 100),  // 0
+        new ByteRange(0, 100),     // 1
+        new ByteRange(150, 50),    // 2, gap of 50 after range 1
+        new ByteRange(5000, 10),   // 3
+        new ByteRange(1050, 100)); // 4, overlaps range 0
+
+    List<FDSTransferManager.CoalescedRange> merged =
+        FDSTransferManager.coalesce(ranges, 50, Long.MAX_VALUE);
+    assertEquals(3, merged.size());
+
+    assertEquals(0, merged.get(0).getOffset());
+    assertEquals(200, merged.get(0).getEnd());
+    assertEquals(Arrays.asList(1, 2), merged.get(0).getRangeIndexes());
+
+    assertEquals(1000, merged.get(1).getOffset());
+    assertEquals(1150, merged.get(1).getEnd());
+    assertEquals(Arrays.asList(0, 4), merged.get(1).getRangeIndexes());
+
+    assertEquals(5000, merged.get(2).getOffset());
+    assertEquals(10, merged.get(2).getLength());
+    assertEquals(Arrays.asList(3), merged.get(2).getRangeIndexes());
+  }
+
+  @Test
+  public void testMergedLengthBounded() {
+    List<ByteRange> ranges = Arrays.asList(
+        new ByteRange(0, 100),
+        new ByteRange(100, 100),
+        new ByteRange(200, 100),
+        new ByteRange(300, 500));
+
+    List<FDSTransferManager.CoalescedRange> merged =
+        FDSTransferManager.coalesce(ranges, 0, 200);
+    assertEquals(3, merged.size());
+    assertEquals(200, merged.get(0).getLength());
+    assertEquals(100, merged.get(1).getLength());
+    // A range longer than the bound is fetched on its own
+    assertEquals(500, merged.get(2).getLength());
+
+    // Without a gap allowance distant ranges are never merged
+    merged = FDSTransferManager.coalesce(Arrays.asList(
+        new ByteRange(0, 10), new ByteRange(11, 10)), 0, Long.MAX_VALUE);
+    assertEquals(2, merged.size());
+  }
+}
@@ -0,0 +1,107 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestRangeDigest {
+
+  private File file;
+  private RandomAccessFile output;
+  private FileChannel channel;
+  private byte[] content;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("digest", ".data");
+    output = new RandomAccessFile(file, "rw");
+    channel = output.getChannel();
+    content = new byte[1000];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 7);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    output.close();
+    file.delete();
+  }
+
+  private void write(RangeDigest digest, int position, int length)
+      throws Exception {
+    channel.write(ByteBuffer.wrap(content, position, length), position);
+    digest.update(position, content, position, length);
+  }
+
+  private byte[] md5() throws Exception {
+    return MessageDigest.getInstance("MD5").digest(content);
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testInOrderWritesAreNotReadBack() throws Exception {
+    RangeDigest digest = new RangeDigest(channel, 64);
+    for (int position = 0; position < 1000; position += 100) {
+      write(digest, position, 100);
+    }
+    assertArrayEquals(md5(), digest.finish(1000));
+    assertEquals(0, digest.getReadBackBytes());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testOutOfOrderRanges() throws Exception {
+    RangeDigest digest = new RangeDigest(channel, 64);
+    // Ranges of 250 bytes, the second and the fourth are written first
+    write(digest, 250, 100);
+    write(digest, 750, 250);
+    write(digest, 0, 250);
+    // The head reached the second range half way, it is read back and the
+    // rest of the range is digested as it is written
+    assertEquals(100, digest.getReadBackBytes());
+    write(digest, 350, 150);
+    write(digest, 500, 200);
+    write(digest, 700, 50);
+    assertEquals(350, digest.getReadBackBytes());
+    assertArrayEquals(md5(), digest.finish(1000));
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testRestoredRangesAreReadBack() throws Exception {
+    channel.write(ByteBuffer.wrap(content, 0, 250), 0);
+    channel.write(ByteBuffer.wrap(content, 500, 250), 500);
+    RangeDigest digest = new RangeDigest(channel, 64);
+    digest.addWrittenRange(0, 250);
+    digest.addWrittenRange(500, 250);
+    digest.readBack();
+    assertEquals(250, digest.getReadBackBytes());
+
+    write(digest, 250, 250);
+    write(digest, 750, 250);
+    assertArrayEquals(md5(), digest.finish(1000));
+    assertEquals(500, digest.getReadBackBytes());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testMissingRange() throws Exception {
+    RangeDigest digest = new RangeDigest(channel, 64);
+    write(digest, 0, 250);
+    write(digest, 500, 500);
+    try {
+      digest.finish(1000);
+      fail("a digest with a gap should fail");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
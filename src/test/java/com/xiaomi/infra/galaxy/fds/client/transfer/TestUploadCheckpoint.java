@@ -0,0 +1,91 @@
+package com.xiaomi.infra.galaxy.fds.client.transfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xiaomi.infra.galaxy.fds.result.UploadPartResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestUploadCheckpoint {
+
+  private File sourceFile;
+  private File journalFile;
+
+  @Before
+  public void setUp() throws Exception {
+    sourceFile = File.createTempFile("upload-source", ".dat");
+    FileOutputStream out = new FileOutputStream(sourceFile);
+    out.write(new byte[1024]);
+    out.close();
+    journalFile = File.createTempFile("upload-checkpoint", ".journal");
+    journalFile.delete();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    sourceFile.delete();
+    journalFile.delete();
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testResumeFromJournal() throws Exception {
+    assertNull(UploadCheckpoint.load(journalFile));
+
+    UploadCheckpoint checkpoint = UploadCheckpoint.create(journalFile,
+        "bucket", "object", "upload-id", 256, sourceFile);
+    checkpoint.partCompleted(new UploadPartResult(3, 256, "etag-3"));
+    checkpoint.partCompleted(new UploadPartResult(1, 256, "etag-1"));
+    checkpoint.close();
+
+    UploadCheckpoint loaded = UploadCheckpoint.load(journalFile);
+    assertTrue(loaded.matches("bucket", "object", sourceFile));
+    assertFalse(loaded.matches("bucket", "other", sourceFile));
+    assertEquals("upload-id", loaded.getUploadId());
+    assertEquals(256, loaded.getPartSize());
+    assertTrue(loaded.isPartCompleted(1));
+    assertFalse(loaded.isPartCompleted(2));
+
+    loaded.partCompleted(new UploadPartResult(2, 256, "etag-2"));
+    List<UploadPartResult> parts = loaded.getCompletedParts();
+    assertEquals(3, parts.size());
+    for (int i = 0; i < parts.size(); i++) {
+      assertEquals(i + 1, parts.get(i).getPartNumber());
+      assertEquals("etag-" + (i + 1), parts.get(i).getEtag());
+    }
+
+    loaded.delete();
+    assertFalse(journalFile.exists());
+  }
+
+  @Test(timeout = 120 * 1000)
+  public void testTornRecordIgnored() throws Exception {
+    UploadCheckpoint checkpoint = UploadCheckpoint.create(journalFile,
+        "bucket", "object", "upload-id", 256, sourceFile);
+    checkpoint.partCompleted(new UploadPartResult(1, 256, "etag-1"));
+    checkpoint.close();
+
+    FileOutputStream out = new FileOutputStream(journalFile, true);
+    out.write("{\"partNumber\":2,\"et".getBytes("UTF-8"));
+    out.close();
+
+    UploadCheckpoint loaded = UploadCheckpoint.load(journalFile);
+    assertEquals(1, loaded.getCompletedParts().size());
+    assertFalse(loaded.isPartCompleted(2));
+    loaded.partCompleted(new UploadPartResult(2, 256, "etag-2"));
+    loaded.close();
+
+    loaded = UploadCheckpoint.load(journalFile);
+    assertEquals(2, loaded.getCompletedParts().size());
+    assertTrue(loaded.isPartCompleted(2));
+    loaded.close();
+  }
+}